@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jbpm.bootstrap.service.archive.ArchiveEntry;
+import org.jbpm.bootstrap.service.archive.ArchiveFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Archives synthetic project trees (same as {@link ZipArchiveBenchmark}) in each of the supported archive
+ * formats. Measured time is the latency of a response, zips are compressed on the shared pool so CPU time
+ * spent by the whole process per archive and the archive size are printed at the end of each trial -
+ * that's the trade-off to pick default formats by.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArchiveFormatBenchmark {
+
+    private static final int FILES_PER_FOLDER = 20;
+
+    @Param({"500"})
+    public int files;
+
+    @Param({"zip-0", "zip-1", "zip-6", "zip-9", "tar.gz-1", "tar.gz-6", "tar.gz-9"})
+    public String format;
+
+    private ArchiveFormat archiveFormat;
+
+    private File root;
+    private List<ArchiveEntry> entries;
+    private File archive;
+
+    private long archives;
+    private long cpuStarted;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        archiveFormat = ArchiveFormat.parse(format);
+        root = Files.createTempDirectory("format-benchmark").toFile();
+        Path project = root.toPath().resolve("project");
+        for (int i = 0; i < files; i++) {
+            Path folder = project.resolve("module" + (i % 3))
+                    .resolve("src/main/java/com/company/package" + (i / FILES_PER_FOLDER));
+            Files.createDirectories(folder);
+            Files.write(folder.resolve("Source" + i + (i % 10 == 0 ? ".xml" : ".java")),
+                        content(i).getBytes(StandardCharsets.UTF_8));
+        }
+        entries = ArchiveEntry.listFiles(project);
+        archive = new File(root,
+                           "project" + archiveFormat.getExtension());
+        archives = 0;
+        cpuStarted = processCpuTime();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        long cpu = processCpuTime() - cpuStarted;
+        if (cpu >= 0 && archives > 0) {
+            System.out.printf("%n%s: %d files, %d bytes, %.2f ms CPU per archive%n",
+                              archiveFormat,
+                              files,
+                              archive.length(),
+                              cpu / 1e6 / archives);
+        }
+        FileSystemUtils.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        long size;
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(archive),
+                                                            64 * 1024)) {
+            size = archiveFormat.newWriter().write(entries,
+                                                   output);
+        }
+        archives++;
+        return size;
+    }
+
+    /*
+     * CPU time of all threads of the process (including the shared compression pool), -1 when not known
+     */
+    private static long processCpuTime() {
+        java.lang.management.OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    /*
+     * one to eight kilobytes of source like text, similar but not identical between files
+     */
+    private static String content(int index) {
+        StringBuilder content = new StringBuilder("package com.company;\n\npublic class Source" + index + " {\n");
+        for (int line = 0; line < 20 + (index % 8) * 25; line++) {
+            content.append("    private String field").append(line).append(" = \"value ").append(index * line).append("\";\n");
+        }
+        return content.append("}\n").toString();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.benchmarks;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jbpm.bootstrap.model.Project;
+import org.jbpm.bootstrap.service.util.BuildComponent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Request preparation done by <code>BuildComponent</code> before every generation - defaults, application
+ * type and spring boot version resolution and process instance parameters - for a project with nothing
+ * set (form submitted as is) and a fully specified one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuildComponentBenchmark {
+
+    @Param({"empty", "full"})
+    public String project;
+
+    private Preparation component = new Preparation();
+
+    @Benchmark
+    public Project setDefaultsIfNotExist() {
+        return component.setDefaultsIfNotExist(newProject());
+    }
+
+    @Benchmark
+    public String resolveApplicationType() {
+        return component.resolveApplicationType(component.setDefaultsIfNotExist(newProject()));
+    }
+
+    @Benchmark
+    public Map<String, Object> buildProcessParameters() {
+        Project prepared = component.setDefaultsIfNotExist(newProject());
+        return component.buildProcessParameters(prepared,
+                                                component.resolveApplicationType(prepared),
+                                                component.resolveSpringBootVersion(prepared),
+                                                false,
+                                                "-Dmaven.repo.local=/tmp/repository -o");
+    }
+
+    private Project newProject() {
+        Project newProject = new Project();
+        if ("full".equals(project)) {
+            newProject.setName("business-application-service");
+            newProject.setPackageName("org.company.business");
+            newProject.setVersion("7.48.0.Final");
+            newProject.setOptions(Arrays.asList("dkjar",
+                                                "model",
+                                                "service"));
+            newProject.setCapabilities(Arrays.asList("bpm",
+                                                     "planner"));
+        }
+        return newProject;
+    }
+
+    /*
+     * exposes request preparation of the component, no Spring context is needed for it
+     */
+    private static class Preparation extends BuildComponent {
+
+        @Override
+        protected String resolveApplicationType(Project project) {
+            return super.resolveApplicationType(project);
+        }
+
+        @Override
+        protected String resolveSpringBootVersion(Project project) {
+            return super.resolveSpringBootVersion(project);
+        }
+
+        @Override
+        protected Map<String, Object> buildProcessParameters(Project project,
+                                                             String projectSetup,
+                                                             String springbootVersion,
+                                                             boolean isWeb,
+                                                             String mavenSettings) {
+            return super.buildProcessParameters(project,
+                                                projectSetup,
+                                                springbootVersion,
+                                                isWeb,
+                                                mavenSettings);
+        }
+    }
+}
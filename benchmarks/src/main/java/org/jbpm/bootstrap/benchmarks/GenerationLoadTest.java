@@ -0,0 +1,306 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.jbpm.bootstrap.service.BootstrapJbpmApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Load test of project generation endpoints - <code>POST /gen</code> (rest) and <code>POST /</code> (web form).
+ * Starts the service in <code>loadtest</code> profile (generation process replaced by a stub, see
+ * <code>StubProcessLauncher</code>) unless <code>load.url</code> points to a running instance, then sends
+ * given number of requests at each given concurrency level and reports throughput, latency percentiles and
+ * high-water marks of heap (of this JVM, so only when the service runs in it) and generation temp folders.
+ * <br/>
+ * Run with <code>mvn compile -Pload-test</code>, configured by system properties:
+ * <ul>
+ *     <li><code>load.url</code> - url of running service, the service is started in process when not set</li>
+ *     <li><code>load.endpoint</code> - <code>gen</code>, <code>form</code> or <code>both</code> (alternating), <code>gen</code> by default</li>
+ *     <li><code>load.concurrency</code> - comma separated concurrency levels, <code>1,4,16</code> by default</li>
+ *     <li><code>load.requests</code> - requests per concurrency level, 200 by default</li>
+ *     <li><code>load.warmup</code> - requests sent before measuring each level, 20 by default</li>
+ *     <li><code>load.output</code> - JSON results file, <code>target/load-result.json</code> by default</li>
+ *     <li><code>load.workspace</code> - generation workspace of the service sampled for disk usage, default
+ *     workspace location by default</li>
+ * </ul>
+ * Stub timings are configured by <code>bootstrap.stub.*</code> properties, e.g.
+ * <code>-Dbootstrap.stub.build-delay-ms=5000</code>.
+ */
+public class GenerationLoadTest {
+
+    private static final Pattern WORKSPACE = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+    private static final long SAMPLE_INTERVAL = 100;
+
+    private final String url;
+    private final String endpoint;
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    GenerationLoadTest(String url,
+                       String endpoint) {
+        this.url = url;
+        this.endpoint = endpoint;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = System.getProperty("load.url");
+        String endpoint = System.getProperty("load.endpoint", "gen");
+        int requests = Integer.getInteger("load.requests", 200);
+        int warmup = Integer.getInteger("load.warmup", 20);
+        File output = new File(System.getProperty("load.output", "target/load-result.json"));
+
+        ConfigurableApplicationContext context = null;
+        if (url == null) {
+            SpringApplication application = new SpringApplication(BootstrapJbpmApplication.class);
+            application.setAdditionalProfiles("loadtest");
+            context = application.run("--server.port=0");
+            url = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        }
+        try {
+            GenerationLoadTest loadTest = new GenerationLoadTest(url,
+                                                                 endpoint);
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (String level : System.getProperty("load.concurrency", "1,4,16").split(",")) {
+                int concurrency = Integer.parseInt(level.trim());
+                loadTest.run(concurrency,
+                             warmup);
+                Map<String, Object> result = loadTest.run(concurrency,
+                                                          requests);
+                System.out.println(result);
+                results.add(result);
+            }
+            output.getAbsoluteFile().getParentFile().mkdirs();
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(output,
+                                                                                     results);
+            System.out.println("Results stored in " + output.getAbsolutePath());
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+        }
+    }
+
+    /**
+     * Sends given number of requests by given number of concurrent clients.
+     */
+    Map<String, Object> run(int concurrency,
+                            int requests) throws Exception {
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+
+        resetPeakHeap();
+        HighWaterMarks marks = new HighWaterMarks();
+        Thread sampler = new Thread(marks,
+                                    "load-test-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        long started = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                futures.add(clients.submit(() -> {
+                    int request;
+                    while ((request = next.getAndIncrement()) < requests) {
+                        long requestStarted = System.nanoTime();
+                        try {
+                            bytes.addAndGet(send());
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                        }
+                        latencies[request] = System.nanoTime() - requestStarted;
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            clients.shutdownNow();
+            marks.stop();
+            sampler.join();
+        }
+        long duration = System.nanoTime() - started;
+
+        Arrays.sort(latencies);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("endpoint", endpoint);
+        result.put("concurrency", concurrency);
+        result.put("requests", requests);
+        result.put("errors", errors.get());
+        result.put("durationMs", TimeUnit.NANOSECONDS.toMillis(duration));
+        result.put("throughputPerSecond", requests / (duration / 1e9));
+        result.put("latencyP50Ms", percentile(latencies, 50));
+        result.put("latencyP90Ms", percentile(latencies, 90));
+        result.put("latencyP99Ms", percentile(latencies, 99));
+        result.put("latencyMaxMs", percentile(latencies, 100));
+        result.put("receivedBytes", bytes.get());
+        result.put("heapPeakBytes", Math.max(marks.heap, peakHeap()));
+        result.put("tempDiskPeakBytes", marks.disk);
+        return result;
+    }
+
+    /**
+     * Sends one generation request and reads the whole archive.
+     *
+     * @return size of the archive
+     */
+    private long send() throws IOException {
+        int request = sequence.incrementAndGet();
+        boolean form = "form".equals(endpoint) || ("both".equals(endpoint) && request % 2 == 0);
+        String name = "load-test-" + request;
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + (form ? "/" : "/gen")).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Accept", "application/octet-stream");
+        byte[] body;
+        if (form) {
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            body = ("name=" + name + "&packageName=com.company&version=7.59.0.Final&capabilities=bpm"
+                    + "&options=kjar&options=model&options=service").getBytes(StandardCharsets.UTF_8);
+        } else {
+            connection.setRequestProperty("Content-Type", "application/json");
+            body = ("{\"name\":\"" + name + "\",\"packagename\":\"com.company\",\"version\":\"7.59.0.Final\","
+                    + "\"capabilities\":\"bpm\",\"options\":[\"kjar\",\"model\",\"service\"]}").getBytes(StandardCharsets.UTF_8);
+        }
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            connection.disconnect();
+            throw new IOException("Unexpected response " + connection.getResponseCode());
+        }
+        long size = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = connection.getInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                size += read;
+            }
+        }
+        return size;
+    }
+
+    private static double percentile(long[] sorted,
+                                     int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Samples used heap and disk used by generation temp folders until stopped.
+     */
+    private static class HighWaterMarks implements Runnable {
+
+        private final File parent = new File(System.getProperty("load.workspace",
+                                                                 System.getProperty("java.io.tmpdir") + File.separator + "jbpm-bootstrap-workspace"));
+
+        private volatile boolean running = true;
+        private volatile long heap;
+        private volatile long disk;
+
+        @Override
+        public void run() {
+            while (running) {
+                heap = Math.max(heap,
+                                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+                disk = Math.max(disk,
+                                workspaceBytes());
+                try {
+                    Thread.sleep(SAMPLE_INTERVAL);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        void stop() {
+            running = false;
+        }
+
+        private long workspaceBytes() {
+            File[] folders = parent.listFiles(file -> file.isDirectory() && WORKSPACE.matcher(file.getName()).matches());
+            if (folders == null) {
+                return 0;
+            }
+            long total = 0;
+            for (File folder : folders) {
+                try (Stream<Path> files = Files.walk(folder.toPath())) {
+                    total += files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+                } catch (IOException | RuntimeException e) {
+                    // folder removed while walking it
+                }
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.benchmarks;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares report queries as defined in <code>default-query-definitions.json</code> before (<code>legacy</code>:
+ * formatted start date, <code>REPLACE</code> on every variable value, no indexes) and after (<code>indexed</code>:
+ * range predicates on raw dates, normalized values, indexes created by <code>ReportSchemaInitializer</code>)
+ * on H2 seeded with a million <code>VariableInstanceLog</code> rows.
+ * <br/>
+ * Queries are wrapped the same way the query service wraps custom query definitions.
+ * Run with <code>mvn package -Prun-benchmarks -Dbenchmarks=ReportQueryBenchmark</code>, results are stored
+ * in <code>target/jmh-result.json</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportQueryBenchmark {
+
+    private static final String LEGACY_PROCESS_INSTANCES = "select log.processInstanceId, log.processId, FORMATDATETIME(log.start_date, 'yyyy-MM-dd') as start_date, log.end_date, log.status from ProcessInstanceLog log where log.status = 2 ";
+    private static final String LEGACY_VARIABLES = "select vil.processInstanceId, vil.processId, vil.id, vil.variableId, REPLACE(vil.value, ' ') value from VariableInstanceLog vil";
+
+    private static final String PROCESS_INSTANCES = "select log.processInstanceId, log.processId, log.start_date, log.end_date, log.status from ProcessInstanceLog log where log.status = 2 ";
+    private static final String VARIABLES = "select vil.processInstanceId, vil.processId, vil.id, vil.variableId, vil.value from VariableInstanceLog vil";
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2018, 1, 1);
+
+    @Param({"legacy", "indexed"})
+    public String schema;
+
+    /**
+     * Each instance logs four variables.
+     */
+    @Param({"250000"})
+    public int instances;
+
+    private Connection connection;
+    private LocalDate lastDay;
+
+    private PreparedStatement completedOnDay;
+    private PreparedStatement completedByDay;
+    private PreparedStatement countByVariable;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:" + schema + ";DB_CLOSE_DELAY=-1",
+                                                 "sa",
+                                                 "sa");
+        boolean legacy = "legacy".equals(schema);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE ProcessInstanceLog (id BIGINT AUTO_INCREMENT PRIMARY KEY, processInstanceId BIGINT, "
+                                      + "processId VARCHAR(255), start_date TIMESTAMP, end_date TIMESTAMP, status INT)");
+            statement.execute("CREATE TABLE VariableInstanceLog (id BIGINT AUTO_INCREMENT PRIMARY KEY, processInstanceId BIGINT, "
+                                      + "processId VARCHAR(255), variableId VARCHAR(255), value VARCHAR(255))");
+
+            // one instance a minute, every twentieth one aborted
+            statement.execute("INSERT INTO ProcessInstanceLog (processInstanceId, processId, start_date, end_date, status) "
+                                      + "SELECT X, 'GenerateProject', DATEADD('SECOND', X * 60, TIMESTAMP '" + FIRST_DAY + " 00:00:00'), "
+                                      + "DATEADD('SECOND', X * 60 + 5, TIMESTAMP '" + FIRST_DAY + " 00:00:00'), "
+                                      + "CASE WHEN MOD(X, 20) = 0 THEN 3 ELSE 2 END FROM SYSTEM_RANGE(1, " + instances + ")");
+            seedVariable(statement,
+                         "projectSetup",
+                         "CASE MOD(X, 3) WHEN 0 THEN 'bpm' WHEN 1 THEN 'brm' ELSE 'planner' END");
+            seedVariable(statement,
+                         "projectVersion",
+                         "CASE MOD(X, 4) WHEN 0 THEN '7.59.0.Final' WHEN 1 THEN '7.48.0.Final' WHEN 2 THEN '7.18.0.Final' ELSE '7.7.0.Final' END");
+            String separator = legacy ? ", " : ",";
+            seedVariable(statement,
+                         "projectOptions",
+                         "CASE MOD(X, 3) WHEN 0 THEN 'kjar" + separator + "model" + separator + "service' "
+                                 + "WHEN 1 THEN 'dkjar" + separator + "model" + separator + "service' ELSE 'model" + separator + "service' END");
+            seedVariable(statement,
+                         "generationType",
+                         "CASE MOD(X, 2) WHEN 0 THEN 'web' ELSE 'rest' END");
+
+            if (!legacy) {
+                statement.execute("CREATE INDEX IF NOT EXISTS IDX_PInstLog_status_dates ON ProcessInstanceLog(status, start_date, end_date)");
+                statement.execute("CREATE INDEX IF NOT EXISTS IDX_VInstLog_varId_value ON VariableInstanceLog(variableId, value)");
+            }
+            statement.execute("ANALYZE");
+        }
+        lastDay = FIRST_DAY.plusDays(instances / (24 * 60));
+
+        if (legacy) {
+            completedOnDay = connection.prepareStatement("SELECT COUNT(processInstanceId) FROM (" + LEGACY_PROCESS_INSTANCES + ") q WHERE start_date = ?");
+            completedByDay = connection.prepareStatement("SELECT FORMATDATETIME(end_date, 'yyyy-MM-dd') end_day, COUNT(processInstanceId) FROM ("
+                                                                 + LEGACY_PROCESS_INSTANCES + ") q GROUP BY end_day ORDER BY end_day DESC LIMIT 10");
+            countByVariable = connection.prepareStatement("SELECT value, COUNT(processInstanceId) FROM (" + LEGACY_VARIABLES + ") q WHERE variableId = ? GROUP BY value");
+        } else {
+            completedOnDay = connection.prepareStatement("SELECT COUNT(processInstanceId) FROM (" + PROCESS_INSTANCES + ") q WHERE start_date >= ? AND start_date < ?");
+            completedByDay = connection.prepareStatement("SELECT FORMATDATETIME(end_date, 'yyyy-MM-dd') end_day, COUNT(processInstanceId) FROM ("
+                                                                 + PROCESS_INSTANCES + ") q WHERE end_date >= ? GROUP BY end_day ORDER BY end_day DESC LIMIT 10");
+            countByVariable = connection.prepareStatement("SELECT value, COUNT(processInstanceId) FROM (" + VARIABLES + ") q WHERE variableId = ? GROUP BY value");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+        connection.close();
+    }
+
+    @Benchmark
+    public long completedOnDay() throws SQLException {
+        if ("legacy".equals(schema)) {
+            completedOnDay.setString(1,
+                                     lastDay.toString());
+        } else {
+            completedOnDay.setTimestamp(1,
+                                        Timestamp.valueOf(lastDay.atStartOfDay()));
+            completedOnDay.setTimestamp(2,
+                                        Timestamp.valueOf(lastDay.plusDays(1).atStartOfDay()));
+        }
+        return sum(completedOnDay,
+                   1);
+    }
+
+    @Benchmark
+    public long completedInLastTenDays() throws SQLException {
+        if (!"legacy".equals(schema)) {
+            completedByDay.setTimestamp(1,
+                                        Timestamp.valueOf(lastDay.minusDays(10).atStartOfDay()));
+        }
+        return sum(completedByDay,
+                   2);
+    }
+
+    @Benchmark
+    public long countByOptions() throws SQLException {
+        countByVariable.setString(1,
+                                  "projectOptions");
+        return sum(countByVariable,
+                   2);
+    }
+
+    @Benchmark
+    public long countByVersion() throws SQLException {
+        countByVariable.setString(1,
+                                  "projectVersion");
+        return sum(countByVariable,
+                   2);
+    }
+
+    private void seedVariable(Statement statement,
+                              String variableId,
+                              String value) throws SQLException {
+        statement.execute("INSERT INTO VariableInstanceLog (processInstanceId, processId, variableId, value) "
+                                  + "SELECT X, 'GenerateProject', '" + variableId + "', " + value + " FROM SYSTEM_RANGE(1, " + instances + ")");
+    }
+
+    private static long sum(PreparedStatement query,
+                            int column) throws SQLException {
+        long sum = 0;
+        try (ResultSet result = query.executeQuery()) {
+            while (result.next()) {
+                sum += result.getLong(column);
+            }
+        }
+        return sum;
+    }
+}
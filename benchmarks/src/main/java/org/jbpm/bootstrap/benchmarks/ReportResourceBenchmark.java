@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.benchmarks;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.Response;
+
+import org.jbpm.bootstrap.service.rest.ReportResource;
+import org.jbpm.bootstrap.service.util.ReportAggregates;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Shaping and JSON serialization of reports by <code>ReportResource</code> - single reports and the whole
+ * dashboard (rebuilt on every call as no caching ttl is configured outside of Spring) - over report
+ * aggregates loaded with a year of days and given number of distinct values per reported variable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportResourceBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int values;
+
+    private Dashboard resource;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Map<String, Long> completedByDay = new HashMap<>();
+        LocalDate today = LocalDate.now();
+        long completed = 0;
+        for (int day = 0; day < 365; day++) {
+            completedByDay.put(today.minusDays(day).toString(),
+                               (long) day);
+            completed += day;
+        }
+        Map<String, Map<String, Long>> countsByVariable = new HashMap<>();
+        for (String variable : ReportAggregates.VARIABLES) {
+            Map<String, Long> counts = new HashMap<>();
+            for (int value = 0; value < values; value++) {
+                counts.put(variable + "-value-" + value,
+                           (long) value);
+            }
+            countsByVariable.put(variable,
+                                 counts);
+        }
+        ReportAggregates.get().startLoading();
+        ReportAggregates.get().loaded(new ReportAggregates.Snapshot(completed,
+                                                                    completedByDay,
+                                                                    countsByVariable,
+                                                                    5,
+                                                                    0,
+                                                                    0));
+        resource = new Dashboard();
+    }
+
+    @Benchmark
+    public Response collectStats() {
+        return resource.collectStats();
+    }
+
+    @Benchmark
+    public Response collectByDate() {
+        return resource.collectByDate();
+    }
+
+    @Benchmark
+    public Response collectByVersion() {
+        return resource.collectByVersion();
+    }
+
+    @Benchmark
+    public Response collectByOption() {
+        return resource.collectByOption();
+    }
+
+    @Benchmark
+    public Object dashboard() throws Exception {
+        return resource.getDashboard();
+    }
+
+    /*
+     * exposes dashboard building of the resource
+     */
+    private static class Dashboard extends ReportResource {
+
+        @Override
+        protected CachedDashboard getDashboard() throws Exception {
+            return super.getDashboard();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jbpm.bootstrap.model.Project;
+import org.jbpm.bootstrap.service.controllers.RestGenController;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Parsing of <code>/gen</code> request bodies - JSON to map as done for <code>@RequestBody</code> and
+ * then to project by <code>RestGenController</code> - for a minimal and a fully specified request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RestGenControllerBenchmark {
+
+    private static final String MINIMAL = "{\"name\":\"business-application\"}";
+    private static final String FULL = "{\"name\":\"business-application-service\",\"packagename\":\"org.company.business\","
+            + "\"version\":\"7.48.0.Final\",\"capabilities\":\"bpm, planner\",\"options\":[\"dkjar\",\"model\",\"service\"]}";
+
+    @Param({"minimal", "full"})
+    public String request;
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    private BodyParser controller = new BodyParser();
+
+    @Benchmark
+    public Project parseBody() throws Exception {
+        byte[] body = ("full".equals(request) ? FULL : MINIMAL).getBytes(StandardCharsets.UTF_8);
+        return controller.parseProject(mapper.readValue(body,
+                                                        Map.class));
+    }
+
+    /*
+     * exposes body parsing of the controller
+     */
+    private static class BodyParser extends RestGenController {
+
+        @Override
+        protected Project parseProject(Map<String, Object> body) {
+            return super.parseProject(body);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jbpm.bootstrap.service.handlers.ZipArchiveWorkItemHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Lists and zips synthetic project trees the way <code>ZipArchiveWorkItemHandler</code> does at the end
+ * of every generation. Trees mimic generated projects - a few dozen folders of small sources, poms and
+ * resources, the size is given by the number of files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZipArchiveBenchmark {
+
+    private static final int FILES_PER_FOLDER = 20;
+
+    @Param({"50", "500", "5000"})
+    public int files;
+
+    private ZipArchiveWorkItemHandler handler = new ZipArchiveWorkItemHandler();
+
+    private File root;
+    private File project;
+    private List<String> fileList;
+    private File archive;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("zip-benchmark").toFile();
+        project = new File(root,
+                           "project");
+        for (int i = 0; i < files; i++) {
+            Path folder = project.toPath().resolve("module" + (i % 3))
+                    .resolve("src/main/java/com/company/package" + (i / FILES_PER_FOLDER));
+            Files.createDirectories(folder);
+            Files.write(folder.resolve("Source" + i + (i % 10 == 0 ? ".xml" : ".java")),
+                        content(i).getBytes(StandardCharsets.UTF_8));
+        }
+        fileList = listFiles();
+        archive = new File(root,
+                           "project.zip");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileSystemUtils.deleteRecursively(root);
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteArchive() {
+        archive.delete();
+    }
+
+    @Benchmark
+    public List<String> generateFileList() {
+        return listFiles();
+    }
+
+    @Benchmark
+    public long zipIt() {
+        handler.zipIt(project.getAbsolutePath(),
+                      archive.getAbsolutePath(),
+                      fileList);
+        return archive.length();
+    }
+
+    private List<String> listFiles() {
+        List<String> list = new ArrayList<>();
+        handler.generateFileList(project.getAbsolutePath(),
+                                 list,
+                                 project);
+        return list;
+    }
+
+    /*
+     * one to eight kilobytes of source like text, similar but not identical between files
+     */
+    private static String content(int index) {
+        StringBuilder content = new StringBuilder("package com.company;\n\npublic class Source" + index + " {\n");
+        for (int line = 0; line < 20 + (index % 8) * 25; line++) {
+            content.append("    private String field").append(line).append(" = \"value ").append(index * line).append("\";\n");
+        }
+        return content.append("}\n").toString();
+    }
+}
@@ -0,0 +1,16 @@
+#!/bin/bash
+# Launches the service in fast boot mode with class data sharing archive and classpath
+# recorded by 'mvn package -Pfastboot' (requires JDK 13 or newer), additional arguments
+# are passed to the application
+cd "$(dirname "$0")"
+
+if [ ! -f target/fastboot/app.jsa ]; then
+    echo "No class data sharing archive found, build it first with 'mvn package -Pfastboot'"
+    exit 1
+fi
+
+echo "Launching the application in fast boot mode..."
+java -XX:SharedArchiveFile=target/fastboot/app.jsa \
+     -cp "$(pwd)/target/classes:$(cat target/fastboot/classpath.txt)" \
+     org.jbpm.bootstrap.service.BootstrapJbpmApplication \
+     --spring.profiles.active=fastboot "$@"
@@ -15,13 +15,26 @@
  */
 package org.jbpm.bootstrap.service;
 
+import org.jbpm.bootstrap.service.util.StartupTimeline;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class BootstrapJbpmApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(BootstrapJbpmApplication.class, args);
+		SpringApplication application = new SpringApplication(BootstrapJbpmApplication.class);
+		StartupTimeline timeline = StartupTimeline.get();
+		application.addListeners(timeline);
+		application.addInitializers(context -> context.getBeanFactory().addBeanPostProcessor(timeline));
+
+		ConfigurableApplicationContext context = application.run(args);
+		if (context.getEnvironment().getProperty("bootstrap.fastboot.exit-after-startup", Boolean.class, false)) {
+			// training run that records classes for class data sharing archive (see fastboot maven profile)
+			System.exit(SpringApplication.exit(context));
+		}
 	}
 }
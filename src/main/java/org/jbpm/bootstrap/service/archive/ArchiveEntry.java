@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Single file to be stored in an archive, <code>name</code> is the path within the archive
+ * always separated with <code>/</code>.
+ */
+public final class ArchiveEntry {
+
+    private final String name;
+    private final Path path;
+    private final byte[] content;
+    private final ZipFile zip;
+    private final ZipEntry zipEntry;
+
+    private ArchiveEntry(String name,
+                         Path path,
+                         byte[] content) {
+        this(name,
+             path,
+             content,
+             null,
+             null);
+    }
+
+    private ArchiveEntry(String name,
+                         Path path,
+                         byte[] content,
+                         ZipFile zip,
+                         ZipEntry zipEntry) {
+        this.name = name;
+        this.path = path;
+        this.content = content;
+        this.zip = zip;
+        this.zipEntry = zipEntry;
+    }
+
+    public static ArchiveEntry ofFile(String name,
+                                      Path path) {
+        return new ArchiveEntry(name.replace('\\', '/'),
+                                path,
+                                null);
+    }
+
+    public static ArchiveEntry ofBytes(String name,
+                                       byte[] content) {
+        return new ArchiveEntry(name.replace('\\', '/'),
+                                null,
+                                content);
+    }
+
+    /**
+     * Lists all regular files in given directory (recursively) as entries named relative to it,
+     * sorted by name so the same content always produces the same archive.
+     */
+    public static List<ArchiveEntry> listFiles(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(Files::isRegularFile)
+                    .map(path -> ofFile(directory.relativize(path).toString(),
+                                        path))
+                    .sorted((first, second) -> first.name.compareTo(second.name))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Lists all files of given zip archive as entries, in the order they are stored in it. Entries are
+     * read from the archive when opened so it must stay open until they are written.
+     */
+    public static List<ArchiveEntry> listZip(ZipFile zip) {
+        List<ArchiveEntry> entries = new ArrayList<>();
+        Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+        while (zipEntries.hasMoreElements()) {
+            ZipEntry zipEntry = zipEntries.nextElement();
+            if (!zipEntry.isDirectory()) {
+                entries.add(new ArchiveEntry(zipEntry.getName(),
+                                             null,
+                                             null,
+                                             zip,
+                                             zipEntry));
+            }
+        }
+        return entries;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public InputStream open() throws IOException {
+        if (content != null) {
+            return new ByteArrayInputStream(content);
+        }
+        if (zip != null) {
+            return zip.getInputStream(zipEntry);
+        }
+        return Files.newInputStream(path);
+    }
+
+    /**
+     * Whether the entry is an executable file (e.g. maven wrapper), for formats that keep file modes.
+     */
+    public boolean isExecutable() {
+        return path != null && Files.isExecutable(path);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
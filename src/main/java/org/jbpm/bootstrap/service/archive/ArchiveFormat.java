@@ -0,0 +1,233 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.archive;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Archive format and compression level a generated project is sent in, identified as <code>zip</code>,
+ * <code>zip-0</code> (stored) to <code>zip-9</code>, <code>tar.gz</code> and <code>tar.gz-1</code> to
+ * <code>tar.gz-9</code> (no level means the default one). Clients select the format by id or via
+ * <code>Accept</code> header - <code>application/zip</code> or <code>application/gzip</code>, optionally
+ * with <code>level</code> parameter.
+ */
+public final class ArchiveFormat {
+
+    public enum Type {
+
+        ZIP("zip", ".zip", "application/zip"),
+        TAR_GZ("tar.gz", ".tar.gz", "application/gzip");
+
+        private final String id;
+        private final String extension;
+        private final String mediaType;
+
+        Type(String id,
+             String extension,
+             String mediaType) {
+            this.id = id;
+            this.extension = extension;
+            this.mediaType = mediaType;
+        }
+    }
+
+    /**
+     * Zip at default compression level, format the generation process produces.
+     */
+    public static final ArchiveFormat DEFAULT = new ArchiveFormat(Type.ZIP,
+                                                                  Deflater.DEFAULT_COMPRESSION);
+
+    private final Type type;
+    private final int level;
+
+    private ArchiveFormat(Type type,
+                          int level) {
+        this.type = type;
+        this.level = level;
+    }
+
+    /**
+     * @throws IllegalArgumentException when the level is not supported by the format
+     */
+    public static ArchiveFormat of(Type type,
+                                   int level) {
+        int min = type == Type.ZIP ? Deflater.NO_COMPRESSION : Deflater.BEST_SPEED;
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < min || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level " + level + " of " + type.id);
+        }
+        if (type == Type.ZIP && level == Deflater.DEFAULT_COMPRESSION) {
+            return DEFAULT;
+        }
+        return new ArchiveFormat(type,
+                                 level);
+    }
+
+    /**
+     * Format with given id (<code>tgz</code> is accepted for <code>tar.gz</code>).
+     *
+     * @throws IllegalArgumentException when there is no such format
+     */
+    public static ArchiveFormat parse(String id) {
+        String value = id.trim().toLowerCase(Locale.ROOT);
+        int level = Deflater.DEFAULT_COMPRESSION;
+        int separator = value.lastIndexOf('-');
+        if (separator > 0) {
+            try {
+                level = Integer.parseInt(value.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Unknown archive format " + id);
+            }
+            value = value.substring(0, separator);
+        }
+        if ("tgz".equals(value)) {
+            value = Type.TAR_GZ.id;
+        }
+        for (Type type : Type.values()) {
+            if (type.id.equals(value)) {
+                return of(type,
+                          level);
+            }
+        }
+        throw new IllegalArgumentException("Unknown archive format " + id);
+    }
+
+    /**
+     * Picks the format from <code>Accept</code> header - the first supported media type with the highest
+     * quality. Wildcards and <code>application/octet-stream</code> leave the choice to the server.
+     *
+     * @param fallback format used when the header does not ask for a particular one
+     */
+    public static ArchiveFormat negotiate(String accept,
+                                          ArchiveFormat fallback) {
+        if (accept == null || accept.trim().isEmpty()) {
+            return fallback;
+        }
+        ArchiveFormat best = null;
+        double bestQuality = 0;
+        for (String range : accept.split(",")) {
+            List<String> parts = new ArrayList<>();
+            for (String part : range.split(";")) {
+                parts.add(part.trim().toLowerCase(Locale.ROOT));
+            }
+            double quality = 1;
+            int level = Deflater.DEFAULT_COMPRESSION;
+            try {
+                for (String parameter : parts.subList(1, parts.size())) {
+                    if (parameter.startsWith("q=")) {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } else if (parameter.startsWith("level=")) {
+                        level = Integer.parseInt(parameter.substring(6));
+                    }
+                }
+                ArchiveFormat format = fromMediaType(parts.get(0),
+                                                     level,
+                                                     fallback);
+                if (format != null && quality > bestQuality) {
+                    best = format;
+                    bestQuality = quality;
+                }
+            } catch (IllegalArgumentException e) {
+                // malformed or unsupported parameters, range is ignored
+            }
+        }
+        return best == null ? fallback : best;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Compression level, -1 for default level of the format.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    public String getId() {
+        return level == Deflater.DEFAULT_COMPRESSION ? type.id : type.id + "-" + level;
+    }
+
+    public String getExtension() {
+        return type.extension;
+    }
+
+    public String getMediaType() {
+        return type.mediaType;
+    }
+
+    public boolean isDefault() {
+        return this.equals(DEFAULT);
+    }
+
+    /**
+     * Writer of the format, zip archives are compressed on the shared pool of {@link ParallelZipWriter}.
+     */
+    public ArchiveWriter newWriter() {
+        if (type == Type.TAR_GZ) {
+            return new TarGzWriter(level);
+        }
+        if (level == Deflater.DEFAULT_COMPRESSION) {
+            return ParallelZipWriter.withDefaults();
+        }
+        return ParallelZipWriter.withLevel(level);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ArchiveFormat)) {
+            return false;
+        }
+        ArchiveFormat other = (ArchiveFormat) obj;
+        return type == other.type && level == other.level;
+    }
+
+    @Override
+    public int hashCode() {
+        return type.hashCode() * 31 + level;
+    }
+
+    @Override
+    public String toString() {
+        return getId();
+    }
+
+    private static ArchiveFormat fromMediaType(String mediaType,
+                                               int level,
+                                               ArchiveFormat fallback) {
+        switch (mediaType) {
+            case "application/zip":
+            case "application/x-zip-compressed":
+                return of(Type.ZIP,
+                          level);
+            case "application/gzip":
+            case "application/x-gzip":
+            case "application/x-gtar":
+            case "application/x-compressed-tar":
+                return of(Type.TAR_GZ,
+                          level);
+            case "*/*":
+            case "application/*":
+            case "application/octet-stream":
+                return fallback;
+            default:
+                return null;
+        }
+    }
+}
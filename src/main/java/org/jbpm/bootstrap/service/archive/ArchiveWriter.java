@@ -0,0 +1,35 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.archive;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Writes archive of given entries in one of the supported formats (see {@link ArchiveFormat}).
+ * The same entries always produce byte identical archive.
+ */
+public interface ArchiveWriter {
+
+    /**
+     * Writes archive with given entries to the output, output is not closed.
+     *
+     * @return number of bytes written
+     */
+    long write(List<ArchiveEntry> entries,
+               OutputStream output) throws IOException;
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.archive;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Stops writing to given stream as soon as given condition says the result is no longer needed,
+ * writes then fail with {@link InterruptedIOException}. Closing it closes the stream.
+ */
+public class CancellableOutputStream extends FilterOutputStream {
+
+    private final BooleanSupplier cancelled;
+
+    public CancellableOutputStream(OutputStream out,
+                                   BooleanSupplier cancelled) {
+        super(out);
+        this.cancelled = cancelled;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkCancelled();
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b,
+                      int off,
+                      int len) throws IOException {
+        checkCancelled();
+        out.write(b,
+                  off,
+                  len);
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (cancelled.getAsBoolean()) {
+            throw new InterruptedIOException("Writing cancelled");
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes zip archives with entries compressed in parallel on given executor. Entries are written
+ * in the order they are given, each as soon as it's compressed and all preceding entries are written,
+ * so output can be consumed while the archive is being built. Only a limited number of entries is
+ * compressed ahead to keep memory usage bounded.
+ * <br/>
+ * All entries get the same (zip epoch) modification time so the same content always produces
+ * byte identical archive. Zip64 is not supported - it's not needed for generated projects. Archives over
+ * the limits of plain zip (65534 entries, names of 65535 bytes, 4 GB entries and archives) fail with
+ * {@link IOException} - before anything is written when the entries are known to be over them, otherwise
+ * as soon as the limit is reached - instead of producing a corrupted archive.
+ */
+public class ParallelZipWriter implements ArchiveWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    private static final int VERSION = 20;
+    // general purpose flag - names are encoded in UTF-8
+    private static final int UTF8_FLAG = 0x0800;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    // 1980-01-01 00:00:00 in MS-DOS format
+    private static final int DOS_TIME = 0;
+    private static final int DOS_DATE = (1 << 5) | 1;
+
+    private static final int DEFAULT_LEVEL = Integer.getInteger("org.jbpm.bootstrap.zip.level",
+                                                                Deflater.DEFAULT_COMPRESSION);
+    private static final int DEFAULT_THREADS = Integer.getInteger("org.jbpm.bootstrap.zip.threads",
+                                                                  Runtime.getRuntime().availableProcessors());
+
+    private final ExecutorService executor;
+    private final int level;
+    private final int window;
+
+    /**
+     * @param executor executor to compress entries on
+     * @param level compression level 0-9 (0 stores entries without compression) or -1 for default
+     * @param window how many entries can be compressed ahead of the one being written
+     */
+    public ParallelZipWriter(ExecutorService executor,
+                             int level,
+                             int window) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.executor = executor;
+        this.level = level;
+        this.window = Math.max(1, window);
+    }
+
+    /**
+     * Returns writer that compresses on pool shared by the whole application, with compression
+     * level and pool size configured via <code>org.jbpm.bootstrap.zip.level</code> and
+     * <code>org.jbpm.bootstrap.zip.threads</code> system properties.
+     */
+    public static ParallelZipWriter withDefaults() {
+        return new ParallelZipWriter(SharedPool.EXECUTOR,
+                                     DEFAULT_LEVEL,
+                                     DEFAULT_THREADS * 4);
+    }
+
+    /**
+     * Returns writer that compresses on the shared pool (see {@link #withDefaults()}) with given compression level.
+     */
+    public static ParallelZipWriter withLevel(int level) {
+        return new ParallelZipWriter(SharedPool.EXECUTOR,
+                                     level,
+                                     DEFAULT_THREADS * 4);
+    }
+
+    /**
+     * Writes archive with given entries to the output, output is not closed.
+     *
+     * @return number of bytes written
+     */
+    @Override
+    public long write(List<ArchiveEntry> entries,
+                      OutputStream output) throws IOException {
+        // count of 0xFFFF marks zip64 archives
+        if (entries.size() >= 0xFFFF) {
+            throw new IOException("Too many entries (" + entries.size() + ") for zip archive, zip64 is not supported");
+        }
+        for (ArchiveEntry entry : entries) {
+            if (entry.getName().getBytes(StandardCharsets.UTF_8).length > 0xFFFF) {
+                throw new IOException("Name of entry " + entry.getName().substring(0, 64) + "... is too long for zip archive");
+            }
+        }
+        CountingOutputStream out = new CountingOutputStream(output);
+        List<CompressedEntry> written = new ArrayList<>(entries.size());
+        Deque<Future<CompressedEntry>> pending = new ArrayDeque<>();
+        Iterator<ArchiveEntry> iterator = entries.iterator();
+        try {
+            while (iterator.hasNext() && pending.size() < window) {
+                pending.add(submit(iterator.next()));
+            }
+            while (!pending.isEmpty()) {
+                CompressedEntry entry = await(pending.poll());
+                if (iterator.hasNext()) {
+                    pending.add(submit(iterator.next()));
+                }
+                entry.offset = out.count;
+                checkLimit(entry.offset);
+                writeLocalHeader(out, entry);
+                out.write(entry.data);
+                // data is not needed anymore, only header values are kept for central directory
+                entry.data = null;
+                written.add(entry);
+            }
+        } finally {
+            for (Future<CompressedEntry> future : pending) {
+                future.cancel(true);
+            }
+        }
+
+        long centralDirectoryOffset = out.count;
+        checkLimit(centralDirectoryOffset);
+        for (CompressedEntry entry : written) {
+            writeCentralHeader(out, entry);
+        }
+        long centralDirectorySize = out.count - centralDirectoryOffset;
+        checkLimit(centralDirectorySize);
+
+        writeInt(out, END_OF_CENTRAL_DIRECTORY);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, written.size());
+        writeShort(out, written.size());
+        writeInt(out, centralDirectorySize);
+        writeInt(out, centralDirectoryOffset);
+        writeShort(out, 0);
+        out.flush();
+
+        return out.count;
+    }
+
+    protected Future<CompressedEntry> submit(ArchiveEntry entry) {
+        return executor.submit(() -> compress(entry));
+    }
+
+    protected CompressedEntry compress(ArchiveEntry entry) throws IOException {
+        CompressedEntry compressed = new CompressedEntry(entry.getName());
+        CRC32 crc = new CRC32();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+
+        Deflater deflater = level == Deflater.NO_COMPRESSION ? null : new Deflater(level, true);
+        try (InputStream in = entry.open();
+             OutputStream target = deflater == null ? data : new DeflaterOutputStream(data, deflater, BUFFER_SIZE)) {
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, len);
+                target.write(buffer, 0, len);
+                size += len;
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        checkLimit(size);
+
+        compressed.method = deflater == null ? STORED : DEFLATED;
+        compressed.crc = crc.getValue();
+        compressed.size = size;
+        compressed.data = data.toByteArray();
+        return compressed;
+    }
+
+    private CompressedEntry await(Future<CompressedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing archive entries", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void writeLocalHeader(OutputStream out,
+                                  CompressedEntry entry) throws IOException {
+        writeInt(out, LOCAL_HEADER);
+        writeShort(out, VERSION);
+        writeShort(out, UTF8_FLAG);
+        writeShort(out, entry.method);
+        writeShort(out, DOS_TIME);
+        writeShort(out, DOS_DATE);
+        writeInt(out, entry.crc);
+        writeInt(out, entry.data.length);
+        writeInt(out, entry.size);
+        writeShort(out, entry.name.length);
+        writeShort(out, 0);
+        out.write(entry.name);
+        entry.compressedSize = entry.data.length;
+    }
+
+    private void writeCentralHeader(OutputStream out,
+                                    CompressedEntry entry) throws IOException {
+        writeInt(out, CENTRAL_HEADER);
+        writeShort(out, VERSION);
+        writeShort(out, VERSION);
+        writeShort(out, UTF8_FLAG);
+        writeShort(out, entry.method);
+        writeShort(out, DOS_TIME);
+        writeShort(out, DOS_DATE);
+        writeInt(out, entry.crc);
+        writeInt(out, entry.compressedSize);
+        writeInt(out, entry.size);
+        writeShort(out, entry.name.length);
+        // extra field, comment, disk number, internal and external attributes
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeInt(out, 0);
+        writeInt(out, entry.offset);
+        out.write(entry.name);
+    }
+
+    private static void checkLimit(long value) throws IOException {
+        if (value >= 0xFFFFFFFFL) {
+            throw new IOException("Archive too large, zip64 is not supported");
+        }
+    }
+
+    private static void writeShort(OutputStream out,
+                                   int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+
+    private static void writeInt(OutputStream out,
+                                 long value) throws IOException {
+        writeShort(out, (int) (value & 0xFFFF));
+        writeShort(out, (int) ((value >>> 16) & 0xFFFF));
+    }
+
+    protected static class CompressedEntry {
+
+        private final byte[] name;
+        private int method;
+        private long crc;
+        private long size;
+        private long compressedSize;
+        private long offset;
+        private byte[] data;
+
+        CompressedEntry(String name) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class SharedPool {
+
+        private static final ExecutorService EXECUTOR = createPool();
+
+        private static ExecutorService createPool() {
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newFixedThreadPool(DEFAULT_THREADS,
+                                                runnable -> {
+                                                    Thread thread = new Thread(runnable,
+                                                                               "zip-compression-" + counter.incrementAndGet());
+                                                    thread.setDaemon(true);
+                                                    return thread;
+                                                });
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b,
+                          int off,
+                          int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
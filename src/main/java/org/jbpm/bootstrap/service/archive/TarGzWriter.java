@@ -0,0 +1,218 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes gzip compressed tar archives (POSIX ustar) with JDK classes only. Unlike zip the whole archive
+ * is one compressed stream, so it's compressed on the calling thread - usually a bit smaller than zip
+ * but not parallel. Names too long for ustar header are stored in pax extended headers.
+ * <br/>
+ * All entries get the same modification time, owner and mode (executable files excepted) so the same
+ * content always produces byte identical archive.
+ */
+public class TarGzWriter implements ArchiveWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BLOCK = 512;
+
+    // 1980-01-01 00:00:00 UTC, same as entries of zip archives
+    private static final long MTIME = 315532800L;
+    private static final int FILE_MODE = 0644;
+    private static final int EXECUTABLE_MODE = 0755;
+
+    private static final byte FILE = '0';
+    private static final byte PAX_HEADER = 'x';
+
+    private final int level;
+
+    /**
+     * @param level compression level 1-9 or -1 for default
+     */
+    public TarGzWriter(int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.level = level;
+    }
+
+    @Override
+    public long write(List<ArchiveEntry> entries,
+                      OutputStream output) throws IOException {
+        CountingOutputStream counting = new CountingOutputStream(output);
+        GZIPOutputStream gzip = new GZIPOutputStream(counting,
+                                                     BUFFER_SIZE) {
+            {
+                def.setLevel(level);
+            }
+        };
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (ArchiveEntry entry : entries) {
+            byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+            try (InputStream in = entry.open()) {
+                // size must be known up front, entries of generated projects are small
+                byte[] content = readAll(in,
+                                         buffer);
+                if (name.length > 100) {
+                    writePaxHeader(gzip,
+                                   name);
+                    name = Arrays.copyOf(name,
+                                         100);
+                }
+                writeHeader(gzip,
+                            name,
+                            content.length,
+                            entry.isExecutable() ? EXECUTABLE_MODE : FILE_MODE,
+                            FILE);
+                gzip.write(content);
+                pad(gzip,
+                    content.length);
+            }
+        }
+        // end of archive - two empty blocks
+        gzip.write(new byte[BLOCK * 2]);
+        // finished but not closed, output belongs to the caller
+        gzip.finish();
+        gzip.flush();
+        return counting.count;
+    }
+
+    private void writePaxHeader(OutputStream out,
+                                byte[] name) throws IOException {
+        byte[] record = paxRecord("path",
+                                  name);
+        writeHeader(out,
+                    "././@PaxHeader".getBytes(StandardCharsets.UTF_8),
+                    record.length,
+                    FILE_MODE,
+                    PAX_HEADER);
+        out.write(record);
+        pad(out,
+            record.length);
+    }
+
+    /*
+     * "<length> <key>=<value>\n" where length is of the whole record including the length itself
+     */
+    private static byte[] paxRecord(String key,
+                                    byte[] value) {
+        int length = key.length() + value.length + 3;
+        int digits = String.valueOf(length).length();
+        while (String.valueOf(length + digits).length() != digits) {
+            digits++;
+        }
+        length += digits;
+        byte[] prefix = (length + " " + key + "=").getBytes(StandardCharsets.UTF_8);
+        byte[] record = new byte[length];
+        System.arraycopy(prefix, 0, record, 0, prefix.length);
+        System.arraycopy(value, 0, record, prefix.length, value.length);
+        record[length - 1] = '\n';
+        return record;
+    }
+
+    private static void writeHeader(OutputStream out,
+                                    byte[] name,
+                                    long size,
+                                    int mode,
+                                    byte type) throws IOException {
+        if (size > 077777777777L) {
+            throw new IOException("Entry too large (" + size + " bytes) for tar archive");
+        }
+        byte[] header = new byte[BLOCK];
+        System.arraycopy(name, 0, header, 0, Math.min(name.length, 100));
+        octal(header, 100, 8, mode);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, MTIME);
+        // checksum is computed with its own field filled with spaces
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        header[156] = type;
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        octal(header, 148, 7, checksum);
+        header[155] = ' ';
+        out.write(header);
+    }
+
+    /*
+     * zero padded octal number terminated with NUL in given field
+     */
+    private static void octal(byte[] header,
+                              int offset,
+                              int length,
+                              long value) {
+        String digits = Long.toOctalString(value);
+        int start = offset + length - 1 - digits.length();
+        Arrays.fill(header, offset, start, (byte) '0');
+        System.arraycopy(digits.getBytes(StandardCharsets.US_ASCII), 0, header, start, digits.length());
+        header[offset + length - 1] = 0;
+    }
+
+    private static void pad(OutputStream out,
+                            long size) throws IOException {
+        int remainder = (int) (size % BLOCK);
+        if (remainder > 0) {
+            out.write(new byte[BLOCK - remainder]);
+        }
+    }
+
+    private static byte[] readAll(InputStream in,
+                                  byte[] buffer) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        int len;
+        while ((len = in.read(buffer)) > 0) {
+            content.write(buffer, 0, len);
+        }
+        return content.toByteArray();
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b,
+                          int off,
+                          int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.archive;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes everything to both given streams, used to keep a copy of an archive that is being
+ * streamed to the client. Closing it closes neither of the streams.
+ */
+public class TeeOutputStream extends OutputStream {
+
+    private final OutputStream first;
+    private final OutputStream second;
+
+    public TeeOutputStream(OutputStream first,
+                           OutputStream second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        first.write(b);
+        second.write(b);
+    }
+
+    @Override
+    public void write(byte[] b,
+                      int off,
+                      int len) throws IOException {
+        first.write(b,
+                    off,
+                    len);
+        second.write(b,
+                     off,
+                     len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        first.flush();
+        second.flush();
+    }
+}
@@ -18,13 +18,22 @@ package org.jbpm.bootstrap.service.controllers;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.jbpm.bootstrap.model.Project;
+import org.jbpm.bootstrap.service.archive.ArchiveFormat;
 import org.jbpm.bootstrap.service.util.BuildComponent;
+import org.jbpm.bootstrap.service.util.GenerationLimiter;
+import org.jbpm.bootstrap.service.util.GenerationRejectedException;
+import org.jbpm.bootstrap.service.util.GenerationRequestExecutor;
 import org.jbpm.services.api.ProcessService;
 import org.jbpm.services.api.admin.ProcessInstanceAdminService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
@@ -34,6 +43,8 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @Controller
 public class IndexController {
@@ -49,6 +60,15 @@ public class IndexController {
     @Autowired
     BuildComponent buildComponent;
 
+    @Autowired
+    GenerationLimiter limiter;
+
+    @Autowired
+    GenerationRequestExecutor requestExecutor;
+
+    @Value("${bootstrap.archive.web-format:zip}")
+    private String webFormat;
+
     @GetMapping("/")
     public String showIndex(Model model) {
         return "index";
@@ -66,16 +86,19 @@ public class IndexController {
 
     @PostMapping(value = "/", produces = {"application/octet-stream"})
     public @ResponseBody
-    ResponseEntity<?> buildApp(@ModelAttribute Project project) throws Exception {
+    DeferredResult<ResponseEntity<StreamingResponseBody>> buildApp(@ModelAttribute Project project,
+                                                                   HttpServletRequest request) throws Exception {
         logger.info("Received request for generating application for project {}",
                     project);
 
         if (project == null) {
             logger.error("Project is missing");
-            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            DeferredResult<ResponseEntity<StreamingResponseBody>> result = new DeferredResult<>();
+            result.setResult(new ResponseEntity<>(HttpStatus.BAD_REQUEST));
+            return result;
         }
 
-        return buildComponent.buildApp(project, true);
+        return requestExecutor.buildApp(project, true, limiter.clientOf(request), ArchiveFormat.parse(webFormat));
     }
 
     @GetMapping("/generatingmodal")
@@ -83,6 +106,20 @@ public class IndexController {
         return "fragments :: generatingmodal";
     }
 
+    @ExceptionHandler(GenerationRejectedException.class)
+    public String rejected(final GenerationRejectedException e,
+                           final Model model,
+                           final HttpServletResponse response) {
+        logger.info("Generation request rejected ({})",
+                    e.getMessage());
+        response.setStatus(e.getStatus().value());
+        response.setHeader(HttpHeaders.RETRY_AFTER,
+                           String.valueOf(e.getRetryAfterSeconds()));
+        model.addAttribute("errorMessage",
+                           e.getMessage() + ", please try again in " + e.getRetryAfterSeconds() + " seconds");
+        return "error";
+    }
+
     @ExceptionHandler(Exception.class)
     public String exception(final Exception e,
                             final Model model) {
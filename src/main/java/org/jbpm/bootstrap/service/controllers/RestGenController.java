@@ -1,20 +1,46 @@
 package org.jbpm.bootstrap.service.controllers;
 
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
+import javax.servlet.http.HttpServletRequest;
+
 import org.jbpm.bootstrap.model.Project;
+import org.jbpm.bootstrap.service.archive.ArchiveFormat;
+import org.jbpm.bootstrap.service.util.ArchiveStore;
+import org.jbpm.bootstrap.service.util.BatchGenerator;
 import org.jbpm.bootstrap.service.util.BuildComponent;
+import org.jbpm.bootstrap.service.util.GenerationJob;
+import org.jbpm.bootstrap.service.util.GenerationJobService;
+import org.jbpm.bootstrap.service.util.GenerationLimiter;
+import org.jbpm.bootstrap.service.util.GenerationRejectedException;
+import org.jbpm.bootstrap.service.util.GenerationRequestExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 public class RestGenController {
@@ -24,12 +50,175 @@ public class RestGenController {
     @Autowired
     BuildComponent buildComponent;
 
+    @Autowired
+    GenerationJobService generationJobService;
+
+    @Autowired
+    GenerationLimiter limiter;
+
+    @Autowired
+    GenerationRequestExecutor requestExecutor;
+
+    @Autowired
+    BatchGenerator batchGenerator;
+
+    @Autowired
+    ArchiveStore archiveStore;
+
+    @Value("${bootstrap.archive.rest-format:zip}")
+    private String defaultFormat;
+
+    /**
+     * Generates project archive in format given by <code>format</code> parameter (or attribute of the body),
+     * or negotiated from <code>Accept</code> header - e.g. <code>application/gzip;level=9</code>.
+     */
     @PostMapping(value = "/gen",
+            // all media types ArchiveFormat negotiates, otherwise such requests are refused with 406
+            produces = {"application/octet-stream", "application/zip", "application/x-zip-compressed", "application/gzip",
+                    "application/x-gzip", "application/x-gtar", "application/x-compressed-tar"},
+            consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> buildApp(@RequestBody Map<String, Object> body,
+                                                                          @RequestParam(value = "format", required = false) String format,
+                                                                          @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                                                          HttpServletRequest request) throws Exception {
+
+        Project project = parseProject(body);
+        ArchiveFormat archiveFormat = parseFormat(format != null ? format : (String) body.get("format"),
+                                                  accept);
+
+        logger.info("Received request for generating application for project {} as {}",
+                    project,
+                    archiveFormat);
+
+        return requestExecutor.buildApp(project,
+                                        false,
+                                        limiter.clientOf(request),
+                                        archiveFormat);
+    }
+
+    @PostMapping(value = "/gen/batch",
             produces = {"application/octet-stream"},
             consumes = MediaType.APPLICATION_JSON_VALUE)
     @ResponseBody
-    public ResponseEntity<?> buildApp(@RequestBody Map<String, Object> body) throws Exception {
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> buildBatch(@RequestBody List<Map<String, Object>> body,
+                                                                            HttpServletRequest request) throws Exception {
+        if (body.isEmpty() || body.size() > batchGenerator.getMaxProjects()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                                              "Batch must have 1 to " + batchGenerator.getMaxProjects() + " projects");
+        }
+        List<Project> projects = new ArrayList<>();
+        for (Map<String, Object> definition : body) {
+            projects.add(parseProject(definition));
+        }
+
+        logger.info("Received request for generating batch of {} projects",
+                    projects.size());
+
+        return requestExecutor.buildBatch(projects,
+                                          limiter.clientOf(request));
+    }
+
+    @PostMapping(value = "/gen/jobs",
+            produces = MediaType.APPLICATION_JSON_VALUE,
+            consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Object>> submitJob(@RequestBody Map<String, Object> body,
+                                                         HttpServletRequest request) {
 
+        Project project = parseProject(body);
+
+        logger.info("Received request for generation job for project {}",
+                    project);
+
+        GenerationJob job = generationJobService.submit(project,
+                                                        limiter.clientOf(request));
+
+        return ResponseEntity.accepted()
+                .location(URI.create("/gen/jobs/" + job.getId()))
+                .body(job.toStatus());
+    }
+
+    @GetMapping(value = "/gen/jobs/{id}",
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Object>> getJob(@PathVariable("id") String id) {
+        GenerationJob job = generationJobService.getJob(id);
+        if (job == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(job.toStatus(),
+                                    HttpStatus.OK);
+    }
+
+    @DeleteMapping(value = "/gen/jobs/{id}")
+    public ResponseEntity<Void> cancelJob(@PathVariable("id") String id) {
+        if (!generationJobService.cancel(id)) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    @GetMapping(value = "/gen/jobs/{id}/archive",
+            produces = {"application/octet-stream", "application/zip", "application/x-zip-compressed", "application/gzip",
+                    "application/x-gzip", "application/x-gtar", "application/x-compressed-tar"})
+    public ResponseEntity<Resource> getJobArchive(@PathVariable("id") String id) throws Exception {
+        GenerationJob job = generationJobService.getJob(id);
+        if (job == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        if (job.getState() != GenerationJob.State.DONE) {
+            return new ResponseEntity<>(HttpStatus.CONFLICT);
+        }
+        // archive is kept until the job expires so it can be downloaded again (or in parts)
+        File archive = job.getArchive().getFile();
+        return buildComponent.buildResourceResponse(archive,
+                                                    job.getArchive().getFormat(),
+                                                    archiveStore.retain(archive,
+                                                                        job.getArchive().getFormat()),
+                                                    job.getArchive().getFileName());
+    }
+
+    @GetMapping(value = "/gen/archives/{hash}",
+            produces = {"application/octet-stream", "application/zip", "application/x-zip-compressed", "application/gzip",
+                    "application/x-gzip", "application/x-gtar", "application/x-compressed-tar"})
+    public ResponseEntity<Resource> getArchive(@PathVariable("hash") String hash) throws Exception {
+        ArchiveStore.RetainedArchive archive = archiveStore.get(hash);
+        if (archive == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return buildComponent.buildResourceResponse(archive.getFile(),
+                                                    archive.getFormat(),
+                                                    hash,
+                                                    null);
+    }
+
+    @ExceptionHandler(GenerationRejectedException.class)
+    public ResponseEntity<Void> rejected(GenerationRejectedException e) {
+        logger.info("Generation request rejected ({})",
+                    e.getMessage());
+        // no body as it would have to match media type of the rejected endpoint
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER,
+                    String.valueOf(e.getRetryAfterSeconds()));
+        return new ResponseEntity<>(headers,
+                                    e.getStatus());
+    }
+
+    protected ArchiveFormat parseFormat(String format,
+                                        String accept) {
+        try {
+            ArchiveFormat fallback = ArchiveFormat.parse(defaultFormat);
+            if (format != null && format.length() > 0) {
+                return ArchiveFormat.parse(format);
+            }
+            return ArchiveFormat.negotiate(accept,
+                                           fallback);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                                              e.getMessage());
+        }
+    }
+
+    protected Project parseProject(Map<String, Object> body) {
         Project project = new Project();
         List<String> options = (List) body.get("options");
         String capabilities = (String) body.get("capabilities");
@@ -57,10 +246,6 @@ public class RestGenController {
             project.setVersion(version);
         }
 
-        logger.info("Received request for generating application for project {}",
-                    project);
-
-        return buildComponent.buildApp(project,
-                                       false);
+        return project;
     }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.handlers;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jbpm.bootstrap.service.util.GenerationCompletionRegistry;
+import org.jbpm.bootstrap.service.util.GenerationMetrics;
+import org.jbpm.bootstrap.service.util.GenerationRecordWriter;
+import org.jbpm.bootstrap.service.util.ReportAggregates;
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.api.event.process.ProcessNodeLeftEvent;
+import org.kie.api.event.process.ProcessNodeTriggeredEvent;
+import org.kie.api.event.process.ProcessStartedEvent;
+import org.kie.api.runtime.process.ProcessInstance;
+import org.kie.api.runtime.process.WorkflowProcessInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Signals failed generations to waiting requests as soon as <code>GenerateProject</code> process
+ * instance ends without producing an archive (aborted or completed on another path), keeps
+ * report aggregates up to date and times process nodes.
+ * Registered for all deployments via <code>META-INF/kie-wb-deployment-descriptor.xml</code>.
+ */
+public class GenerationProcessEventListener extends DefaultProcessEventListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationProcessEventListener.class);
+
+    private static final String PROCESS_ID = "GenerateProject";
+
+    @Override
+    public void afterProcessStarted(ProcessStartedEvent event) {
+        ProcessInstance processInstance = event.getProcessInstance();
+        if (!PROCESS_ID.equals(processInstance.getProcessId()) || !(processInstance instanceof WorkflowProcessInstance)) {
+            return;
+        }
+        Map<String, Object> variables = new HashMap<>();
+        for (String variable : ReportAggregates.VARIABLES) {
+            variables.put(variable, ((WorkflowProcessInstance) processInstance).getVariable(variable));
+        }
+        if (GenerationMetrics.INTERNAL.equals(variables.get("generationType"))) {
+            // not known to metrics so neither its nodes nor its end are recorded
+            return;
+        }
+        ReportAggregates.get().processStarted(loggedId(processInstance), variables);
+        GenerationMetrics.get().processStarted(processInstance.getId(),
+                                               GenerationMetrics.tags(variables.get("generationType"),
+                                                                      variables.get("projectVersion"),
+                                                                      variables.get("projectSetup")));
+    }
+
+    @Override
+    public void beforeNodeTriggered(ProcessNodeTriggeredEvent event) {
+        if (PROCESS_ID.equals(event.getProcessInstance().getProcessId())) {
+            GenerationMetrics.get().nodeTriggered(event.getProcessInstance().getId(), event.getNodeInstance().getNodeName());
+        }
+    }
+
+    @Override
+    public void afterNodeLeft(ProcessNodeLeftEvent event) {
+        if (PROCESS_ID.equals(event.getProcessInstance().getProcessId())) {
+            GenerationMetrics.get().nodeLeft(event.getProcessInstance().getId(), event.getNodeInstance().getNodeName());
+        }
+    }
+
+    @Override
+    public void afterProcessCompleted(ProcessCompletedEvent event) {
+        ProcessInstance processInstance = event.getProcessInstance();
+        if (!PROCESS_ID.equals(processInstance.getProcessId())) {
+            return;
+        }
+        logger.debug("Process instance {} ended with state {}", processInstance.getId(), processInstance.getState());
+        GenerationMetrics.get().processEnded(processInstance.getId());
+        if (processInstance.getState() == ProcessInstance.STATE_COMPLETED) {
+            if (!isInternal(processInstance)) {
+                ReportAggregates.get().processCompleted(loggedId(processInstance), LocalDate.now());
+            }
+            // successful generation has already been signalled by zip handler so this is a no-op then
+            GenerationCompletionRegistry.get().failIfPending(processInstance.getId(),
+                                                             new RuntimeException("Process instance " + processInstance.getId() + " completed without generating project archive"));
+        } else {
+            GenerationCompletionRegistry.get().failed(processInstance.getId(),
+                                                      new RuntimeException("Process instance " + processInstance.getId() + " was aborted"));
+        }
+    }
+
+    private static boolean isInternal(ProcessInstance processInstance) {
+        return processInstance instanceof WorkflowProcessInstance
+                && GenerationMetrics.INTERNAL.equals(((WorkflowProcessInstance) processInstance).getVariable("generationType"));
+    }
+
+    /*
+     * id the instance is logged with - in memory instances are logged with ids following the persisted ones
+     */
+    private static long loggedId(ProcessInstance processInstance) {
+        GenerationRecordWriter recordWriter = GenerationRecordWriter.get();
+        return recordWriter == null ? processInstance.getId() : recordWriter.toLoggedId(processInstance.getId());
+    }
+}
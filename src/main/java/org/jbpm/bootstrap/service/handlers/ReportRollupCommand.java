@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.handlers;
+
+import java.util.Date;
+
+import org.jbpm.bootstrap.service.util.ReportRollup;
+import org.kie.api.executor.Command;
+import org.kie.api.executor.CommandContext;
+import org.kie.api.executor.ExecutionResults;
+import org.kie.api.executor.Reoccurring;
+
+/**
+ * Executor command that brings daily report rollup up to date, it's rescheduled after every
+ * execution at the configured interval as long as the rollup is enabled.
+ * Scheduled once by <code>ReportRollup</code> when the application is ready.
+ */
+public class ReportRollupCommand implements Command,
+                                            Reoccurring {
+
+    @Override
+    public ExecutionResults execute(CommandContext ctx) throws Exception {
+        ExecutionResults results = new ExecutionResults();
+        ReportRollup rollup = ReportRollup.get();
+        if (rollup != null) {
+            results.setData("processedUntil",
+                            rollup.update());
+        }
+        return results;
+    }
+
+    @Override
+    public Date getScheduleTime() {
+        ReportRollup rollup = ReportRollup.get();
+        if (rollup == null) {
+            return null;
+        }
+        return new Date(System.currentTimeMillis() + rollup.getIntervalSeconds() * 1000);
+    }
+}
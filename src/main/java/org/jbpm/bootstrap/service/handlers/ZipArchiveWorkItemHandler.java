@@ -15,15 +15,25 @@
  */
 package org.jbpm.bootstrap.service.handlers;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
 
+import org.jbpm.bootstrap.service.archive.ArchiveEntry;
+import org.jbpm.bootstrap.service.archive.CancellableOutputStream;
+import org.jbpm.bootstrap.service.archive.ParallelZipWriter;
+import org.jbpm.bootstrap.service.util.GenerationCompletionRegistry;
+import org.jbpm.bootstrap.service.util.GenerationMetrics;
 import org.kie.api.runtime.process.WorkItem;
 import org.kie.api.runtime.process.WorkItemHandler;
 import org.kie.api.runtime.process.WorkItemManager;
@@ -35,95 +45,119 @@ public class ZipArchiveWorkItemHandler implements WorkItemHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(ZipArchiveWorkItemHandler.class);
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     @Override
     public void executeWorkItem(WorkItem workItem, WorkItemManager manager) {
         String sourceDirectory = (String) workItem.getParameter("SourcePath");
         String archiveName = (String) workItem.getParameter("Archive");
+        try {
+            archive(workItem.getProcessInstanceId(), sourceDirectory, archiveName);
+        } catch (CancellationException e) {
+            // left active, the process instance is being aborted by the requester
+            logger.debug("Archiving of process instance {} cancelled", workItem.getProcessInstanceId());
+            return;
+        }
+        
+        manager.completeWorkItem(workItem.getId(), null);
+    }
+
+    /**
+     * Archives generated project of given process instance (unless its requester asked for the sources only)
+     * and signals it's ready.
+     *
+     * @throws CancellationException when the generation has been cancelled before the archive is done
+     */
+    public void archive(long processInstanceId, String sourceDirectory, String archiveName) {
         logger.debug("About to create zip archive {} based on content of {}", archiveName, sourceDirectory);
         if (sourceDirectory == null || archiveName == null) {
             throw new RuntimeException("Archive and SourcePath parameters are mandatory");
         }
         
         String archivePath = sourceDirectory + File.separator + archiveName + ".zip";
-        
-        List<String> fileList = new ArrayList<>();
-        generateFileList(sourceDirectory, fileList, new File(sourceDirectory));
-        zipIt(sourceDirectory, archivePath, fileList);
-        logger.debug("Zip created successfully and stored at {}", archivePath);
+        File sourceFolder = new File(sourceDirectory);
+        checkCancelled(processInstanceId);
+        boolean archiveRequested = !GenerationCompletionRegistry.get().isSourceTreeRequested(sourceFolder);
+
+        if (archiveRequested) {
+            long started = System.nanoTime();
+            List<String> fileList = new ArrayList<>();
+            generateFileList(sourceDirectory, fileList, sourceFolder);
+            try {
+                zipIt(sourceDirectory, archivePath, fileList, () -> GenerationCompletionRegistry.get().isCancelled(processInstanceId));
+            } catch (UncheckedIOException e) {
+                if (e.getCause() instanceof InterruptedIOException) {
+                    new File(archivePath).delete();
+                    throw new CancellationException("Generation of process instance " + processInstanceId + " cancelled");
+                }
+                throw e;
+            }
+            GenerationMetrics.get().record("zip", GenerationMetrics.get().getTags(processInstanceId), started);
+            logger.debug("Zip created successfully and stored at {}", archivePath);
+        } else {
+            // requester builds the archive on the fly from the source tree
+            logger.debug("Project sources in {} are ready to be archived by the requester", sourceDirectory);
+        }
         
         // create empty marker file to make sure zip is completely stored 
         // on file system before it can be streamed back to client
+        // (only used as a fallback when the completion signal below is missed)
         File file = new File(sourceDirectory, archiveName + ".marker");
         try {
             file.createNewFile();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        
-        manager.completeWorkItem(workItem.getId(), null);
+        GenerationCompletionRegistry.get().completed(processInstanceId, archiveRequested ? new File(archivePath) : sourceFolder);
     }
 
     @Override
     public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
-        // no-op
+        // stops archiving that might still be running for the aborted process instance
+        logger.debug("Work item {} of process instance {} aborted", workItem.getId(), workItem.getProcessInstanceId());
+        GenerationCompletionRegistry.get().cancel(workItem.getProcessInstanceId());
+    }
 
+    private void checkCancelled(long processInstanceId) {
+        if (GenerationCompletionRegistry.get().isCancelled(processInstanceId)) {
+            throw new CancellationException("Generation of process instance " + processInstanceId + " cancelled");
+        }
     }
     
     public void zipIt(String sourceDirectory, String zipFile, List<String> fileList) {
-        byte[] buffer = new byte[1024];
-        FileOutputStream fos = null;
-        ZipOutputStream zos = null;
-        try {
-            fos = new FileOutputStream(zipFile);
-            zos = new ZipOutputStream(fos);
-
-            logger.debug("Output to zip {}", zipFile);
-            FileInputStream in = null;
-
-            for (String file: fileList) {
-                logger.debug("File added : " + file);
-                ZipEntry ze = new ZipEntry(file);
-                zos.putNextEntry(ze);
-                try {
-                    in = new FileInputStream(sourceDirectory + File.separator + file);
-                    int len;
-                    while ((len = in .read(buffer)) > 0) {
-                        zos.write(buffer, 0, len);
-                    }
-                } finally {
-                    in.close();
-                }
-            }
+        zipIt(sourceDirectory, zipFile, fileList, () -> false);
+    }
 
-            zos.closeEntry();
-            logger.debug("Folder successfully compressed");
+    /**
+     * Zips given files, stops with {@link InterruptedIOException} (wrapped) as soon as <code>cancelled</code> says so.
+     */
+    public void zipIt(String sourceDirectory, String zipFile, List<String> fileList, BooleanSupplier cancelled) {
+        Path root = Paths.get(sourceDirectory);
+        List<ArchiveEntry> entries = new ArrayList<>(fileList.size());
+        for (String file : fileList) {
+            entries.add(ArchiveEntry.ofFile(file, root.resolve(file)));
+        }
 
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        } finally {
-            try {
-                zos.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        logger.debug("Output to zip {}", zipFile);
+        try (OutputStream out = new BufferedOutputStream(new CancellableOutputStream(new FileOutputStream(zipFile), cancelled), BUFFER_SIZE)) {
+            long size = getZipWriter().write(entries, out);
+            logger.debug("Folder successfully compressed into {} bytes", size);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to create zip archive " + zipFile, e);
         }
     }
 
     public void generateFileList(String sourceDirectory, List<String> fileList, File node) {
-        // add file only
-        if (node.isFile()) {
-            fileList.add(generateZipEntry(sourceDirectory, node.toString()));
-        }
-
-        if (node.isDirectory()) {
-            String[] subNode = node.list();
-            for (String filename: subNode) {
-                generateFileList(sourceDirectory, fileList, new File(node, filename));
+        try {
+            for (ArchiveEntry entry : ArchiveEntry.listFiles(node.toPath())) {
+                fileList.add(entry.getName());
             }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to list files of " + node, e);
         }
     }
 
-    private String generateZipEntry(String sourceDirectory, String file) {
-        return file.substring(sourceDirectory.length() + 1, file.length());
+    protected ParallelZipWriter getZipWriter() {
+        return ParallelZipWriter.withDefaults();
     }
 }
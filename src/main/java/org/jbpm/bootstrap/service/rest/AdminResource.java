@@ -0,0 +1,199 @@
+package org.jbpm.bootstrap.service.rest;
+
+import java.util.Collections;
+
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.jbpm.bootstrap.service.util.ArchiveStore;
+import org.jbpm.bootstrap.service.util.GeneratedProjectCache;
+import org.jbpm.bootstrap.service.util.GenerationLimiter;
+import org.jbpm.bootstrap.service.util.GenerationWorkspace;
+import org.jbpm.bootstrap.service.util.MavenRepositoryManager;
+import org.jbpm.bootstrap.service.util.SkeletonGenerator;
+import org.jbpm.bootstrap.service.util.StartupTimeline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@Path("admin")
+public class AdminResource {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdminResource.class);
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    @Autowired
+    private GeneratedProjectCache cache;
+
+    @Autowired
+    private SkeletonGenerator skeletons;
+
+    @Autowired
+    private MavenRepositoryManager mavenRepository;
+
+    @Autowired
+    private GenerationLimiter limiter;
+
+    @Autowired
+    private GenerationWorkspace workspace;
+
+    @Autowired
+    private ArchiveStore archiveStore;
+
+    @GET
+    @Path("cache")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getCacheStatistics() {
+        try {
+            return Response.ok()
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(mapper.writeValueAsString(cache.getStatistics()))
+                .build();
+        } catch (Exception e) {
+            logger.error("Unexepcted error while collecting cache statistics", e);
+            return Response.serverError().entity(e.getMessage()).build();
+        }
+    }
+
+    @DELETE
+    @Path("cache")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response invalidateCache() {
+        try {
+            int removed = cache.invalidateAll();
+
+            return Response.ok()
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(mapper.writeValueAsString(Collections.singletonMap("removed", removed)))
+                .build();
+        } catch (Exception e) {
+            logger.error("Unexepcted error while invalidating cache", e);
+            return Response.serverError().entity(e.getMessage()).build();
+        }
+    }
+
+    @DELETE
+    @Path("cache/{key}")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response invalidateCacheEntry(@PathParam("key") String key) {
+        if (!cache.invalidate(key)) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.noContent().build();
+    }
+
+    @GET
+    @Path("skeletons")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getSkeletonStatistics() {
+        try {
+            return Response.ok()
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(mapper.writeValueAsString(skeletons.getStatistics()))
+                .build();
+        } catch (Exception e) {
+            logger.error("Unexepcted error while collecting skeleton statistics", e);
+            return Response.serverError().entity(e.getMessage()).build();
+        }
+    }
+
+    @DELETE
+    @Path("skeletons")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response clearSkeletons() {
+        try {
+            int removed = skeletons.clear();
+
+            return Response.ok()
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(mapper.writeValueAsString(Collections.singletonMap("removed", removed)))
+                .build();
+        } catch (Exception e) {
+            logger.error("Unexepcted error while clearing skeletons", e);
+            return Response.serverError().entity(e.getMessage()).build();
+        }
+    }
+
+    @GET
+    @Path("maven")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getMavenStatistics() {
+        try {
+            return Response.ok()
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(mapper.writeValueAsString(mavenRepository.getStatistics()))
+                .build();
+        } catch (Exception e) {
+            logger.error("Unexepcted error while collecting maven statistics", e);
+            return Response.serverError().entity(e.getMessage()).build();
+        }
+    }
+
+    @GET
+    @Path("limiter")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getLimiterStatistics() {
+        try {
+            return Response.ok()
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(mapper.writeValueAsString(limiter.getStatistics()))
+                .build();
+        } catch (Exception e) {
+            logger.error("Unexepcted error while collecting limiter statistics", e);
+            return Response.serverError().entity(e.getMessage()).build();
+        }
+    }
+
+    @GET
+    @Path("workspace")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getWorkspaceStatistics() {
+        try {
+            return Response.ok()
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(mapper.writeValueAsString(workspace.getStatistics()))
+                .build();
+        } catch (Exception e) {
+            logger.error("Unexepcted error while collecting workspace statistics", e);
+            return Response.serverError().entity(e.getMessage()).build();
+        }
+    }
+
+    @GET
+    @Path("archives")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getArchiveStatistics() {
+        try {
+            return Response.ok()
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(mapper.writeValueAsString(archiveStore.getStatistics()))
+                .build();
+        } catch (Exception e) {
+            logger.error("Unexepcted error while collecting archive statistics", e);
+            return Response.serverError().entity(e.getMessage()).build();
+        }
+    }
+
+    @GET
+    @Path("startup")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getStartupTimeline() {
+        try {
+            return Response.ok()
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(mapper.writeValueAsString(StartupTimeline.get().getTimeline()))
+                .build();
+        } catch (Exception e) {
+            logger.error("Unexepcted error while collecting startup timeline", e);
+            return Response.serverError().entity(e.getMessage()).build();
+        }
+    }
+}
@@ -2,24 +2,28 @@ package org.jbpm.bootstrap.service.rest;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 
-import org.jbpm.kie.services.impl.query.mapper.RawListQueryMapper;
-import org.jbpm.services.api.query.QueryService;
-import org.jbpm.services.api.query.model.QueryParam;
-import org.kie.api.runtime.query.QueryContext;
+import org.jbpm.bootstrap.service.util.GenerationKey;
+import org.jbpm.bootstrap.service.util.ReportAggregates;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -30,39 +34,58 @@ public class ReportResource {
 
     private ObjectMapper mapper = new ObjectMapper();
     
-    @Autowired
-    private QueryService queryService;
+    private ReportAggregates aggregates = ReportAggregates.get();
+    
+    @Value("${bootstrap.reports.dashboard.max-age-seconds:30}")
+    private int dashboardMaxAge;
+    
+    @Value("${bootstrap.reports.dashboard.ttl-ms:5000}")
+    private long dashboardTtl;
+    
+    private volatile CachedDashboard dashboard;
     
     @GET
-    @Path("stats")
-    @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
-    public Response collectStats() {
+    @Path("dashboard")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response collectDashboard(@Context Request request) {
+        if (!aggregates.isLoaded()) {
+            return notLoaded();
+        }
         try {
-            List<Number> collectedStatistics = new ArrayList<>();
-            
-            List<List<Object>> totalProcesses = queryService.query("jbpmBootstrapProcessInstances", 
-                    RawListQueryMapper.get(), 
-                    new QueryContext(), 
-                    QueryParam.count("processInstanceId"));
+            CachedDashboard current = getDashboard();
             
-            List<List<Object>> todayProcesses = queryService.query("jbpmBootstrapProcessInstances", 
-                    RawListQueryMapper.get(), 
-                    new QueryContext(), 
-                    QueryParam.equalsTo("start_date", LocalDate.now().toString()),
-                    QueryParam.count("processInstanceId"));
+            EntityTag etag = new EntityTag(current.etag);
+            CacheControl cacheControl = new CacheControl();
+            cacheControl.setMaxAge(dashboardMaxAge);
             
-            List<List<Object>> totalErrors = queryService.query("jbpmBootstrapExecutionErrorList", 
-                    RawListQueryMapper.get(), 
-                    new QueryContext(), 
-                    QueryParam.count("ERROR_ID"));
-
-            collectedStatistics.add((Number)totalProcesses.get(0).get(0));
-            collectedStatistics.add((Number)todayProcesses.get(0).get(0));
-            collectedStatistics.add((Number)totalErrors.get(0).get(0));
+            ResponseBuilder notModified = request.evaluatePreconditions(etag);
+            if (notModified != null) {
+                return notModified.tag(etag).cacheControl(cacheControl).build();
+            }
             
             return Response.ok()
                 .type(MediaType.APPLICATION_JSON_TYPE)
-                .entity(mapper.writeValueAsString(collectedStatistics))
+                .entity(current.payload)
+                .tag(etag)
+                .cacheControl(cacheControl)
+                .build();
+        } catch (Exception e) {
+            logger.error("Unexepcted error while collecting dashboard", e);
+            return Response.serverError().entity(e.getMessage()).build();
+        }
+    }
+    
+    @GET
+    @Path("stats")
+    @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    public Response collectStats() {
+        if (!aggregates.isLoaded()) {
+            return notLoaded();
+        }
+        try {
+            return Response.ok()
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(mapper.writeValueAsString(buildStats()))
                 .build();
         } catch (Exception e) {
             logger.error("Unexepcted error while collecting statistics", e);
@@ -74,31 +97,13 @@ public class ReportResource {
     @Path("types")
     @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
     public Response collectByTypes() {
+        if (!aggregates.isLoaded()) {
+            return notLoaded();
+        }
         try {
-            
-            QueryParam[] parameters = QueryParam.getBuilder()
-                    .append(QueryParam.groupBy("value"))
-                    .append(QueryParam.count("processInstanceId"))
-                    .append(QueryParam.equalsTo("variableId", "projectSetup"))
-                    .get();
-            
-            List<List<Object>> byType = queryService.query("jbpmBootstrapProcessInstancesByVar", 
-                    RawListQueryMapper.get(), 
-                    new QueryContext(0, 1000), 
-                    parameters); 
-            
-            Map<String, Number> collectedTypes = new HashMap<>();
-            for (List<Object> rows : byType) {
-                collectedTypes.put((String) rows.get(0), (Number) rows.get(1));            
-            }
-            
-            collectedTypes.putIfAbsent("bpm", 0);
-            collectedTypes.putIfAbsent("brm", 0);
-            collectedTypes.putIfAbsent("planner", 0);
-            
             return Response.ok()
                 .type(MediaType.APPLICATION_JSON_TYPE)
-                .entity(mapper.writeValueAsString(collectedTypes))
+                .entity(mapper.writeValueAsString(buildTypes()))
                 .build();
         } catch (Exception e) {
             logger.error("Unexepcted error while collecting report by type", e);
@@ -110,35 +115,13 @@ public class ReportResource {
     @Path("apps")
     @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
     public Response collectByDate() {
+        if (!aggregates.isLoaded()) {
+            return notLoaded();
+        }
         try {
-            
-            QueryParam[] parameters = QueryParam.getBuilder()
-                    .append(QueryParam.groupBy("end_date", QueryParam.DAY, 365))
-                    .append(QueryParam.count("processInstanceId"))                    
-                    .get();
-            
-            List<List<Object>> lastTenDays = queryService.query("jbpmBootstrapProcessInstances", 
-                    RawListQueryMapper.get(), 
-                    new QueryContext(0, 10, "end_date", false), 
-                    parameters);                    
-            
-            List<Object> collectedApplications = new ArrayList<>();            
-            List<Object> dates = new ArrayList<>();
-           
-            Collections.reverse(lastTenDays);
-            
-            for (List<Object> rows : lastTenDays) {
-                dates.add(rows.get(0));
-                collectedApplications.add(rows.get(1));
-            }
-            
-            Map<String, List<?>> data = new HashMap<>();
-            data.put("apps", collectedApplications);
-            data.put("dates", dates);
-            
             return Response.ok()
                 .type(MediaType.APPLICATION_JSON_TYPE)
-                .entity(mapper.writeValueAsString(data))
+                .entity(mapper.writeValueAsString(buildApps()))
                 .build();
         } catch (Exception e) {
             logger.error("Unexepcted error while collecting report by date", e);
@@ -150,22 +133,13 @@ public class ReportResource {
     @Path("versions")
     @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
     public Response collectByVersion() {
+        if (!aggregates.isLoaded()) {
+            return notLoaded();
+        }
         try {
-            
-            QueryParam[] parameters = QueryParam.getBuilder()
-                    .append(QueryParam.groupBy("value"))
-                    .append(QueryParam.count("processInstanceId"))
-                    .append(QueryParam.equalsTo("variableId", "projectVersion"))
-                    .get();
-            
-            List<List<Object>> byVersion = queryService.query("jbpmBootstrapProcessInstancesByVar", 
-                    RawListQueryMapper.get(), 
-                    new QueryContext(0, 1000), 
-                    parameters); 
-            
             return Response.ok()
                 .type(MediaType.APPLICATION_JSON_TYPE)
-                .entity(mapper.writeValueAsString(byVersion))
+                .entity(mapper.writeValueAsString(toRows(aggregates.getCounts("projectVersion"))))
                 .build();
         } catch (Exception e) {
             logger.error("Unexepcted error while collecting report by version", e);
@@ -177,22 +151,13 @@ public class ReportResource {
     @Path("options")
     @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
     public Response collectByOption() {
+        if (!aggregates.isLoaded()) {
+            return notLoaded();
+        }
         try {
-            
-            QueryParam[] parameters = QueryParam.getBuilder()
-                    .append(QueryParam.groupBy("value"))
-                    .append(QueryParam.count("processInstanceId"))
-                    .append(QueryParam.equalsTo("variableId", "projectOptions"))
-                    .get();
-            
-            List<List<Object>> byOptions = queryService.query("jbpmBootstrapProcessInstancesByVar", 
-                    RawListQueryMapper.get(), 
-                    new QueryContext(0, 1000), 
-                    parameters);            
-            
             return Response.ok()
                 .type(MediaType.APPLICATION_JSON_TYPE)
-                .entity(mapper.writeValueAsString(byOptions))
+                .entity(mapper.writeValueAsString(toRows(aggregates.getCounts("projectOptions"))))
                 .build();
         } catch (Exception e) {
             logger.error("Unexepcted error while collecting report by option", e);
@@ -204,37 +169,115 @@ public class ReportResource {
     @Path("gentypes")
     @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
     public Response collectByGenerationType() {
+        if (!aggregates.isLoaded()) {
+            return notLoaded();
+        }
         try {
-
-            QueryParam[] parameters = QueryParam.getBuilder()
-                    .append(QueryParam.groupBy("value"))
-                    .append(QueryParam.count("processInstanceId"))
-                    .append(QueryParam.equalsTo("variableId", "generationType"))
-                    .get();
-
-
-            List<List<Object>> totalProcesses = queryService.query("jbpmBootstrapProcessInstances",
-                                                                   RawListQueryMapper.get(),
-                                                                   new QueryContext(),
-                                                                   QueryParam.count("processInstanceId"));
-
-            List<List<Object>> byGenerationType = queryService.query("jbpmBootstrapProcessInstancesByVar",
-                                                              RawListQueryMapper.get(),
-                                                              new QueryContext(0, 1000),
-                                                              parameters);
-
-            List<Object> totalList = new ArrayList<>();
-            totalList.add("total");
-            totalList.add(totalProcesses.get(0).get(0));
-            byGenerationType.add(totalList);
-
             return Response.ok()
                     .type(MediaType.APPLICATION_JSON_TYPE)
-                    .entity(mapper.writeValueAsString(byGenerationType))
+                    .entity(mapper.writeValueAsString(buildGenerationTypes()))
                     .build();
         } catch (Exception e) {
             logger.error("Unexepcted error while collecting report by generation type", e);
             return Response.serverError().entity(e.getMessage()).build();
         }
     }
+
+    /*
+     * all reports in one payload, rebuilt at most once per ttl regardless of number of viewers
+     */
+    protected CachedDashboard getDashboard() throws Exception {
+        CachedDashboard current = dashboard;
+        if (current != null && System.currentTimeMillis() - current.created < dashboardTtl) {
+            return current;
+        }
+        synchronized (this) {
+            current = dashboard;
+            if (current == null || System.currentTimeMillis() - current.created >= dashboardTtl) {
+                Map<String, Object> reports = new LinkedHashMap<>();
+                reports.put("stats", buildStats());
+                reports.put("types", buildTypes());
+                reports.put("apps", buildApps());
+                reports.put("versions", toRows(aggregates.getCounts("projectVersion")));
+                reports.put("options", toRows(aggregates.getCounts("projectOptions")));
+                reports.put("gentypes", buildGenerationTypes());
+
+                String payload = mapper.writeValueAsString(reports);
+                current = new CachedDashboard(payload,
+                                              GenerationKey.sha256(payload));
+                dashboard = current;
+            }
+            return current;
+        }
+    }
+
+    private List<Number> buildStats() {
+        List<Number> collectedStatistics = new ArrayList<>();
+        
+        collectedStatistics.add(aggregates.getCompleted());
+        collectedStatistics.add(aggregates.getCompleted(LocalDate.now()));
+        collectedStatistics.add(aggregates.getErrors());
+        
+        return collectedStatistics;
+    }
+
+    private Map<String, Number> buildTypes() {
+        Map<String, Number> collectedTypes = new HashMap<>(aggregates.getCounts("projectSetup"));
+        
+        collectedTypes.putIfAbsent("bpm", 0);
+        collectedTypes.putIfAbsent("brm", 0);
+        collectedTypes.putIfAbsent("planner", 0);
+        
+        return collectedTypes;
+    }
+
+    private Map<String, List<?>> buildApps() {
+        Map<String, Long> lastTenDays = aggregates.getCompletedByDay(10);
+        
+        Map<String, List<?>> data = new HashMap<>();
+        data.put("apps", new ArrayList<>(lastTenDays.values()));
+        data.put("dates", new ArrayList<>(lastTenDays.keySet()));
+        
+        return data;
+    }
+
+    private List<List<Object>> buildGenerationTypes() {
+        List<List<Object>> byGenerationType = toRows(aggregates.getCounts("generationType"));
+
+        List<Object> totalList = new ArrayList<>();
+        totalList.add("total");
+        totalList.add(aggregates.getCompleted());
+        byGenerationType.add(totalList);
+        
+        return byGenerationType;
+    }
+
+    /*
+     * same shape as grouped query results - list of [value, count] rows
+     */
+    private List<List<Object>> toRows(Map<String, Long> counts) {
+        List<List<Object>> rows = new ArrayList<>();
+        counts.forEach((value, count) -> rows.add(new ArrayList<>(Arrays.asList(value, count))));
+        return rows;
+    }
+
+    private Response notLoaded() {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", 5)
+                .entity("Reports are being loaded")
+                .build();
+    }
+
+    protected static class CachedDashboard {
+
+        private final String payload;
+        private final String etag;
+        private final long created = System.currentTimeMillis();
+
+        CachedDashboard(String payload,
+                        String etag) {
+            this.payload = payload;
+            this.etag = etag;
+        }
+    }
 }
@@ -36,6 +36,7 @@ public class BootstrapWebSecurityConfig extends WebSecurityConfigurerAdapter {
         .csrf().disable()
         .authorizeRequests()
             .regexMatchers("/rest/server/*").authenticated()
+            .regexMatchers("/rest/admin.*").authenticated()
             .and()
         .httpBasic();
     }
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+
+import org.jbpm.bootstrap.service.archive.ArchiveFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Retains archives sent to clients for configured time under the SHA-256 hash of their content, so
+ * a client can download (or resume downloading) the same archive again via <code>/gen/archives/{hash}</code>
+ * without another generation. The hash is sent as <code>ETag</code> of the archive, archives are kept
+ * together with their format so they are downloaded with the right media type.
+ * <br/>
+ * Retention window is renewed whenever the archive is retained or downloaded again, the oldest archives
+ * are removed earlier when the store goes over configured size.
+ */
+@Component
+public class ArchiveStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveStore.class);
+
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+    // hash with archive extension or of a temp file
+    private static final Pattern ENTRY = Pattern.compile("[0-9a-f]{64}\\.(zip|tar\\.gz|[0-9]+\\.tmp)");
+
+    private static final int MAX_HASHES = 1000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Value("${bootstrap.archives.retention-enabled:true}")
+    private boolean enabled;
+
+    @Value("${bootstrap.archives.retention-minutes:60}")
+    private long retentionMinutes;
+
+    @Value("${bootstrap.archives.max-size-mb:1024}")
+    private long maxSizeMb;
+
+    @Value("${bootstrap.archives.location:}")
+    private String location;
+
+    private File storeFolder;
+
+    private final LinkedHashMap<String, RetainedArchive> archives = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize = 0;
+
+    // hashes of recently retained files by their identity - archives served from the cache are hard links
+    // of the same file so they are read only once
+    private final LinkedHashMap<String, String> hashes = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_HASHES;
+        }
+    };
+
+    private final AtomicLong downloads = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (location == null || location.isEmpty()) {
+            storeFolder = new File(System.getProperty("java.io.tmpdir"), "jbpm-bootstrap-archives");
+        } else {
+            storeFolder = new File(location);
+        }
+        storeFolder.mkdirs();
+        // index is kept in memory only so archives left over by previous runs are useless - only files
+        // named as the store names them are removed, so it's safe to point it to a shared directory
+        File[] leftovers = storeFolder.listFiles(file -> file.isFile() && ENTRY.matcher(file.getName()).matches());
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                leftover.delete();
+            }
+        }
+        logger.info("Archive retention {} ({} minutes, max size {} MB) stored at {}",
+                    enabled ? "enabled" : "disabled",
+                    retentionMinutes,
+                    maxSizeMb,
+                    storeFolder);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Retains given archive of given format - as a hard link when possible, as a copy otherwise - so it
+     * stays available after the original is discarded. The content is read to compute the hash only
+     * the first time given file (or a hard link of it) is retained.
+     *
+     * @return hash of the archive content
+     */
+    public String retain(File archive,
+                         ArchiveFormat format) throws IOException {
+        String hash = hashOf(archive);
+        if (!enabled) {
+            return hash;
+        }
+        synchronized (this) {
+            RetainedArchive retained = archives.get(hash);
+            if (retained != null && retained.file.exists()) {
+                retained.touch();
+                return hash;
+            }
+        }
+        long size = archive.length();
+        if (size > maxSizeMb * 1024 * 1024) {
+            logger.debug("Archive {} is too big ({} bytes) to be retained", archive, size);
+            return hash;
+        }
+        File retainedFile = new File(storeFolder, hash + format.getExtension());
+        File temp = new File(storeFolder, hash + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            try {
+                Files.createLink(temp.toPath(), archive.toPath());
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(archive.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            synchronized (this) {
+                Files.move(temp.toPath(), retainedFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                RetainedArchive previous = archives.put(hash, new RetainedArchive(retainedFile, format, size));
+                if (previous != null) {
+                    totalSize -= previous.size;
+                }
+                totalSize += size;
+                evict();
+            }
+            logger.debug("Archive {} retained as {}", archive, retainedFile);
+        } catch (IOException e) {
+            // archive is still sent, it just cannot be downloaded again
+            logger.warn("Unable to retain archive {}", archive, e);
+            temp.delete();
+        }
+        return hash;
+    }
+
+    /**
+     * Returns retained archive with given hash or null if there is no such archive (anymore).
+     */
+    public synchronized RetainedArchive get(String hash) {
+        if (!enabled || hash == null || !HASH.matcher(hash).matches()) {
+            return null;
+        }
+        RetainedArchive retained = archives.get(hash);
+        if (retained == null || !retained.file.exists()) {
+            return null;
+        }
+        retained.touch();
+        downloads.incrementAndGet();
+        return retained;
+    }
+
+    @Scheduled(fixedDelayString = "${bootstrap.archives.cleanup-interval-ms:60000}")
+    public synchronized void removeExpired() {
+        long expiredBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(retentionMinutes);
+        Iterator<RetainedArchive> iterator = archives.values().iterator();
+        while (iterator.hasNext()) {
+            RetainedArchive retained = iterator.next();
+            if (retained.lastAccess < expiredBefore) {
+                iterator.remove();
+                remove(retained);
+                expired.incrementAndGet();
+            }
+        }
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("enabled", enabled);
+        statistics.put("archives", archives.size());
+        statistics.put("sizeBytes", totalSize);
+        statistics.put("maxSizeBytes", maxSizeMb * 1024 * 1024);
+        statistics.put("retentionMinutes", retentionMinutes);
+        statistics.put("downloads", downloads.get());
+        statistics.put("expired", expired.get());
+        return statistics;
+    }
+
+    /**
+     * Hex encoded SHA-256 hash of given file content.
+     */
+    public static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream input = Files.newInputStream(file.toPath())) {
+            for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return GenerationKey.toHex(digest.digest());
+    }
+
+    /*
+     * hash of given file, remembered by file identity (as long as the file is not modified)
+     */
+    private String hashOf(File file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(),
+                                                              BasicFileAttributes.class);
+        if (attributes.fileKey() == null) {
+            return hash(file);
+        }
+        String identity = attributes.fileKey() + "|" + attributes.size() + "|" + attributes.lastModifiedTime();
+        synchronized (hashes) {
+            String hash = hashes.get(identity);
+            if (hash != null) {
+                return hash;
+            }
+        }
+        String hash = hash(file);
+        synchronized (hashes) {
+            hashes.put(identity,
+                       hash);
+        }
+        return hash;
+    }
+
+    private void evict() {
+        Iterator<RetainedArchive> iterator = archives.values().iterator();
+        while (iterator.hasNext() && totalSize > maxSizeMb * 1024 * 1024) {
+            RetainedArchive eldest = iterator.next();
+            iterator.remove();
+            remove(eldest);
+            logger.debug("Archive {} evicted from the store", eldest.file);
+        }
+    }
+
+    private void remove(RetainedArchive retained) {
+        totalSize -= retained.size;
+        retained.file.delete();
+    }
+
+    public static class RetainedArchive {
+
+        private final File file;
+        private final ArchiveFormat format;
+        private final long size;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        RetainedArchive(File file,
+                        ArchiveFormat format,
+                        long size) {
+            this.file = file;
+            this.format = format;
+            this.size = size;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public ArchiveFormat getFormat() {
+            return format;
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.mail.internet.MimeUtility;
+
+import org.jbpm.bootstrap.model.Project;
+import org.jbpm.bootstrap.service.archive.ArchiveEntry;
+import org.jbpm.bootstrap.service.archive.ParallelZipWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Generates several projects in one request into a single archive - one folder per project and
+ * <code>batch-manifest.json</code> with timings and errors of individual projects. Projects are generated
+ * concurrently as regular generations (cache, skeletons, coalescing and limiter slots apply to each of them),
+ * a project that fails does not fail the batch, it's just reported in the manifest.
+ * <br/>
+ * Projects of a version/capability combination that is not warm in the maven repository yet wait for the first
+ * project of that combination, so dependencies are resolved into the shared repository once and not
+ * by all of them at the same time.
+ */
+@Component
+public class BatchGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchGenerator.class);
+
+    static final String MANIFEST = "batch-manifest.json";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Value("${bootstrap.batch.max-projects:50}")
+    private int maxProjects;
+
+    @Value("${bootstrap.batch.threads:8}")
+    private int threads;
+
+    @Value("${bootstrap.batch.timeout-ms:900000}")
+    private long timeout;
+
+    @Autowired
+    private BuildComponent buildComponent;
+
+    @Autowired
+    private GenerationLimiter limiter;
+
+    @Autowired
+    private MavenRepositoryManager mavenRepository;
+
+    @Autowired
+    private GenerationWorkspace workspace;
+
+    private ThreadPoolExecutor executor;
+
+    private final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    @PostConstruct
+    public void init() {
+        if (maxProjects > limiter.getMaxBatchProjects()) {
+            // bigger batches would always be over the rate
+            logger.warn("Max projects of a batch ({}) is over batch burst of the limiter, limited to {}",
+                        maxProjects,
+                        limiter.getMaxBatchProjects());
+            maxProjects = limiter.getMaxBatchProjects();
+        }
+        AtomicInteger counter = new AtomicInteger();
+        // queue is bounded by max projects of the batches being generated
+        executor = new ThreadPoolExecutor(threads,
+                                          threads,
+                                          60L,
+                                          TimeUnit.SECONDS,
+                                          new LinkedBlockingQueue<>(),
+                                          runnable -> {
+                                              Thread thread = new Thread(runnable,
+                                                                         "generation-batch-" + counter.incrementAndGet());
+                                              thread.setDaemon(true);
+                                              return thread;
+                                          });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    public int getMaxProjects() {
+        return maxProjects;
+    }
+
+    /**
+     * How long the whole batch can take before the request is answered with 503.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Generates archive with given projects, the whole batch counts towards the batch rate of given client
+     * (if known). Caller is responsible for discarding the returned archive.
+     *
+     * @throws IllegalArgumentException when there are no or too many projects
+     * @throws GenerationRejectedException when the client is over its rate
+     */
+    public GeneratedArchive generate(List<Project> projects,
+                                     String client) throws Exception {
+        if (projects.isEmpty() || projects.size() > maxProjects) {
+            throw new IllegalArgumentException("Batch must have 1 to " + maxProjects + " projects, got " + projects.size());
+        }
+        limiter.checkBatchRate(client,
+                               projects.size());
+        long started = System.currentTimeMillis();
+
+        List<BatchItem> items = new ArrayList<>();
+        Set<String> folders = new HashSet<>();
+        Map<String, CompletableFuture<Void>> pilots = new HashMap<>();
+        for (Project project : projects) {
+            buildComponent.setDefaultsIfNotExist(project);
+            BatchItem item = new BatchItem(project,
+                                           uniqueFolder(project.getName(),
+                                                        folders));
+            String setup = project.getVersion() + ":" + buildComponent.resolveApplicationType(project);
+            if (!mavenRepository.isOffline(project.getVersion())) {
+                // first project of the setup resolves dependencies, others wait for it
+                item.pilot = pilots.get(setup);
+                if (item.pilot == null) {
+                    pilots.put(setup,
+                               item.resolved);
+                }
+            }
+            items.add(item);
+        }
+
+        File folder = workspace.allocate();
+        boolean generated = false;
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (BatchItem item : items) {
+                futures.add(executor.submit(() -> generate(item)));
+            }
+            try {
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                // requester gave up, interrupted generations are cancelled
+                for (Future<?> future : futures) {
+                    future.cancel(true);
+                }
+                throw e;
+            }
+
+            File content = new File(folder,
+                                    "content");
+            int failed = 0;
+            for (BatchItem item : items) {
+                if (item.archive != null) {
+                    try {
+                        extract(item.archive.getFile(),
+                                new File(content,
+                                         item.folder).toPath());
+                    } catch (IOException e) {
+                        item.error = "Unable to extract generated archive: " + e.getMessage();
+                    } finally {
+                        item.archive.discard();
+                        item.archive = null;
+                    }
+                }
+                if (item.error != null) {
+                    failed++;
+                }
+            }
+
+            Map<String, Object> manifest = new LinkedHashMap<>();
+            manifest.put("projects",
+                         items.size());
+            manifest.put("failed",
+                         failed);
+            manifest.put("durationMs",
+                         System.currentTimeMillis() - started);
+            List<Map<String, Object>> details = new ArrayList<>();
+            for (BatchItem item : items) {
+                details.add(item.toManifest());
+            }
+            manifest.put("details",
+                         details);
+
+            List<ArchiveEntry> entries = new ArrayList<>();
+            entries.add(ArchiveEntry.ofBytes(MANIFEST,
+                                             mapper.writeValueAsBytes(manifest)));
+            if (content.isDirectory()) {
+                entries.addAll(ArchiveEntry.listFiles(content.toPath()));
+            }
+            File archive = new File(folder,
+                                    "batch.zip");
+            try (OutputStream output = new BufferedOutputStream(new FileOutputStream(archive),
+                                                                BUFFER_SIZE)) {
+                ParallelZipWriter.withDefaults().write(entries,
+                                                       output);
+            }
+            logger.info("Batch of {} projects ({} failed) generated in {} ms",
+                        items.size(),
+                        failed,
+                        System.currentTimeMillis() - started);
+            generated = true;
+            return new GeneratedArchive(archive,
+                                        MimeUtility.encodeWord("batch.zip",
+                                                               "utf-8",
+                                                               "Q"),
+                                        folder,
+                                        null);
+        } finally {
+            for (BatchItem item : items) {
+                if (item.archive != null) {
+                    item.archive.discard();
+                }
+            }
+            if (!generated) {
+                workspace.release(folder);
+            }
+        }
+    }
+
+    private void generate(BatchItem item) {
+        long started = System.currentTimeMillis();
+        try {
+            if (item.pilot != null) {
+                // result does not matter, only that dependencies are resolved (as far as they could be)
+                item.pilot.get();
+            }
+            item.archive = buildComponent.generate(item.project,
+                                                   false,
+                                                   false,
+                                                   true);
+        } catch (InterruptedException e) {
+            item.error = "Interrupted";
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            item.error = e.getCause().getMessage();
+        } catch (Exception e) {
+            item.error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+        } finally {
+            item.durationMs = System.currentTimeMillis() - started;
+            item.resolved.complete(null);
+        }
+    }
+
+    /*
+     * project names are not unique within a batch, repeated ones get a numeric suffix
+     */
+    private static String uniqueFolder(String projectName,
+                                       Set<String> folders) {
+        // names come from the request, so they must not point anywhere else
+        String name = projectName.replaceAll("[^A-Za-z0-9._-]", "-").replaceAll("^\\.+", "-");
+        String folder = name;
+        for (int i = 2; !folders.add(folder); i++) {
+            folder = name + "-" + i;
+        }
+        return folder;
+    }
+
+    /*
+     * extracts given zip into given directory, entries pointing outside of it are refused
+     */
+    private static void extract(File archive,
+                                Path target) throws IOException {
+        Path root = target.toAbsolutePath().normalize();
+        Files.createDirectories(root);
+        try (InputStream input = Files.newInputStream(archive.toPath());
+             ZipInputStream zip = new ZipInputStream(input)) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                Path path = root.resolve(entry.getName()).normalize();
+                if (!path.startsWith(root)) {
+                    throw new IOException("Entry " + entry.getName() + " is outside of the archive");
+                }
+                if (entry.isDirectory()) {
+                    Files.createDirectories(path);
+                    continue;
+                }
+                Files.createDirectories(path.getParent());
+                Files.copy(zip,
+                           path);
+            }
+        }
+    }
+
+    /**
+     * Single project of a batch, filled in by its generation.
+     */
+    private static class BatchItem {
+
+        private final Project project;
+        private final String folder;
+        private final CompletableFuture<Void> resolved = new CompletableFuture<>();
+
+        private CompletableFuture<Void> pilot;
+        private volatile GeneratedArchive archive;
+        private volatile String error;
+        private volatile long durationMs;
+
+        BatchItem(Project project,
+                  String folder) {
+            this.project = project;
+            this.folder = folder;
+        }
+
+        Map<String, Object> toManifest() {
+            Map<String, Object> manifest = new LinkedHashMap<>();
+            manifest.put("name",
+                         project.getName());
+            manifest.put("folder",
+                         folder);
+            manifest.put("version",
+                         project.getVersion());
+            manifest.put("status",
+                         error == null ? "done" : "failed");
+            manifest.put("durationMs",
+                         durationMs);
+            if (error != null) {
+                manifest.put("error",
+                             error);
+            }
+            return manifest;
+        }
+    }
+}
@@ -1,156 +1,1030 @@
 package org.jbpm.bootstrap.service.util;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.zip.ZipFile;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.mail.internet.MimeUtility;
 
-import org.apache.commons.io.IOUtils;
+import io.micrometer.core.instrument.Tags;
 import org.jbpm.bootstrap.model.Project;
-import org.jbpm.services.api.ProcessService;
+import org.jbpm.bootstrap.service.archive.ArchiveEntry;
+import org.jbpm.bootstrap.service.archive.ArchiveFormat;
+import org.jbpm.bootstrap.service.archive.TeeOutputStream;
 import org.jbpm.services.api.admin.ProcessInstanceAdminService;
 import org.kie.api.runtime.query.QueryContext;
 import org.kie.internal.runtime.error.ExecutionError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
-import org.springframework.util.FileSystemUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @Component
 public class BuildComponent {
 
     private static final Logger logger = LoggerFactory.getLogger(BuildComponent.class);
-    private File parent = new File(System.getProperty("java.io.tmpdir"));
 
-    private static final String CONTAINER_ID = "jbpm-bootstrap-kjar";
-    private static final String PROCESS_ID = "GenerateProject";
-
-    private static final String DEFAULT_VERSION = "7.59.0.Final";
+    static final String DEFAULT_VERSION = "7.59.0.Final";
     private static final String KIE_VERSION = System.getProperty("org.kie.version",
                                                                  DEFAULT_VERSION);
     private static final String MVN_SETTINGS = System.getProperty("kie.maven.settings.custom");
 
+    private static final long GENERATION_TIMEOUT = 60000;
+    private static final long FALLBACK_CHECK_INTERVAL = 1000;
+    private static final long MIN_ERROR_CHECK_INTERVAL = 2000;
+    private static final long MAX_ERROR_CHECK_INTERVAL = 16000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // failures of maven runs in offline mode that can be fixed by resolving artifacts online
+    private static final Pattern RESOLUTION_FAILURE = Pattern.compile("offline mode|could not resolve|could not be resolved|could not find artifact|"
+                                                                              + "failed to read artifact descriptor|could not transfer artifact|unresolveable",
+                                                                      Pattern.CASE_INSENSITIVE);
+
     private static final String DEFAULT_SPRING_BOOT_VERSION = "2.3.4.RELEASE";
     private static final String OLD_SPRING_BOOT_VERSION = "1.5.12.RELEASE";
 
     @Autowired
-    private ProcessService processService;
+    private GenerationProcessLauncher launcher;
 
     @Autowired
     ProcessInstanceAdminService processInstanceAdminService;
 
-    public ResponseEntity<byte[]> buildApp(Project project, boolean isWeb) throws Exception {
+    @Autowired
+    GeneratedProjectCache cache;
+
+    @Autowired
+    SkeletonGenerator skeletons;
+
+    @Autowired
+    MavenRepositoryManager mavenRepository;
+
+    @Autowired
+    GenerationLimiter limiter;
+
+    @Autowired
+    GenerationFlights flights;
+
+    @Autowired
+    GenerationWorkspace workspace;
+
+    @Autowired
+    ArchiveStore archives;
+
+    @Value("${bootstrap.archive.streaming:false}")
+    private boolean streaming;
+
+    private GenerationCompletionRegistry completionRegistry = GenerationCompletionRegistry.get();
+
+    private GenerationMetrics metrics = GenerationMetrics.get();
+
+    private final ExecutorService aborts = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable,
+                                   "generation-abort");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${bootstrap.async.wait-threads:4}")
+    private int waitThreads;
+
+    // generated projects are waited for (and generations finished) here, not on a thread per generation
+    private ScheduledExecutorService waits;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threads = new AtomicInteger();
+        waits = Executors.newScheduledThreadPool(waitThreads,
+                                                 runnable -> {
+                                                     Thread thread = new Thread(runnable,
+                                                                                "generation-wait-" + threads.incrementAndGet());
+                                                     thread.setDaemon(true);
+                                                     return thread;
+                                                 });
+    }
+
+    public ResponseEntity<StreamingResponseBody> buildApp(Project project, boolean isWeb) throws Exception {
+        return buildApp(project,
+                        isWeb,
+                        null);
+    }
+
+    /**
+     * Generates and sends project archive once admitted by the limiter, generation of given client
+     * (if known) counts towards its rate.
+     *
+     * @throws GenerationRejectedException when the generation is not admitted
+     */
+    public ResponseEntity<StreamingResponseBody> buildApp(Project project, boolean isWeb, String client) throws Exception {
+        return buildAppResponse(generateApp(project,
+                                            isWeb,
+                                            client),
+                                isWeb);
+    }
+
+    /**
+     * Generates project archive to be sent by {@link #buildAppResponse(GeneratedArchive, boolean)} once
+     * admitted by the limiter, generation of given client (if known) counts towards its rate.
+     *
+     * @throws GenerationRejectedException when the generation is not admitted
+     */
+    public GeneratedArchive generateApp(Project project, boolean isWeb, String client) throws Exception {
+        return generateApp(project,
+                           isWeb,
+                           client,
+                           ArchiveFormat.DEFAULT);
+    }
+
+    /**
+     * Generates project archive in given format as {@link #generateApp(Project, boolean, String)} does.
+     * Archives in other than the default format are taken from the cache when there, otherwise the project
+     * is generated as usual and its zip is converted (or its sources are archived in the format while
+     * being sent in streaming mode), the converted archive is cached as well.
+     *
+     * @throws GenerationRejectedException when the generation is not admitted
+     */
+    public GeneratedArchive generateApp(Project project, boolean isWeb, String client, ArchiveFormat format) throws Exception {
+        return await(generateAppAsync(project,
+                                      isWeb,
+                                      client,
+                                      format));
+    }
+
+    /**
+     * Same as {@link #generateApp(Project, boolean, String, ArchiveFormat)} without waiting for the process -
+     * the calling thread only looks the project up and starts its generation, the returned future completes
+     * once the archive is ready. Cancelling the future cancels the generation, the archive is discarded when
+     * it's ready after the future was cancelled.
+     *
+     * @throws GenerationRejectedException when the generation is not admitted
+     */
+    public CompletableFuture<GeneratedArchive> generateAppAsync(Project project, boolean isWeb, String client, ArchiveFormat format) throws Exception {
+        limiter.checkRate(client);
+        if (format.isDefault()) {
+            return generateAsync(project,
+                                 isWeb,
+                                 streaming,
+                                 true);
+        }
+
+        long started = System.nanoTime();
+        setDefaultsIfNotExist(project);
+        String projectSetup = resolveApplicationType(project);
+        GenerationKey key = GenerationKey.of(project,
+                                             projectSetup,
+                                             resolveSpringBootVersion(project),
+                                             KIE_VERSION);
+        Tags tags = GenerationMetrics.tags(isWeb ? "web" : "rest",
+                                           project.getVersion(),
+                                           projectSetup);
+        String fileName = MimeUtility.encodeWord(project.getName() + format.getExtension(),
+                                                 "utf-8",
+                                                 "Q");
+
+        File folder = workspace.allocate();
+        File target = new File(folder,
+                               fileName);
+        if (cache.copyTo(key,
+                         format,
+                         target)) {
+            logger.info("Project {} served from cache as {} (key {})",
+                        project.getName(),
+                        format,
+                        key.getId());
+            metrics.record("lookup",
+                           tags,
+                           started);
+            metrics.record("total",
+                           tags,
+                           started);
+            return CompletableFuture.completedFuture(new GeneratedArchive(target,
+                                                                          fileName,
+                                                                          folder,
+                                                                          key,
+                                                                          tags,
+                                                                          format));
+        }
+
+        CompletableFuture<GeneratedArchive> generated;
+        try {
+            generated = generateAsync(project,
+                                      isWeb,
+                                      streaming,
+                                      true);
+        } catch (Exception e) {
+            workspace.release(folder);
+            throw e;
+        }
+        CompletableFuture<GeneratedArchive> converted = new CompletableFuture<>();
+        generated.whenComplete((archive, error) -> {
+            if (error != null || converted.isDone()) {
+                workspace.release(folder);
+                if (archive != null) {
+                    archive.discard();
+                }
+                converted.completeExceptionally(error != null ? failure(error) : new CancellationException());
+                return;
+            }
+            if (!archive.isBuilt()) {
+                // sources are archived in requested format while being sent
+                workspace.release(folder);
+                complete(converted,
+                         new GeneratedArchive(new File(archive.getFolder(),
+                                                       fileName),
+                                              fileName,
+                                              archive.getFolder(),
+                                              archive.getKey(),
+                                              archive.getTags(),
+                                              format));
+                return;
+            }
+            try {
+                complete(converted,
+                         convert(archive,
+                                 format,
+                                 target));
+            } catch (IOException | RuntimeException e) {
+                workspace.release(folder);
+                converted.completeExceptionally(e);
+            } finally {
+                archive.discard();
+            }
+        });
+        cancelWith(converted,
+                   generated);
+        return converted;
+    }
+
+    /**
+     * Writes content of given zip archive in given format to target file (in a folder of the workspace)
+     * and stores the converted archive in the cache.
+     */
+    protected GeneratedArchive convert(GeneratedArchive archive,
+                                       ArchiveFormat format,
+                                       File target) throws IOException {
+        long started = System.nanoTime();
+        try (ZipFile zip = new ZipFile(archive.getFile());
+             OutputStream output = new BufferedOutputStream(new FileOutputStream(target),
+                                                            BUFFER_SIZE)) {
+            long size = format.newWriter().write(ArchiveEntry.listZip(zip),
+                                                 output);
+            logger.debug("Archive {} converted to {} ({} bytes)",
+                         archive,
+                         format,
+                         size);
+        }
+        metrics.record("convert",
+                       archive.getTags(),
+                       started);
+        cache.put(archive.getKey(),
+                  format,
+                  target,
+                  false);
+        return new GeneratedArchive(target,
+                                    target.getName(),
+                                    target.getParentFile(),
+                                    archive.getKey(),
+                                    archive.getTags(),
+                                    format);
+    }
+
+    /**
+     * Builds response that sends given archive (built or not) to the client, archive is discarded
+     * once sent. Nothing is opened until the response is written so the archive can be just discarded
+     * when the response is not used after all.
+     */
+    public ResponseEntity<StreamingResponseBody> buildAppResponse(GeneratedArchive archive, boolean isWeb) throws IOException {
+        try {
+            // temp folder is removed once the archive is completely sent to the client
+            if (!archive.isBuilt()) {
+                return buildStreamingResponse(archive,
+                                              isWeb);
+            }
+            return buildResponse(archive,
+                                 isWeb,
+                                 true);
+        } catch (IOException | RuntimeException e) {
+            archive.discard();
+            throw e;
+        }
+    }
+
+    /**
+     * Generates project archive (or takes it from the cache) into its own temp folder.
+     * Caller is responsible for discarding the returned archive.
+     */
+    public GeneratedArchive generate(Project project, boolean isWeb) throws Exception {
+        return generate(project,
+                        isWeb,
+                        false);
+    }
+
+    /**
+     * Generates project as {@link #generate(Project, boolean)} does, but when <code>sourcesOnly</code> is set
+     * and the project is not cached only its sources are generated and the returned archive is not built yet
+     * (see {@link #buildStreamingResponse(GeneratedArchive, boolean)}).
+     */
+    protected GeneratedArchive generate(Project project, boolean isWeb, boolean sourcesOnly) throws Exception {
+        return generate(project,
+                        isWeb,
+                        sourcesOnly,
+                        false);
+    }
+
+    /**
+     * Generates project, joining the same generation if it's already in flight. Only the generation
+     * that actually runs the process takes a slot from the limiter (when <code>limited</code> is set),
+     * projects served from cache or skeletons and requests that joined it do not.
+     * <br/>
+     * Generations of project sources only are not coalesced as the sources are zipped (and cached)
+     * while being sent to the one client.
+     */
+    protected GeneratedArchive generate(Project project, boolean isWeb, boolean sourcesOnly, boolean limited) throws Exception {
+        return await(generateAsync(project,
+                                   isWeb,
+                                   sourcesOnly,
+                                   limited));
+    }
+
+    /**
+     * Same as {@link #generate(Project, boolean, boolean, boolean)} without waiting for the process, see
+     * {@link #generateAppAsync(Project, boolean, String, ArchiveFormat)}.
+     */
+    protected CompletableFuture<GeneratedArchive> generateAsync(Project project, boolean isWeb, boolean sourcesOnly, boolean limited) throws Exception {
+        Callable<CompletableFuture<GeneratedArchive>> generation = () -> generateAlone(project,
+                                                                                       isWeb,
+                                                                                       sourcesOnly,
+                                                                                       limited);
+        if (sourcesOnly || !flights.isEnabled()) {
+            return generation.call();
+        }
+
+        setDefaultsIfNotExist(project);
+        GenerationKey key = GenerationKey.of(project,
+                                             resolveApplicationType(project),
+                                             resolveSpringBootVersion(project),
+                                             KIE_VERSION);
+        return flights.join(key,
+                            MimeUtility.encodeWord(project.getName() + ".zip",
+                                                   "utf-8",
+                                                   "Q"),
+                            generation);
+    }
+
+    private CompletableFuture<GeneratedArchive> generateAlone(Project project, boolean isWeb, boolean sourcesOnly, boolean limited) throws Exception {
         logger.info("Received request for generating application for project {}",
                     project);
 
-        project = setDefaultsIfNotExist(project);
+        setDefaultsIfNotExist(project);
 
         String baseFileName = project.getName() + ".zip";
 
         String fileName = null;
-        FileInputStream input;
-        File generatedProject = null;
+        File tempFolder = null;
+        // set once the archive (or the process generating it) is handed over
+        boolean handedOver = false;
+        // set once the process might have been started in the temp folder
+        boolean launched = false;
+        long started = System.nanoTime();
+        Tags tags = GenerationMetrics.unknown();
+        metrics.generationStarted();
         try {
-            File tempFolder = new File(parent,
-                                       UUID.randomUUID().toString());
-            project.setLocation(tempFolder.getAbsolutePath());
-            logger.info("Location for the generated project is {}, final file name of the generated project is {}",
-                        project.getLocation(),
-                        fileName);
             fileName = MimeUtility.encodeWord(baseFileName,
                                               "utf-8",
                                               "Q");
 
-            long timestamp = System.currentTimeMillis();
-            logger.info("About to start new process with container {} and process id {}",
-                        CONTAINER_ID,
-                        PROCESS_ID);
+            String projectSetup = resolveApplicationType(project);
+            String springbootVersion = resolveSpringBootVersion(project);
+            GenerationKey key = GenerationKey.of(project,
+                                                 projectSetup,
+                                                 springbootVersion,
+                                                 KIE_VERSION);
+            tags = GenerationMetrics.tags(isWeb ? "web" : "rest",
+                                          project.getVersion(),
+                                          projectSetup);
 
-            String kjarSettings = "";
-            if (project.getOptions().contains("kjar")) {
-                kjarSettings = "-DkjarGroupId=" + project.getPackageName() + " -DkjarArtifactId=" + project.getName() + "-kjar -DkjarVersion=1.0-SNAPSHOT";
+            tempFolder = workspace.allocate();
+            File generatedProject = new File(tempFolder,
+                                             fileName);
+
+            if (cache.copyTo(key,
+                             generatedProject)) {
+                logger.info("Project {} served from cache (key {})",
+                            project.getName(),
+                            key.getId());
+                handedOver = true;
+                metrics.generationEnded();
+                metrics.record("lookup",
+                               tags,
+                               started);
+                metrics.record("total",
+                               tags,
+                               started);
+                return CompletableFuture.completedFuture(new GeneratedArchive(generatedProject,
+                                                                              fileName,
+                                                                              tempFolder,
+                                                                              key,
+                                                                              tags));
             }
-            if (project.getOptions().contains("dkjar")) {
-                kjarSettings = "-DkjarGroupId=" + project.getPackageName() + " -DkjarArtifactId=" + project.getName() + "-kjar -DkjarVersion=1.0-SNAPSHOT -DruntimeStrategy=PER_CASE";
+
+            if (skeletons.generate(key,
+                                   project,
+                                   generatedProject)) {
+                logger.info("Project {} generated from skeleton {}",
+                            project.getName(),
+                            key.getSkeletonId());
+                handedOver = true;
+                metrics.generationEnded();
+                metrics.record("lookup",
+                               tags,
+                               started);
+                metrics.record("total",
+                               tags,
+                               started);
+                return CompletableFuture.completedFuture(new GeneratedArchive(generatedProject,
+                                                                              fileName,
+                                                                              tempFolder,
+                                                                              key,
+                                                                              tags));
             }
 
-            String mavenSettings = "";
-            if (MVN_SETTINGS != null) {
-                mavenSettings = "-s " + MVN_SETTINGS;
+            metrics.record("lookup",
+                           tags,
+                           started);
+
+            // latency of offline and online runs differs a lot, each has its own baseline
+            String setup = projectSetup + (mavenRepository.isOffline(project.getVersion()) ? "-offline" : "-online");
+            GenerationLimiter.Permit permit = limited ? limiter.acquire(isWeb,
+                                                                        setup) : null;
+            CompletableFuture<Void> run;
+            launched = true;
+            try {
+                run = runGenerationProcessAsync(project,
+                                                projectSetup,
+                                                springbootVersion,
+                                                isWeb ? "web" : "rest",
+                                                tempFolder,
+                                                sourcesOnly);
+            } catch (Exception | Error e) {
+                if (permit != null) {
+                    permit.close();
+                }
+                throw e;
             }
+            handedOver = true;
+            return finishGeneration(run,
+                                    permit,
+                                    project,
+                                    key,
+                                    new GeneratedArchive(generatedProject,
+                                                         fileName,
+                                                         tempFolder,
+                                                         key,
+                                                         tags),
+                                    sourcesOnly,
+                                    started);
+        } catch (Exception e) {
+            throw generationFailed(e,
+                                   tags);
+        } finally {
+            if (!handedOver) {
+                metrics.generationEnded();
+                if (tempFolder != null && launched) {
+                    workspace.abandon(tempFolder);
+                    logger.info("Temp files in {} abandoned",
+                                tempFolder);
+                } else if (tempFolder != null) {
+                    workspace.release(tempFolder);
+                    logger.info("Temp files in {} released",
+                                tempFolder);
+                }
+            }
+        }
+    }
 
-            Map<String, Object> params = new HashMap<>();
-            params.put("project",
-                       project);
-            params.put("projectSetup",
-                       resolveApplicationType(project));
-            params.put("kjarSettings",
-                       kjarSettings);
-            params.put("kieVersion",
-                       KIE_VERSION);
-            params.put("projectVersion",
-                       project.getVersion());
-            params.put("projectOptions",
-                       project.getOptions().stream().collect(Collectors.joining(",")));
-            params.put("mavenSettings",
-                       mavenSettings);
-            params.put("generationType", isWeb ? "web" : "rest");
+    /*
+     * once the process is done releases the permit, caches the archive and hands it over
+     */
+    private CompletableFuture<GeneratedArchive> finishGeneration(CompletableFuture<Void> run,
+                                                                 GenerationLimiter.Permit permit,
+                                                                 Project project,
+                                                                 GenerationKey key,
+                                                                 GeneratedArchive archive,
+                                                                 boolean sourcesOnly,
+                                                                 long started) {
+        CompletableFuture<GeneratedArchive> generation = new CompletableFuture<>();
+        run.whenComplete((result, error) -> {
+            if (permit != null) {
+                permit.close();
+            }
+            metrics.generationEnded();
+            if (error != null) {
+                // process of a cancelled or timed out run might still be writing there
+                workspace.abandon(archive.getFolder());
+                logger.info("Temp files in {} abandoned",
+                            archive.getFolder());
+                generation.completeExceptionally(generationFailed(failure(error),
+                                                                  archive.getTags()));
+                return;
+            }
+            if (!sourcesOnly) {
+                // streamed archives are cached once sent
+                cache.put(key,
+                          archive.getFile());
+            }
+            skeletons.learn(key,
+                            project,
+                            this::generateSources);
 
-            String[] versionItems = project.getVersion().split("\\.");
-            Integer minorVersion = Integer.parseInt(versionItems[1]);
-            // in 7.18 spring boot was upgraded to 2.1.x and thus needs to change version based on selected version
-            params.put("springbootVersion", minorVersion >= 18 ? DEFAULT_SPRING_BOOT_VERSION : OLD_SPRING_BOOT_VERSION);
+            metrics.record("total",
+                           archive.getTags(),
+                           started);
+            complete(generation,
+                     archive);
+        });
+        cancelWith(generation,
+                   run);
+        return generation;
+    }
+
+    private Exception generationFailed(Exception e,
+                                       Tags tags) {
+        if (e instanceof GenerationRejectedException || e instanceof CancellationException) {
+            return e;
+        }
+        metrics.error("generate",
+                      tags);
+        logger.error("Error when generating project",
+                     e);
+        return new Exception(e.getMessage());
+    }
 
-            long processInstanceId = processService.startProcess(CONTAINER_ID,
-                                                                 PROCESS_ID,
-                                                                 params);
+    /**
+     * Warms up maven repository in the background once the application (including kie server
+     * container with the process) is ready, requests are served in online mode meanwhile.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpMavenRepository() {
+        Thread warmUp = new Thread(() -> mavenRepository.warmUp(DEFAULT_VERSION,
+                                                                this::generateSources),
+                                   "maven-warm-up");
+        warmUp.setDaemon(true);
+        warmUp.start();
+    }
 
-            generatedProject = new File(tempFolder,
-                                        fileName);
-            waitForGeneratedProject(new File(tempFolder,
-                                             project.getName() + ".marker"),
-                                    processInstanceId);
+    /**
+     * Generates sources only of given project into given folder via the process, for the service itself
+     * (maven warm up, skeleton learning) - such runs are not counted in reports and metrics.
+     */
+    protected void generateSources(Project project,
+                                   File folder) throws Exception {
+        setDefaultsIfNotExist(project);
+        runGenerationProcess(project,
+                             resolveApplicationType(project),
+                             resolveSpringBootVersion(project),
+                             GenerationMetrics.INTERNAL,
+                             folder,
+                             true);
+    }
 
-            logger.info("Project generation via process with instance id {} done in {} ms",
-                        processInstanceId,
-                        (System.currentTimeMillis() - timestamp));
-            input = new FileInputStream(generatedProject);
+    /**
+     * Runs <code>GenerateProject</code> process for given project in given folder and waits for it to finish.
+     * When <code>sourcesOnly</code> is set only project sources are generated, without the archive.
+     */
+    protected void runGenerationProcess(Project project,
+                                        String projectSetup,
+                                        String springbootVersion,
+                                        boolean isWeb,
+                                        File tempFolder,
+                                        boolean sourcesOnly) throws Exception {
+        runGenerationProcess(project,
+                             projectSetup,
+                             springbootVersion,
+                             isWeb ? "web" : "rest",
+                             tempFolder,
+                             sourcesOnly);
+    }
 
-            HttpHeaders headers = new HttpHeaders();
+    /**
+     * Same as {@link #runGenerationProcess(Project, String, String, boolean, File, boolean)} with given
+     * generation type (web, rest or internal).
+     */
+    protected void runGenerationProcess(Project project,
+                                        String projectSetup,
+                                        String springbootVersion,
+                                        String generationType,
+                                        File tempFolder,
+                                        boolean sourcesOnly) throws Exception {
+        await(runGenerationProcessAsync(project,
+                                        projectSetup,
+                                        springbootVersion,
+                                        generationType,
+                                        tempFolder,
+                                        sourcesOnly));
+    }
 
-            if(isWeb) {
-                headers.add("Content-Disposition",
-                            "attachment; filename=\"" + fileName + "\"");
+    /**
+     * Starts <code>GenerateProject</code> process for given project in given folder, the returned future
+     * completes once the project is generated. Offline runs that fail to resolve dependencies are run
+     * again in online mode.
+     */
+    protected CompletableFuture<Void> runGenerationProcessAsync(Project project,
+                                                                String projectSetup,
+                                                                String springbootVersion,
+                                                                String generationType,
+                                                                File tempFolder,
+                                                                boolean sourcesOnly) throws Exception {
+        boolean offline = mavenRepository.isOffline(project.getVersion());
+        CompletableFuture<Void> offlineRun = runGenerationProcessAsync(project,
+                                                                       projectSetup,
+                                                                       springbootVersion,
+                                                                       generationType,
+                                                                       tempFolder,
+                                                                       sourcesOnly,
+                                                                       offline);
+        if (!offline) {
+            return offlineRun;
+        }
+        CompletableFuture<Void> run = new CompletableFuture<>();
+        offlineRun.whenCompleteAsync((result, error) -> {
+            if (error == null) {
+                run.complete(null);
+                return;
+            }
+            Exception failure = failure(error);
+            if (run.isDone() || !isResolutionFailure(failure)) {
+                // including cancellation and timeout - nobody waits for another run
+                run.completeExceptionally(failure);
+                return;
+            }
+            // something is missing in the repository, resolve it online
+            logger.warn("Offline generation failed due to {}, trying again in online mode",
+                        failure.getMessage());
+            mavenRepository.markCold(project.getVersion());
+            workspace.empty(tempFolder);
+            try {
+                CompletableFuture<Void> onlineRun = runGenerationProcessAsync(project,
+                                                                              projectSetup,
+                                                                              springbootVersion,
+                                                                              generationType,
+                                                                              tempFolder,
+                                                                              sourcesOnly,
+                                                                              false);
+                onlineRun.whenComplete((onlineResult, onlineError) -> completeWith(run,
+                                                                                 onlineResult,
+                                                                                 onlineError));
+                cancelWith(run,
+                           onlineRun);
+            } catch (Exception e) {
+                run.completeExceptionally(e);
             }
+        }, waits);
+        cancelWith(run,
+                   offlineRun);
+        return run;
+    }
 
-            ResponseEntity<byte[]> response =  new ResponseEntity<byte[]>(
-                    IOUtils.toByteArray(input),
-                    headers,
-                    org.springframework.http.HttpStatus.OK);
+    /*
+     * whether given failure of a run (or any of its causes) comes from dependencies maven could not resolve
+     */
+    private static boolean isResolutionFailure(Throwable failure) {
+        if (failure instanceof InterruptedException || failure instanceof CancellationException || Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && RESOLUTION_FAILURE.matcher(cause.getMessage()).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-            return response;
+    private CompletableFuture<Void> runGenerationProcessAsync(Project project,
+                                                              String projectSetup,
+                                                              String springbootVersion,
+                                                              String generationType,
+                                                              File tempFolder,
+                                                              boolean sourcesOnly,
+                                                              boolean offline) throws Exception {
+        project.setLocation(tempFolder.getAbsolutePath());
+        logger.info("Location for the generated project is {}, project name is {}",
+                    project.getLocation(),
+                    project.getName());
 
-        } catch (Exception e) {
-            logger.error("Error when generating project",
-                         e);
-            throw new Exception(e.getMessage());
-        } finally {
+        long timestamp = System.currentTimeMillis();
+
+        String mavenSettings = "";
+        if (MVN_SETTINGS != null) {
+            mavenSettings = "-s " + MVN_SETTINGS;
+        }
+        mavenSettings = (mavenSettings + " " + mavenRepository.getArguments(offline)).trim();
+
+        Map<String, Object> params = buildProcessParameters(project,
+                                                            projectSetup,
+                                                            springbootVersion,
+                                                            generationType,
+                                                            mavenSettings);
+        boolean internal = GenerationMetrics.INTERNAL.equals(generationType);
 
-            if (generatedProject != null) {
-                boolean deleted = FileSystemUtils.deleteRecursively(generatedProject.getParentFile());
-                logger.info("Project archive {} and temp files deleted ({})",
-                            generatedProject,
-                            deleted);
+        if (sourcesOnly) {
+            completionRegistry.requestSourceTree(tempFolder);
+        }
+        File marker = new File(tempFolder,
+                               project.getName() + ".marker");
+        Tags tags = GenerationMetrics.tags(params.get("generationType"),
+                                           project.getVersion(),
+                                           projectSetup);
+        CompletableFuture<Void> generated;
+        long processInstanceId;
+        long started = System.nanoTime();
+        try {
+            processInstanceId = launcher.start(params);
+            if (!internal) {
+                metrics.record("start",
+                               tags,
+                               started);
             }
+            started = System.nanoTime();
+            generated = awaitGeneratedProject(marker,
+                                              processInstanceId);
+        } catch (Exception | Error e) {
+            completionRegistry.releaseSourceTree(tempFolder);
+            throw e;
+        }
+
+        long processStarted = started;
+        CompletableFuture<Void> run = new CompletableFuture<>();
+        // done before the run completes so whoever waits for it sees the project as it's going to stay
+        generated.whenComplete((result, error) -> {
+            completionRegistry.releaseSourceTree(tempFolder);
+            if (error == null) {
+                long duration = System.currentTimeMillis() - timestamp;
+                if (!internal) {
+                    metrics.record("process",
+                                   tags,
+                                   processStarted);
+                    mavenRepository.recordRun(offline,
+                                              duration);
+                }
+                logger.info("Project generation via process with instance id {} done in {} ms ({} mode)",
+                            processInstanceId,
+                            duration,
+                            offline ? "offline" : "online");
+                if (sourcesOnly) {
+                    // marker is not part of the project
+                    marker.delete();
+                }
+            }
+            completeWith(run,
+                         result,
+                         error);
+        });
+        cancelWith(run,
+                   generated);
+        return run;
+    }
+
+    /**
+     * Parameters of <code>GenerateProject</code> process instance for given project.
+     */
+    protected Map<String, Object> buildProcessParameters(Project project,
+                                                         String projectSetup,
+                                                         String springbootVersion,
+                                                         boolean isWeb,
+                                                         String mavenSettings) {
+        return buildProcessParameters(project,
+                                      projectSetup,
+                                      springbootVersion,
+                                      isWeb ? "web" : "rest",
+                                      mavenSettings);
+    }
+
+    /**
+     * Parameters of <code>GenerateProject</code> process instance for given project and generation type.
+     */
+    protected Map<String, Object> buildProcessParameters(Project project,
+                                                         String projectSetup,
+                                                         String springbootVersion,
+                                                         String generationType,
+                                                         String mavenSettings) {
+        String kjarSettings = "";
+        if (project.getOptions().contains("kjar")) {
+            kjarSettings = "-DkjarGroupId=" + project.getPackageName() + " -DkjarArtifactId=" + project.getName() + "-kjar -DkjarVersion=1.0-SNAPSHOT";
+        }
+        if (project.getOptions().contains("dkjar")) {
+            kjarSettings = "-DkjarGroupId=" + project.getPackageName() + " -DkjarArtifactId=" + project.getName() + "-kjar -DkjarVersion=1.0-SNAPSHOT -DruntimeStrategy=PER_CASE";
+        }
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("project",
+                   project);
+        params.put("projectSetup",
+                   projectSetup);
+        params.put("kjarSettings",
+                   kjarSettings);
+        params.put("kieVersion",
+                   KIE_VERSION);
+        params.put("projectVersion",
+                   project.getVersion());
+        // stored without white spaces so reports can group by it as it is
+        params.put("projectOptions",
+                   project.getOptions().stream().collect(Collectors.joining(",")).replace(" ", ""));
+        params.put("mavenSettings",
+                   mavenSettings);
+        params.put("generationType", generationType);
+        params.put("springbootVersion", springbootVersion);
+        return params;
+    }
+
+    /**
+     * Builds response that streams given archive to the client.
+     *
+     * @param attachment whether the archive should be marked as attachment for browsers
+     * @param discardWhenSent whether the archive should be discarded once it has been sent
+     */
+    public ResponseEntity<StreamingResponseBody> buildResponse(GeneratedArchive archive,
+                                                               boolean attachment,
+                                                               boolean discardWhenSent) throws IOException {
+        if (!archive.getFile().isFile()) {
+            throw new FileNotFoundException("Archive " + archive + " does not exist");
+        }
+        // opened once the response is written
+        long length = archive.length();
+
+        HttpHeaders headers = new HttpHeaders();
+
+        if(attachment) {
+            headers.add("Content-Disposition",
+                        "attachment; filename=\"" + archive.getFileName() + "\"");
+        }
+        headers.setContentType(MediaType.parseMediaType(archive.getFormat().getMediaType()));
+        headers.set(HttpHeaders.VARY,
+                    HttpHeaders.ACCEPT);
+        headers.setContentLength(length);
+        // same archive can be downloaded (or resumed) from the store without another generation, without
+        // the store there is nothing the hash could be used for so the archive is not read up front at all
+        if (archives.isEnabled()) {
+            String hash = archives.retain(archive.getFile(),
+                                          archive.getFormat());
+            headers.setETag("\"" + hash + "\"");
+            headers.set(HttpHeaders.CONTENT_LOCATION,
+                        "/gen/archives/" + hash);
+        }
+
+        StreamingResponseBody body = output -> {
+            long started = System.nanoTime();
+            try (FileChannel source = FileChannel.open(archive.getFile().toPath(),
+                                                       StandardOpenOption.READ)) {
+                WritableByteChannel target = Channels.newChannel(output);
+                long position = 0;
+                while (position < length) {
+                    position += source.transferTo(position,
+                                                  length - position,
+                                                  target);
+                }
+                metrics.record("response",
+                               archive.getTags(),
+                               started);
+            } catch (IOException | RuntimeException e) {
+                metrics.error("response",
+                              archive.getTags());
+                throw e;
+            } finally {
+                if (discardWhenSent) {
+                    archive.discard();
+                }
+            }
+        };
+
+        return new ResponseEntity<StreamingResponseBody>(body,
+                                                         headers,
+                                                         org.springframework.http.HttpStatus.OK);
+    }
+
+    /**
+     * Builds response that sends given archive file as a resource, for archives that are not discarded
+     * once sent (retained ones or archives of jobs). Spring serves <code>Range</code> and <code>If-None-Match</code>
+     * headers of GET requests for such responses - with requested ranges only (206) or with no content
+     * when the client has the archive already (304), the hash is used as <code>ETag</code>.
+     *
+     * @param fileName name of the archive for browsers, when set the archive is marked as attachment
+     */
+    public ResponseEntity<Resource> buildResourceResponse(File file,
+                                                          ArchiveFormat format,
+                                                          String hash,
+                                                          String fileName) throws IOException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException("Archive " + file + " does not exist");
+        }
+        HttpHeaders headers = new HttpHeaders();
+
+        if (fileName != null) {
+            headers.add("Content-Disposition",
+                        "attachment; filename=\"" + fileName + "\"");
         }
+        headers.setContentType(MediaType.parseMediaType(format.getMediaType()));
+        headers.setETag("\"" + hash + "\"");
+        headers.setLastModified(file.lastModified());
+
+        return new ResponseEntity<Resource>(new FileSystemResource(file),
+                                            headers,
+                                            org.springframework.http.HttpStatus.OK);
+    }
+
+    /**
+     * Builds response that zips project sources of given (not yet built) archive on the fly while
+     * sending them to the client, chunked as the size is not known up front. When the cache is enabled
+     * a copy of the archive is written along the way and moved to the cache once completely sent.
+     * Archive is always discarded once sent.
+     */
+    public ResponseEntity<StreamingResponseBody> buildStreamingResponse(GeneratedArchive archive,
+                                                                        boolean attachment) throws IOException {
+        // listed before the archive copy is created in the same folder
+        List<ArchiveEntry> entries = ArchiveEntry.listFiles(archive.getFolder().toPath());
+
+        HttpHeaders headers = new HttpHeaders();
+
+        if (attachment) {
+            headers.add("Content-Disposition",
+                        "attachment; filename=\"" + archive.getFileName() + "\"");
+        }
+        headers.setContentType(MediaType.parseMediaType(archive.getFormat().getMediaType()));
+        headers.set(HttpHeaders.VARY,
+                    HttpHeaders.ACCEPT);
+
+        StreamingResponseBody body = output -> {
+            long started = System.nanoTime();
+            try {
+                try (OutputStream copy = cache.isEnabled() ? new FileOutputStream(archive.getFile()) : null) {
+                    OutputStream target = new BufferedOutputStream(copy == null ? output : new TeeOutputStream(output,
+                                                                                                                copy),
+                                                                   BUFFER_SIZE);
+                    long size = archive.getFormat().newWriter().write(entries,
+                                                                      target);
+                    target.flush();
+                    logger.debug("Archive {} with {} entries ({} bytes) streamed to the client",
+                                 archive,
+                                 entries.size(),
+                                 size);
+                }
+                // only completely sent archives get here
+                metrics.record("response",
+                               archive.getTags(),
+                               started);
+                if (cache.isEnabled()) {
+                    cache.put(archive.getKey(),
+                              archive.getFormat(),
+                              archive.getFile(),
+                              true);
+                }
+            } catch (IOException | RuntimeException e) {
+                metrics.error("response",
+                              archive.getTags());
+                throw e;
+            } finally {
+                archive.discard();
+            }
+        };
+
+        return new ResponseEntity<StreamingResponseBody>(body,
+                                                         headers,
+                                                         org.springframework.http.HttpStatus.OK);
     }
 
     public String getDefaultVersion() {
@@ -193,37 +1067,185 @@ public class BuildComponent {
         }
     }
 
+    protected String resolveSpringBootVersion(Project project) {
+        String[] versionItems = project.getVersion().split("\\.");
+        Integer minorVersion = Integer.parseInt(versionItems[1]);
+        // in 7.18 spring boot was upgraded to 2.1.x and thus needs to change version based on selected version
+        return minorVersion >= 18 ? DEFAULT_SPRING_BOOT_VERSION : OLD_SPRING_BOOT_VERSION;
+    }
+
+    /**
+     * Waits for the archive of given process instance to be signalled by zip work item handler
+     * (or failure by process event listener). Marker file and execution errors are checked from time
+     * to time as a fallback for cases that are not signalled, errors with increasing interval
+     * to not overload data base.
+     */
     protected void waitForGeneratedProject(File generatedProject,
                                            long processInstanceId) throws Exception {
-        // check errors before we begin
-        checkProcessInstanceErrors(processInstanceId);
-
-        long totalWaitTime = 0;
-        int i = 0;
-        while (true) {
+        await(awaitGeneratedProject(generatedProject,
+                                    processInstanceId));
+    }
 
-            if (!generatedProject.exists()) {
-                Thread.sleep(200);
-                totalWaitTime += 200;
+    /**
+     * Same as {@link #waitForGeneratedProject(File, long)} without blocking - the fallback checks run on
+     * the wait scheduler and the returned future completes there once the project is generated.
+     * Cancelling the future cancels the generation.
+     */
+    protected CompletableFuture<Void> awaitGeneratedProject(File generatedProject,
+                                                            long processInstanceId) {
+        CompletableFuture<File> completion = completionRegistry.register(processInstanceId);
+        CompletableFuture<Void> generated = new CompletableFuture<>();
+        long start = System.currentTimeMillis();
+        // check errors before we begin, then with increasing interval
+        long[] errorCheck = {start, MIN_ERROR_CHECK_INTERVAL};
+        ScheduledFuture<?> checks = waits.scheduleWithFixedDelay(() -> {
+            try {
+                if (generatedProject.exists()) {
+                    generated.complete(null);
+                    return;
+                }
 
-                i++;
-                // every 4 seconds check errors again
-                if (i > 0 && (i % 20 == 0)) {
+                long now = System.currentTimeMillis();
+                if (now >= errorCheck[0]) {
                     checkProcessInstanceErrors(processInstanceId);
+                    errorCheck[0] = now + errorCheck[1];
+                    errorCheck[1] = Math.min(errorCheck[1] * 2,
+                                             MAX_ERROR_CHECK_INTERVAL);
                 }
 
-                if (totalWaitTime > 60000) {
-                    throw new RuntimeException("Timeout while waiting for generated project");
+                if (now - start > GENERATION_TIMEOUT && !generated.isDone()) {
+                    metrics.timeout(metrics.getTags(processInstanceId));
+                    cancel(processInstanceId,
+                           "timeout");
+                    generated.completeExceptionally(new RuntimeException("Timeout while waiting for generated project"));
                 }
+            } catch (Exception e) {
+                generated.completeExceptionally(e);
+            }
+        }, 0, FALLBACK_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+        // signalled on threads of the engine, the generation is finished on the scheduler
+        completion.whenCompleteAsync((archive, error) -> completeWith(generated,
+                                                                      null,
+                                                                      error),
+                                     waits);
+        generated.whenComplete((result, error) -> {
+            checks.cancel(false);
+            completionRegistry.release(processInstanceId);
+            if (generated.isCancelled()) {
+                // requester gave up (e.g. job cancelled), stop the generation as well
+                cancel(processInstanceId,
+                       "interrupted");
+            }
+        });
+        return generated;
+    }
 
-                continue;
+    /**
+     * Cancels generation of given process instance nobody waits for anymore - running work item handlers
+     * are asked to stop and the process instance is aborted in the background, as aborting waits for
+     * the process instance to be free.
+     */
+    protected void cancel(long processInstanceId,
+                          String reason) {
+        logger.info("Cancelling generation of process instance {} ({})",
+                    processInstanceId,
+                    reason);
+        metrics.cancelled(reason,
+                          metrics.getTags(processInstanceId));
+        completionRegistry.cancel(processInstanceId);
+        try {
+            aborts.execute(() -> {
+                try {
+                    launcher.abort(processInstanceId);
+                } catch (Exception e) {
+                    logger.warn("Unable to abort process instance {} due to {}",
+                                processInstanceId,
+                                e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("Process instance {} not aborted, shutting down",
+                         processInstanceId);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        aborts.shutdownNow();
+        if (waits != null) {
+            waits.shutdownNow();
+        }
+    }
+
+    /*
+     * waits for given future on the calling thread, interruption cancels it (and the archive it brings
+     * after all is discarded)
+     */
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            if (!future.cancel(true)) {
+                future.thenAccept(result -> {
+                    if (result instanceof GeneratedArchive) {
+                        ((GeneratedArchive) result).discard();
+                    }
+                });
             }
+            throw e;
+        } catch (ExecutionException e) {
+            throw failure(e);
+        }
+    }
 
-            return;
+    /*
+     * failure of a generation as it was thrown, without wrappers added by futures
+     */
+    static Exception failure(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
         }
+        return cause instanceof Exception ? (Exception) cause : new ExecutionException(cause);
+    }
+
+    /*
+     * hands the archive over, or discards it when nobody takes it anymore (the future was cancelled)
+     */
+    static void complete(CompletableFuture<GeneratedArchive> future,
+                         GeneratedArchive archive) {
+        if (!future.complete(archive)) {
+            archive.discard();
+        }
+    }
+
+    private static <T> void completeWith(CompletableFuture<T> future,
+                                         T result,
+                                         Throwable error) {
+        if (error != null) {
+            future.completeExceptionally(failure(error));
+        } else {
+            future.complete(result);
+        }
+    }
+
+    /*
+     * cancelling the future cancels the one it depends on
+     */
+    static void cancelWith(CompletableFuture<?> future,
+                           CompletableFuture<?> dependency) {
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                dependency.cancel(true);
+            }
+        });
     }
 
     protected void checkProcessInstanceErrors(long processInstanceId) throws Exception {
+        if (!launcher.isPersistent()) {
+            // errors of in memory instances are not stored, the id might be one of an old persisted instance
+            return;
+        }
         List<ExecutionError> executionErrors = processInstanceAdminService.getErrorsByProcessInstanceId(processInstanceId,
                                                                                                         true,
                                                                                                         new QueryContext());
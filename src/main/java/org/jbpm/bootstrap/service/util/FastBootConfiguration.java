@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.core.type.MethodMetadata;
+
+/**
+ * Fast boot profile (<code>fastboot</code>) - beans are created lazily (see <code>application-fastboot.properties</code>)
+ * except of those of the process engine and of the service itself. Kie server must deploy the container
+ * with the process before the first request, and service components run scheduled tasks and
+ * prepare caches, skeletons and maven repository in the background. What remains lazy is web, template,
+ * serialization and actuator infrastructure, created on first use.
+ * <br/>
+ * Kie server containers are deployed in the background as well, the node reports itself ready only once the
+ * container is deployed (see {@link GenerationProcessHealthIndicator}).
+ */
+@Configuration
+@Profile("fastboot")
+public class FastBootConfiguration {
+
+    private static final Logger logger = LoggerFactory.getLogger(FastBootConfiguration.class);
+
+    // whether kie server deploys containers of its state file while holding the startup
+    private static final String SYNC_DEPLOYMENT = "org.kie.server.sync.deploy";
+
+    @Bean
+    public static BeanFactoryPostProcessor eagerBeansPostProcessor() {
+        return new EagerBeansPostProcessor();
+    }
+
+    /**
+     * Turns lazy initialization off for beans declared in configured packages, runs after
+     * Spring Boot marked all beans as lazy.
+     */
+    static class EagerBeansPostProcessor implements BeanFactoryPostProcessor,
+                                                    EnvironmentAware,
+                                                    Ordered {
+
+        private String[] eagerPackages;
+        private boolean asyncDeployment;
+
+        @Override
+        public void setEnvironment(Environment environment) {
+            eagerPackages = environment.getProperty("bootstrap.fastboot.eager-packages",
+                                                    String[].class,
+                                                    new String[]{"org.jbpm", "org.kie"});
+            asyncDeployment = environment.getProperty("bootstrap.fastboot.async-deployment",
+                                                      Boolean.class,
+                                                      true);
+        }
+
+        @Override
+        public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+            // explicit system property wins
+            if (System.getProperty(SYNC_DEPLOYMENT) == null) {
+                System.setProperty(SYNC_DEPLOYMENT,
+                                   String.valueOf(!asyncDeployment));
+            }
+            int eager = 0;
+            String[] names = beanFactory.getBeanDefinitionNames();
+            for (String name : names) {
+                BeanDefinition definition = beanFactory.getBeanDefinition(name);
+                String declaringClass = declaringClass(definition);
+                if (declaringClass != null && isEager(declaringClass)) {
+                    definition.setLazyInit(false);
+                    eager++;
+                }
+            }
+            logger.info("Fast boot - {} of {} beans created eagerly, container deployed {}",
+                        eager,
+                        names.length,
+                        asyncDeployment ? "in the background" : "during startup");
+        }
+
+        @Override
+        public int getOrder() {
+            return Ordered.LOWEST_PRECEDENCE;
+        }
+
+        private boolean isEager(String className) {
+            for (String eagerPackage : eagerPackages) {
+                if (className.startsWith(eagerPackage + ".")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /*
+         * class of the bean or of the configuration declaring it via bean method
+         */
+        private static String declaringClass(BeanDefinition definition) {
+            if (definition instanceof AnnotatedBeanDefinition) {
+                MethodMetadata factoryMethod = ((AnnotatedBeanDefinition) definition).getFactoryMethodMetadata();
+                if (factoryMethod != null) {
+                    return factoryMethod.getDeclaringClassName();
+                }
+            }
+            return definition.getBeanClassName();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Tags;
+import org.jbpm.bootstrap.service.archive.ArchiveFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Archive of a generated project stored in its own temp folder (of {@link GenerationWorkspace}). Whoever holds the archive
+ * is responsible for discarding it (together with the folder) once it's no longer needed.
+ * <br/>
+ * When generated in streaming mode the archive file does not exist yet, the folder holds
+ * project sources the archive is built from while being sent to the client.
+ * <br/>
+ * Archive generated once for several requests is shared by them (see {@link #retain(int)} and
+ * {@link #shareAs(String)}), the folder is deleted once all holders discarded it.
+ * <br/>
+ * Archives are zips ({@link ArchiveFormat#DEFAULT}) unless requested in another format.
+ */
+public class GeneratedArchive {
+
+    private static final Logger logger = LoggerFactory.getLogger(GeneratedArchive.class);
+
+    private final File file;
+    private final String fileName;
+    private final File folder;
+    private final GenerationKey key;
+    private final Tags tags;
+    private final ArchiveFormat format;
+    private final AtomicInteger holders;
+
+    public GeneratedArchive(File file,
+                            String fileName,
+                            File folder,
+                            GenerationKey key) {
+        this(file,
+             fileName,
+             folder,
+             key,
+             GenerationMetrics.unknown());
+    }
+
+    public GeneratedArchive(File file,
+                            String fileName,
+                            File folder,
+                            GenerationKey key,
+                            Tags tags) {
+        this(file,
+             fileName,
+             folder,
+             key,
+             tags,
+             ArchiveFormat.DEFAULT);
+    }
+
+    public GeneratedArchive(File file,
+                            String fileName,
+                            File folder,
+                            GenerationKey key,
+                            Tags tags,
+                            ArchiveFormat format) {
+        this(file,
+             fileName,
+             folder,
+             key,
+             tags,
+             format,
+             new AtomicInteger(1));
+    }
+
+    private GeneratedArchive(File file,
+                             String fileName,
+                             File folder,
+                             GenerationKey key,
+                             Tags tags,
+                             ArchiveFormat format,
+                             AtomicInteger holders) {
+        this.file = file;
+        this.fileName = fileName;
+        this.folder = folder;
+        this.key = key;
+        this.tags = tags;
+        this.format = format;
+        this.holders = holders;
+    }
+
+    /**
+     * Reserves the archive for given number of additional holders, each of them gets it via
+     * {@link #shareAs(String)} and must discard it.
+     */
+    public void retain(int additionalHolders) {
+        holders.addAndGet(additionalHolders);
+    }
+
+    /**
+     * Same archive presented to the client under given name, for a holder reserved by {@link #retain(int)}.
+     */
+    public GeneratedArchive shareAs(String fileName) {
+        return new GeneratedArchive(file,
+                                    fileName,
+                                    folder,
+                                    key,
+                                    tags,
+                                    format,
+                                    holders);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Name of the archive as presented to the client (encoded for use in headers).
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    public File getFolder() {
+        return folder;
+    }
+
+    public GenerationKey getKey() {
+        return key;
+    }
+
+    /**
+     * Metric tags of the generation that produced the archive.
+     */
+    public Tags getTags() {
+        return tags;
+    }
+
+    public ArchiveFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Whether the archive file is already built, false for project sources generated in streaming mode.
+     */
+    public boolean isBuilt() {
+        return file.exists();
+    }
+
+    public long length() {
+        return file.length();
+    }
+
+    public void discard() {
+        if (holders.decrementAndGet() > 0) {
+            // still being sent to other clients
+            return;
+        }
+        GenerationWorkspace workspace = GenerationWorkspace.get();
+        if (workspace != null) {
+            workspace.release(folder);
+            logger.info("Project archive and temp files in {} released",
+                        folder);
+            return;
+        }
+        boolean deleted = FileSystemUtils.deleteRecursively(folder);
+        logger.info("Project archive and temp files in {} deleted ({})",
+                    folder,
+                    deleted);
+    }
+
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+
+import org.jbpm.bootstrap.service.archive.ArchiveFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps archives of already generated projects on disk so repeated requests for the same
+ * configuration can be served without running <code>GenerateProject</code> process again.
+ * Entries are kept in least recently used order and evicted when either the number of entries
+ * or the total size of the archives goes over configured limits.
+ * <br/>
+ * Besides the zip the process produces, archives of the same project in other formats (see {@link ArchiveFormat})
+ * are kept as separate entries so they are not compressed again for every request.
+ */
+@Component
+public class GeneratedProjectCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(GeneratedProjectCache.class);
+
+    // key id, optionally followed by archive format id, with archive extension or of a temp file
+    private static final Pattern ENTRY = Pattern.compile("[0-9a-f]{64}(-[a-z.]+(-[0-9])?)?\\.(zip|tar\\.gz|[0-9]+\\.tmp)");
+
+    @Value("${bootstrap.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${bootstrap.cache.max-entries:100}")
+    private int maxEntries;
+
+    @Value("${bootstrap.cache.max-size-mb:512}")
+    private long maxSizeMb;
+
+    @Value("${bootstrap.cache.location:}")
+    private String location;
+
+    private File cacheFolder;
+
+    private final LinkedHashMap<String, CachedArchive> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (location == null || location.isEmpty()) {
+            cacheFolder = new File(System.getProperty("java.io.tmpdir"), "jbpm-bootstrap-cache");
+        } else {
+            cacheFolder = new File(location);
+        }
+        cacheFolder.mkdirs();
+        // index is kept in memory only so archives left over by previous runs are useless - only files
+        // named as the cache names them are removed, so it's safe to point it to a shared directory
+        File[] leftovers = cacheFolder.listFiles(file -> file.isFile() && ENTRY.matcher(file.getName()).matches());
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                leftover.delete();
+            }
+        }
+        logger.info("Generated project cache {} (max entries {}, max size {} MB) stored at {}",
+                    enabled ? "enabled" : "disabled",
+                    maxEntries,
+                    maxSizeMb,
+                    cacheFolder);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns cached archive for given key or null if there is no such archive.
+     */
+    public File get(GenerationKey key) {
+        return get(key,
+                   ArchiveFormat.DEFAULT);
+    }
+
+    /**
+     * Returns cached archive in given format for given key or null if there is no such archive.
+     */
+    public synchronized File get(GenerationKey key, ArchiveFormat format) {
+        if (!enabled) {
+            return null;
+        }
+        CachedArchive cached = entries.get(entryId(key, format));
+        if (cached == null || !cached.file.exists()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return cached.file;
+    }
+
+    /**
+     * Places cached archive for given key at target location - as a hard link when possible, as a copy
+     * otherwise - so it stays readable even when evicted afterwards.
+     *
+     * @return true if the archive was found in the cache and placed at target location, otherwise false
+     */
+    public boolean copyTo(GenerationKey key, File target) {
+        return copyTo(key,
+                      ArchiveFormat.DEFAULT,
+                      target);
+    }
+
+    /**
+     * Same as {@link #copyTo(GenerationKey, File)} for archive in given format.
+     */
+    public boolean copyTo(GenerationKey key, ArchiveFormat format, File target) {
+        File cached = get(key, format);
+        if (cached == null) {
+            return false;
+        }
+        try {
+            target.getParentFile().mkdirs();
+            try {
+                Files.createLink(target.toPath(), cached.toPath());
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(cached.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            // evicted in the meantime
+            logger.debug("Unable to read cached archive {}", cached, e);
+            return false;
+        }
+    }
+
+    /**
+     * Stores a copy of given archive under the key, evicting least recently used entries
+     * when needed. Archives bigger than the whole cache are not stored at all.
+     */
+    public void put(GenerationKey key, File archive) {
+        put(key, archive, false);
+    }
+
+    /**
+     * Same as {@link #put(GenerationKey, File)} but when <code>move</code> is set the archive is moved
+     * into the cache instead of copied, for archives that are not needed by the caller anymore.
+     */
+    public void put(GenerationKey key, File archive, boolean move) {
+        put(key,
+            ArchiveFormat.DEFAULT,
+            archive,
+            move);
+    }
+
+    /**
+     * Same as {@link #put(GenerationKey, File, boolean)} for archive in given format.
+     */
+    public void put(GenerationKey key, ArchiveFormat format, File archive, boolean move) {
+        if (!enabled) {
+            return;
+        }
+        long size = archive.length();
+        if (size > maxSizeMb * 1024 * 1024) {
+            logger.debug("Archive {} is too big ({} bytes) to be cached", archive, size);
+            return;
+        }
+        String id = entryId(key, format);
+        File cached = new File(cacheFolder, id + format.getExtension());
+        File temp = new File(cacheFolder, id + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            // copy outside of the lock, only the rename is done while holding it
+            if (move) {
+                Files.move(archive.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.copy(archive.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            synchronized (this) {
+                Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                CachedArchive previous = entries.put(id, new CachedArchive(cached, size));
+                if (previous != null) {
+                    totalSize -= previous.size;
+                }
+                totalSize += size;
+                evict();
+            }
+            logger.debug("Archive for {} stored in cache as {}", key, cached);
+        } catch (IOException e) {
+            logger.warn("Unable to store archive {} in cache", archive, e);
+            temp.delete();
+        }
+    }
+
+    /**
+     * Removes archive with given key id, together with archives of the same project in other formats.
+     */
+    public synchronized boolean invalidate(String id) {
+        boolean removed = false;
+        Iterator<Map.Entry<String, CachedArchive>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, CachedArchive> entry = iterator.next();
+            if (entry.getKey().equals(id) || entry.getKey().startsWith(id + "-")) {
+                iterator.remove();
+                remove(entry.getValue());
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    public synchronized int invalidateAll() {
+        int count = entries.size();
+        for (CachedArchive cached : entries.values()) {
+            remove(cached);
+        }
+        entries.clear();
+        totalSize = 0;
+        logger.info("Generated project cache invalidated, {} entries removed", count);
+        return count;
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("enabled", enabled);
+        statistics.put("entries", entries.size());
+        statistics.put("maxEntries", maxEntries);
+        statistics.put("sizeBytes", totalSize);
+        statistics.put("maxSizeBytes", maxSizeMb * 1024 * 1024);
+        statistics.put("hits", hits.get());
+        statistics.put("misses", misses.get());
+        statistics.put("evictions", evictions.get());
+        statistics.put("keys", entries.keySet().toArray());
+        return statistics;
+    }
+
+    private static String entryId(GenerationKey key, ArchiveFormat format) {
+        return format.isDefault() ? key.getId() : key.getId() + "-" + format.getId();
+    }
+
+    private void evict() {
+        Iterator<CachedArchive> iterator = entries.values().iterator();
+        while (iterator.hasNext() && (entries.size() > maxEntries || totalSize > maxSizeMb * 1024 * 1024)) {
+            CachedArchive eldest = iterator.next();
+            iterator.remove();
+            remove(eldest);
+            evictions.incrementAndGet();
+            logger.debug("Archive {} evicted from cache", eldest.file);
+        }
+    }
+
+    private void remove(CachedArchive cached) {
+        totalSize -= cached.size;
+        if (!cached.file.delete()) {
+            logger.debug("Unable to delete cached archive {}", cached.file);
+        }
+    }
+
+    private static class CachedArchive {
+
+        private final File file;
+        private final long size;
+
+        CachedArchive(File file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+}
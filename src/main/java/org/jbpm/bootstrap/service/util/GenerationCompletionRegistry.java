@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.io.File;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In process registry of pending project generations keyed by process instance id.
+ * Work item handlers and process event listeners are created by the process engine and not
+ * managed by Spring so the registry is a plain singleton shared by both sides.
+ * <br/>
+ * Completion can be signalled before anyone waits for it (process might finish before
+ * <code>startProcess</code> returns) so entries are created by whichever side comes first.
+ * Entries nobody waited for are pruned after a while.
+ * <br/>
+ * Requester can also ask for the project sources only (see {@link #requestSourceTree(File)}),
+ * the archive is then built by the requester on the fly.
+ * <br/>
+ * Generations given up by the requester are marked as cancelled (see {@link #cancel(long)}) so work
+ * item handlers still running for them can stop early.
+ */
+public class GenerationCompletionRegistry {
+
+    private static final GenerationCompletionRegistry INSTANCE = new GenerationCompletionRegistry();
+
+    private static final long STALE_AFTER = TimeUnit.MINUTES.toMillis(10);
+
+    private final ConcurrentHashMap<Long, Completion> completions = new ConcurrentHashMap<>();
+    private final Set<String> sourceTreeRequests = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<Long, Long> cancelled = new ConcurrentHashMap<>();
+
+    public static GenerationCompletionRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns future that completes with generated archive of given process instance.
+     * Caller must call {@link #release(long)} once done with it.
+     */
+    public CompletableFuture<File> register(long processInstanceId) {
+        prune();
+        return completion(processInstanceId).future;
+    }
+
+    public void release(long processInstanceId) {
+        completions.remove(processInstanceId);
+    }
+
+    public void completed(long processInstanceId,
+                          File archive) {
+        completion(processInstanceId).future.complete(archive);
+    }
+
+    /**
+     * Marks given generation as failed, has no effect if it has already completed.
+     */
+    public void failed(long processInstanceId,
+                       Throwable error) {
+        completion(processInstanceId).future.completeExceptionally(error);
+    }
+
+    /**
+     * Marks given generation as failed only if somebody registered for it or it has been signalled already.
+     */
+    public void failIfPending(long processInstanceId,
+                              Throwable error) {
+        Completion completion = completions.get(processInstanceId);
+        if (completion != null) {
+            completion.future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Marks given generation as cancelled, nobody waits for its result anymore.
+     */
+    public void cancel(long processInstanceId) {
+        cancelled.put(processInstanceId,
+                      System.currentTimeMillis());
+    }
+
+    public boolean isCancelled(long processInstanceId) {
+        return cancelled.containsKey(processInstanceId);
+    }
+
+    /**
+     * Asks zip work item handler to only signal that project sources in given folder are ready
+     * instead of archiving them. Caller must call {@link #releaseSourceTree(File)} once done.
+     */
+    public void requestSourceTree(File folder) {
+        sourceTreeRequests.add(normalize(folder));
+    }
+
+    public boolean isSourceTreeRequested(File folder) {
+        return sourceTreeRequests.contains(normalize(folder));
+    }
+
+    public void releaseSourceTree(File folder) {
+        sourceTreeRequests.remove(normalize(folder));
+    }
+
+    private static String normalize(File folder) {
+        return folder.toPath().toAbsolutePath().normalize().toString();
+    }
+
+    private Completion completion(long processInstanceId) {
+        return completions.computeIfAbsent(processInstanceId,
+                                           id -> new Completion());
+    }
+
+    private void prune() {
+        long staleBefore = System.currentTimeMillis() - STALE_AFTER;
+        completions.values().removeIf(completion -> completion.created < staleBefore);
+        cancelled.values().removeIf(time -> time < staleBefore);
+    }
+
+    private static class Completion {
+
+        private final long created = System.currentTimeMillis();
+        private final CompletableFuture<File> future = new CompletableFuture<>();
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Coalesces concurrent generations of the same project (single flight) - the first request generates
+ * the archive, requests with the same key that arrive while it's in flight wait for it and get the same
+ * archive under their own name. The archive is retained for every request still waiting once it's ready,
+ * so it's kept until the last of them discards it.
+ * <br/>
+ * Generation is started on a thread of its own, not on the thread of the request that started it, so any
+ * request can stop waiting (timeout or cancellation, e.g. its client went away) without affecting the others.
+ * Once the process runs nobody blocks on it, requests get futures of the archive. Generation is cancelled
+ * only when the last request waiting for it leaves. Failure of the generation is reported to all waiting
+ * requests.
+ */
+@Component
+public class GenerationFlights {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationFlights.class);
+
+    @Value("${bootstrap.coalescing.enabled:true}")
+    private boolean enabled;
+
+    @Value("${bootstrap.coalescing.follower-timeout-ms:120000}")
+    private long followerTimeout;
+
+    private final ConcurrentHashMap<GenerationKey, Flight> flights = new ConcurrentHashMap<>();
+
+    private GenerationMetrics metrics = GenerationMetrics.get();
+
+    private final AtomicInteger threads = new AtomicInteger();
+
+    // threads are used only until the process is started (cache lookup, waiting for a slot)
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable,
+                                   "generation-flight-" + threads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable,
+                                   "generation-flight-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+        timeouts.shutdownNow();
+    }
+
+    /**
+     * Starts given generation unless the same one is in flight already, the returned future completes
+     * with the archive of this requester. Cancelling the future leaves the flight.
+     *
+     * @param fileName name of the archive presented to this requester
+     */
+    public CompletableFuture<GeneratedArchive> join(GenerationKey key,
+                                                    String fileName,
+                                                    Callable<CompletableFuture<GeneratedArchive>> generation) throws Exception {
+        if (!enabled) {
+            return generation.call();
+        }
+        Flight created = new Flight();
+        Flight flight = flights.compute(key,
+                                        (k, existing) -> {
+                                            Flight joined = existing == null ? created : existing;
+                                            joined.waiting++;
+                                            return joined;
+                                        });
+        if (flight == created) {
+            metrics.coalesced(false);
+            flight.task = executor.submit(() -> run(key,
+                                                    flight,
+                                                    generation));
+            // generation has its own timeout
+            return share(key,
+                         flight,
+                         fileName,
+                         0);
+        }
+        metrics.coalesced(true);
+        logger.debug("Joined generation of {} already in flight",
+                     key.getId());
+        return share(key,
+                     flight,
+                     fileName,
+                     followerTimeout);
+    }
+
+    private void run(GenerationKey key,
+                     Flight flight,
+                     Callable<CompletableFuture<GeneratedArchive>> generation) {
+        CompletableFuture<GeneratedArchive> generated;
+        try {
+            generated = generation.call();
+        } catch (Exception | Error e) {
+            flights.remove(key,
+                           flight);
+            flight.result.completeExceptionally(e);
+            return;
+        }
+        flight.generation = generated;
+        if (flight.abandoned) {
+            generated.cancel(true);
+        }
+        generated.whenComplete((archive, error) -> finish(key,
+                                                          flight,
+                                                          archive,
+                                                          error));
+    }
+
+    private void finish(GenerationKey key,
+                        Flight flight,
+                        GeneratedArchive archive,
+                        Throwable error) {
+        if (error != null) {
+            flights.remove(key,
+                           flight);
+            flight.result.completeExceptionally(BuildComponent.failure(error));
+            return;
+        }
+        // no one can join once removed, so the number of waiting requests is final
+        int[] waiting = new int[1];
+        flights.computeIfPresent(key,
+                                 (k, current) -> {
+                                     if (current != flight) {
+                                         return current;
+                                     }
+                                     waiting[0] = current.waiting;
+                                     return null;
+                                 });
+        if (waiting[0] == 0) {
+            // everybody left while it was being finished
+            archive.discard();
+            flight.result.cancel(false);
+            return;
+        }
+        if (waiting[0] > 1) {
+            archive.retain(waiting[0] - 1);
+            logger.info("Archive of {} shared with {} coalesced requests",
+                        key.getId(),
+                        waiting[0] - 1);
+        }
+        flight.result.complete(archive);
+    }
+
+    /*
+     * future of the archive for one requester, it leaves the flight when the future is cancelled
+     * or times out
+     */
+    private CompletableFuture<GeneratedArchive> share(GenerationKey key,
+                                                      Flight flight,
+                                                      String fileName,
+                                                      long timeout) {
+        CompletableFuture<GeneratedArchive> shared = new CompletableFuture<>();
+        flight.result.whenComplete((archive, error) -> {
+            if (error != null) {
+                shared.completeExceptionally(BuildComponent.failure(error));
+            } else {
+                // share of a requester that has left is discarded by leave
+                shared.complete(archive.shareAs(fileName));
+            }
+        });
+        if (timeout > 0) {
+            timeouts.schedule(() -> {
+                if (shared.completeExceptionally(new RuntimeException("Timeout while waiting for generated project"))) {
+                    leave(key,
+                          flight);
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+        shared.whenComplete((archive, error) -> {
+            if (shared.isCancelled()) {
+                leave(key,
+                      flight);
+            }
+        });
+        return shared;
+    }
+
+    /*
+     * gives up reservation of the archive, either before it's made (cancelling the generation when nobody
+     * else waits for it) or by discarding the share made for us
+     */
+    private void leave(GenerationKey key,
+                       Flight flight) {
+        boolean[] left = new boolean[1];
+        boolean[] abandoned = new boolean[1];
+        flights.computeIfPresent(key,
+                                 (k, current) -> {
+                                     if (current != flight) {
+                                         return current;
+                                     }
+                                     left[0] = true;
+                                     if (--current.waiting == 0) {
+                                         abandoned[0] = true;
+                                         return null;
+                                     }
+                                     return current;
+                                 });
+        if (abandoned[0]) {
+            logger.info("Generation of {} cancelled, no request waits for it anymore",
+                        key.getId());
+            flight.abandoned = true;
+            flight.task.cancel(true);
+            CompletableFuture<GeneratedArchive> generation = flight.generation;
+            if (generation != null) {
+                generation.cancel(true);
+            }
+        } else if (!left[0]) {
+            flight.result.thenAccept(GeneratedArchive::discard);
+        }
+    }
+
+    private static class Flight {
+
+        private final CompletableFuture<GeneratedArchive> result = new CompletableFuture<>();
+        private int waiting;
+        private volatile Future<?> task;
+        private volatile CompletableFuture<GeneratedArchive> generation;
+        private volatile boolean abandoned;
+    }
+}
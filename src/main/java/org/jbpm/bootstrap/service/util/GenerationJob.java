@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.jbpm.bootstrap.model.Project;
+
+/**
+ * Asynchronous project generation submitted via <code>/gen/jobs</code>.
+ */
+public class GenerationJob {
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED,
+        CANCELLED
+    }
+
+    private final String id;
+    private final Project project;
+    private final long submitted = System.currentTimeMillis();
+
+    private volatile State state = State.QUEUED;
+    private volatile long started;
+    private volatile long finished;
+    private volatile String error;
+    private volatile GeneratedArchive archive;
+    private volatile Future<?> execution;
+
+    public GenerationJob(String id,
+                         Project project) {
+        this.id = id;
+        this.project = project;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Project getProject() {
+        return project;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getFinished() {
+        return finished;
+    }
+
+    public GeneratedArchive getArchive() {
+        return archive;
+    }
+
+    void executed(Future<?> execution) {
+        this.execution = execution;
+    }
+
+    synchronized boolean running() {
+        if (state == State.CANCELLED) {
+            return false;
+        }
+        this.started = System.currentTimeMillis();
+        this.state = State.RUNNING;
+        return true;
+    }
+
+    synchronized boolean done(GeneratedArchive archive) {
+        if (state == State.CANCELLED) {
+            return false;
+        }
+        this.archive = archive;
+        this.finished = System.currentTimeMillis();
+        this.state = State.DONE;
+        return true;
+    }
+
+    synchronized void failed(String error) {
+        if (state == State.CANCELLED) {
+            return;
+        }
+        this.error = error;
+        this.finished = System.currentTimeMillis();
+        this.state = State.FAILED;
+    }
+
+    /**
+     * Cancels the job unless it has already finished, interrupting its generation if it's running.
+     *
+     * @return true if the job has been cancelled
+     */
+    synchronized boolean cancel() {
+        if (finished > 0) {
+            return false;
+        }
+        this.finished = System.currentTimeMillis();
+        this.state = State.CANCELLED;
+        if (execution != null) {
+            execution.cancel(true);
+        }
+        return true;
+    }
+
+    public Map<String, Object> toStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("id", id);
+        status.put("state", state.name().toLowerCase());
+        status.put("submitted", submitted);
+        if (started > 0) {
+            status.put("started", started);
+            status.put("queuedMs", started - submitted);
+        }
+        if (finished > 0) {
+            status.put("finished", finished);
+            status.put("generationMs", finished - started);
+        }
+        if (error != null) {
+            status.put("error", error);
+        }
+        if (state == State.DONE) {
+            status.put("archive", "/gen/jobs/" + id + "/archive");
+        }
+        return status;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.jbpm.bootstrap.model.Project;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs project generations in the background on a bounded queue so clients do not need to keep
+ * connection open for the whole generation. Results are kept for configured time to be downloaded.
+ */
+@Component
+public class GenerationJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationJobService.class);
+
+    @Value("${bootstrap.jobs.workers:5}")
+    private int workers;
+
+    @Value("${bootstrap.jobs.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${bootstrap.jobs.retention-minutes:30}")
+    private long retentionMinutes;
+
+    @Value("${bootstrap.jobs.retry-after-seconds:30}")
+    private long retryAfterSeconds;
+
+    @Autowired
+    private BuildComponent buildComponent;
+
+    private ThreadPoolExecutor executor;
+
+    private final Map<String, GenerationJob> jobs = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers,
+                                          workers,
+                                          0L,
+                                          TimeUnit.MILLISECONDS,
+                                          new ArrayBlockingQueue<>(queueCapacity),
+                                          runnable -> {
+                                              Thread thread = new Thread(runnable,
+                                                                         "generation-job-" + counter.incrementAndGet());
+                                              thread.setDaemon(true);
+                                              return thread;
+                                          });
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Autowired
+    private GenerationLimiter limiter;
+
+    @Autowired
+    private GenerationWorkspace workspace;
+
+    /**
+     * Queues generation of given project, the generation counts towards the rate of given client
+     * (if known) and takes a slot from the limiter when it runs the process, same as requests waiting
+     * for the archive.
+     *
+     * @throws GenerationRejectedException when the client is over its rate or the queue is full
+     */
+    public GenerationJob submit(Project project,
+                                String client) {
+        limiter.checkRate(client);
+        GenerationJob job = new GenerationJob(UUID.randomUUID().toString(),
+                                              project);
+        jobs.put(job.getId(), job);
+        try {
+            job.executed(executor.submit(() -> run(job)));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            throw new GenerationRejectedException("Generation queue is full",
+                                                  HttpStatus.TOO_MANY_REQUESTS,
+                                                  retryAfterSeconds);
+        }
+        logger.info("Generation job {} queued for project {}", job.getId(), project);
+        return job;
+    }
+
+    public GenerationJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Cancels given job - removes it from the queue or stops its generation if it's running.
+     * Finished job is removed together with its archive.
+     *
+     * @return false if there is no such job
+     */
+    public boolean cancel(String id) {
+        GenerationJob job = jobs.remove(id);
+        if (job == null) {
+            return false;
+        }
+        if (job.cancel()) {
+            logger.info("Generation job {} cancelled", id);
+        } else if (job.getArchive() != null) {
+            job.getArchive().discard();
+        }
+        return true;
+    }
+
+    /**
+     * Number of jobs waiting for a worker.
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    protected void run(GenerationJob job) {
+        if (!job.running()) {
+            return;
+        }
+        try {
+            GeneratedArchive archive = buildComponent.generate(job.getProject(),
+                                                               false,
+                                                               false,
+                                                               true);
+            if (!job.done(archive)) {
+                // cancelled while the archive was being finished
+                archive.discard();
+                return;
+            }
+            // kept until downloaded or expired, workspace must not reclaim it in the meantime
+            workspace.extend(archive.getFolder(),
+                             TimeUnit.MINUTES.toMillis(retentionMinutes));
+            logger.info("Generation job {} done", job.getId());
+        } catch (Exception e) {
+            logger.warn("Generation job {} failed due to {}", job.getId(), e.getMessage());
+            job.failed(e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${bootstrap.jobs.cleanup-interval-ms:60000}")
+    public void removeExpiredJobs() {
+        long expiredBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(retentionMinutes);
+        Iterator<GenerationJob> iterator = jobs.values().iterator();
+        while (iterator.hasNext()) {
+            GenerationJob job = iterator.next();
+            if (job.getFinished() > 0 && job.getFinished() < expiredBefore) {
+                iterator.remove();
+                if (job.getArchive() != null) {
+                    job.getArchive().discard();
+                }
+                logger.debug("Generation job {} expired", job.getId());
+            }
+        }
+    }
+}
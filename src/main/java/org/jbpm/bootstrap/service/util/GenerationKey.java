@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.stream.Collectors;
+
+import org.jbpm.bootstrap.model.Project;
+
+/**
+ * Identifies the output of a project generation - two projects with the same key
+ * produce the same archive. Options and capabilities are compared regardless of
+ * their order and empty values (unchecked form fields) are ignored.
+ */
+public final class GenerationKey {
+
+    private final String canonical;
+    private final String id;
+    private final String skeletonId;
+
+    private GenerationKey(String canonical,
+                          String skeleton) {
+        this.canonical = canonical;
+        this.id = sha256(canonical);
+        this.skeletonId = sha256(skeleton);
+    }
+
+    public static GenerationKey of(Project project,
+                                   String projectSetup,
+                                   String springbootVersion,
+                                   String kieVersion) {
+        StringBuilder skeleton = new StringBuilder();
+        skeleton.append("version=").append(project.getVersion())
+                .append("|options=").append(normalize(project.getOptions()))
+                .append("|capabilities=").append(normalize(project.getCapabilities()))
+                .append("|setup=").append(projectSetup)
+                .append("|springboot=").append(springbootVersion)
+                .append("|kie=").append(kieVersion);
+
+        String canonical = "name=" + project.getName() + "|package=" + project.getPackageName() + "|" + skeleton;
+
+        return new GenerationKey(canonical,
+                                 skeleton.toString());
+    }
+
+    /**
+     * Sorted, comma separated list of non empty values with white spaces removed.
+     */
+    public static String normalize(Collection<String> values) {
+        if (values == null) {
+            return "";
+        }
+        return values.stream()
+                .filter(value -> value != null)
+                .map(value -> value.replace(" ", ""))
+                .filter(value -> !value.isEmpty())
+                .distinct()
+                .sorted()
+                .collect(Collectors.joining(","));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Identifies the project structure regardless of project name and package - projects with the same
+     * skeleton id differ only in these.
+     */
+    public String getSkeletonId() {
+        return skeletonId;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof GenerationKey)) {
+            return false;
+        }
+        return canonical.equals(((GenerationKey) obj).canonical);
+    }
+
+    @Override
+    public int hashCode() {
+        return canonical.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return canonical;
+    }
+
+    public static String sha256(String value) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
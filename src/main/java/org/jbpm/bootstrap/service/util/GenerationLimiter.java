@@ -0,0 +1,426 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Admission control of generations so a burst of requests does not start more process instances than
+ * the executor can handle (and all of them time out together):
+ * <ul>
+ *     <li>per client token bucket - requests over the rate are rejected with 429; batches have their own
+ *     bucket of projects, whole batch is taken from it at once</li>
+ *     <li>concurrency limit - requests over the limit wait in a bounded queue, web and rest callers
+ *     are served in turns from their own queues so neither can starve the other; when the queue is full
+ *     or the wait takes too long requests are rejected with 503</li>
+ * </ul>
+ * The concurrency limit adapts to measured generation latency (AIMD) - it's decreased multiplicatively
+ * when latency exceeds the baseline of its setup (e.g. bpm project in offline mode) by more than
+ * configured tolerance and increased by one per limit's worth of fast generations, within the configured
+ * bounds. Baselines follow faster generations quickly and slower ones slowly, so they stay close to
+ * latency without load. Only process runs take slots, projects served from cache or skeletons do not.
+ * Rejections carry the time the client should retry after.
+ */
+@Component
+public class GenerationLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationLimiter.class);
+
+    private static final double DECREASE_FACTOR = 0.9;
+
+    // used for retry estimates until there is a measured latency
+    private static final long DEFAULT_LATENCY = 20000;
+
+    @Value("${bootstrap.limiter.enabled:true}")
+    private boolean enabled;
+
+    @Value("${bootstrap.limiter.initial-limit:8}")
+    private int initialLimit;
+
+    @Value("${bootstrap.limiter.min-limit:2}")
+    private int minLimit;
+
+    @Value("${bootstrap.limiter.max-limit:10}")
+    private int maxLimit;
+
+    @Value("${bootstrap.limiter.latency-tolerance:2.0}")
+    private double latencyTolerance;
+
+    @Value("${bootstrap.limiter.queue-capacity:50}")
+    private int queueCapacity;
+
+    @Value("${bootstrap.limiter.queue-timeout-ms:30000}")
+    private long queueTimeout;
+
+    @Value("${bootstrap.limiter.client.requests-per-minute:30}")
+    private double clientRate;
+
+    @Value("${bootstrap.limiter.client.burst:10}")
+    private double clientBurst;
+
+    @Value("${bootstrap.limiter.client.batch-projects-per-minute:100}")
+    private double batchRate;
+
+    @Value("${bootstrap.limiter.client.batch-burst:50}")
+    private double batchBurst;
+
+    // set when running behind a proxy, clients are identified by remote address otherwise
+    @Value("${bootstrap.limiter.client.forwarded-header:}")
+    private String forwardedHeader;
+
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> batchBuckets = new ConcurrentHashMap<>();
+
+    private final Deque<Waiter> webQueue = new ArrayDeque<>();
+    private final Deque<Waiter> restQueue = new ArrayDeque<>();
+    private boolean webServedLast;
+
+    private double limit;
+    private int inUse;
+    private double averageLatency;
+    private final Map<String, Double> baselines = new HashMap<>();
+
+    @PostConstruct
+    public synchronized void init() {
+        limit = Math.max(minLimit,
+                         Math.min(maxLimit,
+                                  initialLimit));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Identifies the client of given request for rate limiting.
+     */
+    public String clientOf(HttpServletRequest request) {
+        if (!forwardedHeader.isEmpty()) {
+            String forwarded = request.getHeader(forwardedHeader);
+            if (forwarded != null && !forwarded.isEmpty()) {
+                // first one is the original client
+                return forwarded.split(",")[0].trim();
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    /**
+     * Admits a generation of given client, waiting for a free slot if needed. Caller must release
+     * the returned permit once the generation is done.
+     *
+     * @param client identifies the client for rate limiting, not limited when null
+     * @throws GenerationRejectedException when the client is over its rate or the service is saturated
+     */
+    public Permit acquire(String client,
+                          boolean isWeb,
+                          String setup) throws InterruptedException {
+        checkRate(client);
+        return acquire(isWeb,
+                       setup);
+    }
+
+    /**
+     * Counts a generation request towards the rate of given client.
+     *
+     * @param client identifies the client for rate limiting, not limited when null
+     * @throws GenerationRejectedException when the client is over its rate
+     */
+    public void checkRate(String client) {
+        if (!enabled || client == null) {
+            return;
+        }
+        long waitSeconds = buckets.computeIfAbsent(client,
+                                                   id -> new TokenBucket(clientRate / 60,
+                                                                         clientBurst))
+                .tryConsume(1);
+        if (waitSeconds > 0) {
+            throw new GenerationRejectedException("Too many generation requests from " + client,
+                                                  HttpStatus.TOO_MANY_REQUESTS,
+                                                  waitSeconds);
+        }
+    }
+
+    /**
+     * Counts a batch of given number of projects towards the batch rate of given client - either all
+     * projects are taken or none.
+     *
+     * @param client identifies the client for rate limiting, not limited when null
+     * @throws GenerationRejectedException when the client is over its rate
+     */
+    public void checkBatchRate(String client,
+                               int projects) {
+        if (!enabled || client == null) {
+            return;
+        }
+        long waitSeconds = batchBuckets.computeIfAbsent(client,
+                                                        id -> new TokenBucket(batchRate / 60,
+                                                                              batchBurst))
+                .tryConsume(projects);
+        if (waitSeconds > 0) {
+            throw new GenerationRejectedException("Too many batch generations from " + client,
+                                                  HttpStatus.TOO_MANY_REQUESTS,
+                                                  waitSeconds);
+        }
+    }
+
+    /**
+     * Most projects a client can generate in batches at once, unlimited when the limiter is disabled.
+     */
+    public int getMaxBatchProjects() {
+        return enabled ? (int) batchBurst : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Takes a generation slot, waiting for a free one if needed, without any rate check. Caller must
+     * release the returned permit once the generation is done.
+     *
+     * @param setup setup of the generation its latency is compared to baseline of
+     * @throws GenerationRejectedException when the service is saturated
+     */
+    public Permit acquire(boolean isWeb,
+                          String setup) throws InterruptedException {
+        if (!enabled) {
+            return new Permit(null,
+                              setup);
+        }
+
+        Waiter waiter;
+        synchronized (this) {
+            if (inUse < (int) limit && webQueue.isEmpty() && restQueue.isEmpty()) {
+                inUse++;
+                return new Permit(this,
+                                  setup);
+            }
+            if (webQueue.size() + restQueue.size() >= queueCapacity) {
+                throw saturated();
+            }
+            waiter = new Waiter();
+            (isWeb ? webQueue : restQueue).addLast(waiter);
+        }
+
+        try {
+            waiter.admitted.get(queueTimeout,
+                                TimeUnit.MILLISECONDS);
+            return new Permit(this,
+                              setup);
+        } catch (TimeoutException | InterruptedException e) {
+            synchronized (this) {
+                if (!webQueue.remove(waiter) && !restQueue.remove(waiter)) {
+                    // admitted in the meantime, give the slot back
+                    release(-1,
+                            setup);
+                }
+            }
+            if (e instanceof InterruptedException) {
+                throw (InterruptedException) e;
+            }
+            throw saturated();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("enabled", enabled);
+        statistics.put("limit", limit);
+        statistics.put("inUse", inUse);
+        statistics.put("queuedWeb", webQueue.size());
+        statistics.put("queuedRest", restQueue.size());
+        statistics.put("averageLatencyMs", (long) averageLatency);
+        Map<String, Long> baselineLatencies = new LinkedHashMap<>();
+        baselines.forEach((setup, baseline) -> baselineLatencies.put(setup, baseline.longValue()));
+        statistics.put("baselineLatencyMs", baselineLatencies);
+        statistics.put("clients", buckets.size());
+        return statistics;
+    }
+
+    /**
+     * Drops token buckets of clients that have not been seen long enough to be full again.
+     */
+    @Scheduled(fixedDelayString = "${bootstrap.limiter.client.cleanup-interval-ms:60000}")
+    public void removeIdleClients() {
+        buckets.values().removeIf(TokenBucket::isFull);
+        batchBuckets.values().removeIf(TokenBucket::isFull);
+    }
+
+    /*
+     * latency is negative when the slot was not used
+     */
+    synchronized void release(long latency,
+                              String setup) {
+        inUse--;
+        if (latency >= 0) {
+            averageLatency = averageLatency == 0 ? latency : averageLatency * 0.8 + latency * 0.2;
+            Double baseline = baselines.get(setup);
+            // first generation of the setup only sets its baseline
+            if (baseline != null) {
+                if (latency > baseline * latencyTolerance) {
+                    double decreased = Math.max(minLimit,
+                                                limit * DECREASE_FACTOR);
+                    if ((int) decreased < (int) limit) {
+                        logger.info("Generation of {} took {} ms (baseline {} ms), concurrency limit decreased to {}",
+                                    setup,
+                                    latency,
+                                    baseline.longValue(),
+                                    (int) decreased);
+                    }
+                    limit = decreased;
+                } else {
+                    limit = Math.min(maxLimit,
+                                     limit + 1 / limit);
+                }
+            }
+            baselines.put(setup,
+                          baseline == null ? latency : latency < baseline ? baseline * 0.5 + latency * 0.5 : baseline * 0.98 + latency * 0.02);
+        }
+        while (inUse < (int) limit) {
+            Waiter next = nextWaiter();
+            if (next == null) {
+                break;
+            }
+            inUse++;
+            next.admitted.complete(null);
+        }
+    }
+
+    /*
+     * web and rest queues take turns, whichever is not empty when the other is
+     */
+    private Waiter nextWaiter() {
+        Deque<Waiter> first = webServedLast ? restQueue : webQueue;
+        Deque<Waiter> second = webServedLast ? webQueue : restQueue;
+        Waiter next = first.pollFirst();
+        if (next != null) {
+            webServedLast = first == webQueue;
+            return next;
+        }
+        next = second.pollFirst();
+        if (next != null) {
+            webServedLast = second == webQueue;
+        }
+        return next;
+    }
+
+    private GenerationRejectedException saturated() {
+        // time for the queue ahead to be worked through at current limit and latency
+        long retryAfter;
+        synchronized (this) {
+            double effectiveLimit = Math.max(1, limit);
+            double latency = averageLatency == 0 ? DEFAULT_LATENCY : averageLatency;
+            retryAfter = (long) Math.ceil((webQueue.size() + restQueue.size() + 1) / effectiveLimit * latency / 1000);
+        }
+        return new GenerationRejectedException("Generation capacity exhausted",
+                                               HttpStatus.SERVICE_UNAVAILABLE,
+                                               Math.max(1, retryAfter));
+    }
+
+    /**
+     * Admitted generation, to be released once done.
+     */
+    public static class Permit implements AutoCloseable {
+
+        private final GenerationLimiter limiter;
+        private final String setup;
+        private final long started = System.currentTimeMillis();
+        private boolean released;
+
+        Permit(GenerationLimiter limiter,
+               String setup) {
+            this.limiter = limiter;
+            this.setup = setup;
+        }
+
+        @Override
+        public void close() {
+            if (limiter != null && !released) {
+                released = true;
+                limiter.release(System.currentTimeMillis() - started,
+                                setup);
+            }
+        }
+    }
+
+    private static class Waiter {
+
+        private final CompletableFuture<Void> admitted = new CompletableFuture<>();
+    }
+
+    /**
+     * Refills continuously at given rate up to given capacity.
+     */
+    private static class TokenBucket {
+
+        private final double ratePerSecond;
+        private final double capacity;
+        private double tokens;
+        private long refilled = System.nanoTime();
+
+        TokenBucket(double ratePerSecond,
+                    double capacity) {
+            this.ratePerSecond = ratePerSecond;
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        /**
+         * Takes given number of tokens if there are enough of them.
+         *
+         * @return 0 when taken, otherwise seconds until there are enough
+         */
+        synchronized long tryConsume(double count) {
+            refill();
+            if (tokens >= count) {
+                tokens -= count;
+                return 0;
+            }
+            return Math.max(1,
+                            (long) Math.ceil((count - tokens) / ratePerSecond));
+        }
+
+        synchronized boolean isFull() {
+            refill();
+            return tokens >= capacity;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity,
+                              tokens + (now - refilled) / 1e9 * ratePerSecond);
+            refilled = now;
+        }
+    }
+}
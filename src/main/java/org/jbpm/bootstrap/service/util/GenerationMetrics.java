@@ -0,0 +1,260 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Latency of generation phases, tagged by generation type, KIE version and project setup (versions other
+ * than the known ones are tagged as <code>other</code>):
+ * <ul>
+ *     <li><code>lookup</code> - cache and skeleton lookup</li>
+ *     <li><code>start</code> - starting the process instance</li>
+ *     <li><code>process</code> - from process instance start until the project is signalled as generated</li>
+ *     <li><code>queue</code> - time process instance spent between nodes (waiting for executor)</li>
+ *     <li><code>zip</code> - zipping generated project by the work item handler</li>
+ *     <li><code>response</code> - writing the archive to the client</li>
+ *     <li><code>total</code> - whole generation, without writing the response</li>
+ * </ul>
+ * Nodes of the process (e.g. maven builds) are timed separately by node name. Recorded to the global
+ * registry Spring Boot adds its registries to, so it can be used from process event listener and
+ * work item handler that are not managed by Spring - same as completion registry it's a plain singleton.
+ * Gauges are registered by <code>GenerationMetricsBinder</code>.
+ */
+public class GenerationMetrics {
+
+    private static final GenerationMetrics INSTANCE = new GenerationMetrics(Metrics.globalRegistry);
+
+    public static final String PHASE = "bootstrap.generation.phase";
+    public static final String NODE = "bootstrap.generation.node";
+    public static final String TIMEOUTS = "bootstrap.generation.timeouts";
+    public static final String ERRORS = "bootstrap.generation.errors";
+    public static final String FLIGHTS = "bootstrap.generation.flights";
+    public static final String CANCELLATIONS = "bootstrap.generation.cancellations";
+
+    public static final String UNKNOWN = "unknown";
+    public static final String OTHER = "other";
+
+    /**
+     * Generation type of runs the service makes for itself (maven warm up, skeleton learning), these are
+     * not recorded in metrics nor counted in reports.
+     */
+    public static final String INTERNAL = "internal";
+
+    private final MeterRegistry registry;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<Long, InstanceTimes> instances = new ConcurrentHashMap<>();
+    private volatile Set<String> knownVersions = Collections.emptySet();
+
+    GenerationMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public static GenerationMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Tags all generation metrics have, missing values are reported as <code>unknown</code>.
+     */
+    public static Tags tags(Object generationType,
+                            Object kieVersion,
+                            Object projectSetup) {
+        return Tags.of("type", valueOf(generationType),
+                       "version", INSTANCE.versionOf(kieVersion),
+                       "setup", valueOf(projectSetup));
+    }
+
+    public static Tags unknown() {
+        return tags(null,
+                    null,
+                    null);
+    }
+
+    /**
+     * KIE versions tagged as they are, the version comes from requests so any other is tagged as
+     * <code>other</code> to keep the number of series bounded.
+     */
+    public void setKnownVersions(Collection<String> versions) {
+        knownVersions = Collections.unmodifiableSet(new HashSet<>(versions));
+    }
+
+    public void record(String phase,
+                       Tags tags,
+                       long startNanos) {
+        Timer.builder(PHASE)
+                .tags(tags)
+                .tag("phase", phase)
+                .register(registry)
+                .record(System.nanoTime() - startNanos,
+                        TimeUnit.NANOSECONDS);
+    }
+
+    public void timeout(Tags tags) {
+        Counter.builder(TIMEOUTS)
+                .tags(tags)
+                .register(registry)
+                .increment();
+    }
+
+    public void cancelled(String reason,
+                          Tags tags) {
+        Counter.builder(CANCELLATIONS)
+                .tags(tags)
+                .tag("reason", reason)
+                .register(registry)
+                .increment();
+    }
+
+    public void error(String phase,
+                      Tags tags) {
+        Counter.builder(ERRORS)
+                .tags(tags)
+                .tag("phase", phase)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Counts a generation request by whether it started the generation (leader) or joined
+     * the same one already in flight (follower).
+     */
+    public void coalesced(boolean follower) {
+        Counter.builder(FLIGHTS)
+                .tag("role", follower ? "follower" : "leader")
+                .register(registry)
+                .increment();
+    }
+
+    public void generationStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    public void generationEnded() {
+        inFlight.decrementAndGet();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public void processStarted(long processInstanceId,
+                               Tags tags) {
+        instances.put(processInstanceId,
+                      new InstanceTimes(tags));
+    }
+
+    /**
+     * Tags of given running process instance, or <code>unknown</code> ones if it's not known.
+     */
+    public Tags getTags(long processInstanceId) {
+        InstanceTimes times = instances.get(processInstanceId);
+        return times == null ? unknown() : times.tags;
+    }
+
+    public void nodeTriggered(long processInstanceId,
+                              String nodeName) {
+        InstanceTimes times = instances.get(processInstanceId);
+        if (times != null) {
+            times.nodeTriggered(nodeName);
+        }
+    }
+
+    public void nodeLeft(long processInstanceId,
+                         String nodeName) {
+        InstanceTimes times = instances.get(processInstanceId);
+        if (times == null) {
+            return;
+        }
+        long started = times.nodeLeft(nodeName);
+        if (started > 0) {
+            Timer.builder(NODE)
+                    .tags(times.tags)
+                    .tag("node", valueOf(nodeName))
+                    .register(registry)
+                    .record(System.nanoTime() - started,
+                            TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void processEnded(long processInstanceId) {
+        InstanceTimes times = instances.remove(processInstanceId);
+        if (times != null && times.queued > 0) {
+            Timer.builder(PHASE)
+                    .tags(times.tags)
+                    .tag("phase", "queue")
+                    .register(registry)
+                    .record(times.queued,
+                            TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private String versionOf(Object kieVersion) {
+        if (kieVersion == null) {
+            return UNKNOWN;
+        }
+        return knownVersions.contains(kieVersion.toString()) ? valueOf(kieVersion) : OTHER;
+    }
+
+    private static String valueOf(Object value) {
+        return value == null ? UNKNOWN : value.toString().replace(" ", "");
+    }
+
+    /**
+     * Node start times of a process instance and the time it spent between nodes so far.
+     */
+    private static class InstanceTimes {
+
+        private final Tags tags;
+        private final Map<String, Long> nodes = new ConcurrentHashMap<>();
+        private long lastLeft;
+        private long queued;
+
+        InstanceTimes(Tags tags) {
+            this.tags = tags;
+        }
+
+        synchronized void nodeTriggered(String nodeName) {
+            long now = System.nanoTime();
+            if (lastLeft > 0) {
+                queued += now - lastLeft;
+                lastLeft = 0;
+            }
+            nodes.put(String.valueOf(nodeName),
+                      now);
+        }
+
+        synchronized long nodeLeft(String nodeName) {
+            lastLeft = System.nanoTime();
+            Long started = nodes.remove(String.valueOf(nodeName));
+            return started == null ? 0 : started;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.kie.api.executor.ExecutorService;
+import org.kie.api.runtime.query.QueryContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gauges of the generation pipeline - generations in flight, asynchronously handled requests, usage
+ * of the generation workspace and depth of generation job and jBPM executor queues. Workspace usage is refreshed by its janitor,
+ * executor queue is read at most once per configured interval no matter how often it's scraped.
+ */
+@Component
+public class GenerationMetricsBinder implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationMetricsBinder.class);
+
+    private static final int MAX_QUEUED_REQUESTS = 10000;
+
+    @Value("${bootstrap.metrics.refresh-ms:30000}")
+    private long refreshInterval;
+
+    @Value("${bootstrap.metrics.versions:}")
+    private String versions;
+
+    @Value("${bootstrap.maven.warmup.versions:}")
+    private String warmUpVersions;
+
+    @Autowired
+    private GenerationJobService jobService;
+
+    @Autowired
+    private GenerationWorkspace workspace;
+
+    @Autowired
+    private GenerationRequestExecutor requestExecutor;
+
+    // available only when jbpm executor is enabled
+    @Autowired(required = false)
+    private ExecutorService executorService;
+
+    private long queuedRequests;
+    private long queueRefreshed;
+
+    @PostConstruct
+    public void init() {
+        Set<String> knownVersions = new LinkedHashSet<>();
+        knownVersions.add(BuildComponent.DEFAULT_VERSION);
+        for (String version : (versions + "," + warmUpVersions).split(",")) {
+            if (!version.trim().isEmpty()) {
+                knownVersions.add(version.trim());
+            }
+        }
+        GenerationMetrics.get().setKnownVersions(knownVersions);
+        logger.info("Generation metrics are tagged with KIE versions {}, any other as '{}'",
+                    knownVersions,
+                    GenerationMetrics.OTHER);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        GenerationMetrics metrics = GenerationMetrics.get();
+        Gauge.builder("bootstrap.generation.inflight",
+                      metrics,
+                      GenerationMetrics::getInFlight)
+                .description("Generations in progress")
+                .register(registry);
+        Gauge.builder("bootstrap.generation.workspace.used",
+                      workspace,
+                      GenerationWorkspace::getUsedBytes)
+                .description("Disk space used by generation workspace")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("bootstrap.generation.workspace.free",
+                      workspace,
+                      GenerationWorkspace::getUsableBytes)
+                .description("Usable space of the generation workspace")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("bootstrap.generation.workspace.folders",
+                      workspace,
+                      GenerationWorkspace::getFolders)
+                .description("Folders in the generation workspace, including spare ones")
+                .register(registry);
+        Gauge.builder("bootstrap.generation.workspace.held",
+                      workspace,
+                      GenerationWorkspace::getHeldFolders)
+                .description("Workspace folders held by generations")
+                .register(registry);
+        FunctionCounter.builder("bootstrap.generation.workspace.orphans",
+                                workspace,
+                                GenerationWorkspace::getOrphansRemoved)
+                .description("Orphaned workspace folders removed by the janitor")
+                .register(registry);
+        Gauge.builder("bootstrap.generation.requests.active",
+                      requestExecutor,
+                      GenerationRequestExecutor::getActive)
+                .description("Generation requests being handled asynchronously")
+                .register(registry);
+        Gauge.builder("bootstrap.jobs.queue.depth",
+                      jobService,
+                      GenerationJobService::getQueueDepth)
+                .description("Generation jobs waiting for a worker")
+                .register(registry);
+        if (executorService != null) {
+            Gauge.builder("bootstrap.executor.queue.depth",
+                          this,
+                          GenerationMetricsBinder::getQueuedRequests)
+                    .description("Queued jBPM executor requests")
+                    .register(registry);
+        }
+    }
+
+    synchronized long getQueuedRequests() {
+        long now = System.currentTimeMillis();
+        if (now - queueRefreshed >= refreshInterval) {
+            try {
+                queuedRequests = executorService.getQueuedRequests(new QueryContext(0,
+                                                                                    MAX_QUEUED_REQUESTS)).size();
+            } catch (Exception e) {
+                logger.debug("Unable to read executor queue depth due to {}",
+                             e.getMessage());
+            }
+            queueRefreshed = now;
+        }
+        return queuedRequests;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import org.jbpm.services.api.DeploymentService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports whether the kie server container with <code>GenerateProject</code> process is deployed, as
+ * <code>generationProcess</code> health component. With containers deployed in the background (see
+ * {@link FastBootConfiguration}) it's part of the readiness group so the node takes traffic only once
+ * it can generate projects.
+ */
+@Component("generationProcess")
+@Profile("!loadtest")
+public class GenerationProcessHealthIndicator implements HealthIndicator {
+
+    private static final String CONTAINER_ID = "jbpm-bootstrap-kjar";
+
+    @Autowired
+    private DeploymentService deploymentService;
+
+    @Override
+    public Health health() {
+        Health.Builder health = deploymentService.isDeployed(CONTAINER_ID) ? Health.up() : Health.outOfService();
+        return health.withDetail("container",
+                                 CONTAINER_ID)
+                .build();
+    }
+}
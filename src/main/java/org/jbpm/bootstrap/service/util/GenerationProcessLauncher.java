@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.util.Map;
+
+/**
+ * Starts generation of a project - <code>GenerateProject</code> process instance with given parameters.
+ * Generation is expected to continue asynchronously and signal its archive (or failure) via
+ * {@link GenerationCompletionRegistry} under the returned process instance id.
+ */
+public interface GenerationProcessLauncher {
+
+    long start(Map<String, Object> parameters);
+
+    /**
+     * Stops generation of given process instance that nobody waits for anymore, has no effect
+     * when it has already ended.
+     */
+    void abort(long processInstanceId);
+
+    /**
+     * Whether process instances (and their execution errors) are stored in the database under the
+     * ids returned by {@link #start(Map)}.
+     */
+    default boolean isPersistent() {
+        return true;
+    }
+}
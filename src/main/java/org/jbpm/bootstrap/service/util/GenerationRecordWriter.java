@@ -0,0 +1,217 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes compact records of generations run in memory (see {@link InMemoryProcessLauncher}) - one row
+ * in <code>ProcessInstanceLog</code> and one row per report variable in <code>VariableInstanceLog</code>,
+ * so report queries and the daily rollup see them as any other generation. Records are queued and
+ * written periodically in batches, single transaction for all records queued since the last write.
+ * <br/>
+ * In memory process instance ids start from 1 with every start of the application so records are
+ * logged with ids following the highest one logged so far - {@link #toLoggedId(long)} gives the id
+ * to be used wherever logged ids are compared (e.g. report aggregates). As the process event listener
+ * is not managed by Spring the writer is available as a singleton too, null when not running in memory.
+ */
+@Component
+@ConditionalOnProperty(name = "bootstrap.runtime.mode", havingValue = "in-memory")
+public class GenerationRecordWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationRecordWriter.class);
+
+    private static final String INSERT_PROCESS_INSTANCE = "insert into ProcessInstanceLog (id, processInstanceId, processId, processName, "
+            + "externalId, start_date, end_date, duration, status) values (NEXT VALUE FOR PROC_INST_LOG_ID_SEQ, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_VARIABLE = "insert into VariableInstanceLog (id, processInstanceId, processId, variableInstanceId, "
+            + "variableId, value, externalId, log_date) values (NEXT VALUE FOR VAR_INST_LOG_ID_SEQ, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static volatile GenerationRecordWriter instance;
+
+    @Autowired
+    private DataSource dataSource;
+
+    private final ConcurrentLinkedQueue<Record> queue = new ConcurrentLinkedQueue<>();
+
+    private final Object flushLock = new Object();
+
+    private long idOffset = -1;
+
+    public static GenerationRecordWriter get() {
+        return instance;
+    }
+
+    @PostConstruct
+    public void init() {
+        instance = this;
+    }
+
+    /**
+     * Id given in memory process instance is logged with.
+     */
+    public long toLoggedId(long processInstanceId) {
+        try {
+            return getIdOffset() + processInstanceId;
+        } catch (SQLException e) {
+            logger.warn("Unable to read logged process instance ids due to {}",
+                        e.getMessage());
+            return processInstanceId;
+        }
+    }
+
+    public void add(Record record) {
+        queue.add(record);
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+        instance = null;
+    }
+
+    @Scheduled(fixedDelayString = "${bootstrap.runtime.record-flush-ms:2000}")
+    public void flush() {
+        synchronized (flushLock) {
+            if (!queue.isEmpty()) {
+                write();
+            }
+        }
+    }
+
+    private void write() {
+        List<Record> records = new ArrayList<>();
+        for (Record record = queue.poll(); record != null; record = queue.poll()) {
+            records.add(record);
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            long idOffset = getIdOffset();
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement instances = connection.prepareStatement(INSERT_PROCESS_INSTANCE);
+                 PreparedStatement variables = connection.prepareStatement(INSERT_VARIABLE)) {
+                for (Record record : records) {
+                    long id = idOffset + record.processInstanceId;
+                    instances.setLong(1, id);
+                    instances.setString(2, record.processId);
+                    instances.setString(3, record.processName);
+                    instances.setString(4, record.deploymentId);
+                    instances.setTimestamp(5, new Timestamp(record.start.getTime()));
+                    instances.setTimestamp(6, new Timestamp(record.end.getTime()));
+                    instances.setLong(7, record.end.getTime() - record.start.getTime());
+                    instances.setInt(8, record.state);
+                    instances.addBatch();
+                    for (Map.Entry<String, Object> variable : record.variables.entrySet()) {
+                        if (variable.getValue() == null) {
+                            continue;
+                        }
+                        variables.setLong(1, id);
+                        variables.setString(2, record.processId);
+                        variables.setString(3, variable.getKey());
+                        variables.setString(4, variable.getKey());
+                        variables.setString(5, variable.getValue().toString());
+                        variables.setString(6, record.deploymentId);
+                        variables.setTimestamp(7, new Timestamp(record.start.getTime()));
+                        variables.addBatch();
+                    }
+                }
+                instances.executeBatch();
+                variables.executeBatch();
+                connection.commit();
+                logger.debug("{} generation records written",
+                             records.size());
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            // reports miss these generations, nothing else depends on the records
+            logger.warn("Unable to write {} generation records due to {}",
+                        records.size(),
+                        e.getMessage());
+        }
+    }
+
+    /*
+     * highest id logged before the first in memory generation of this run, read once
+     */
+    private synchronized long getIdOffset() throws SQLException {
+        if (idOffset < 0) {
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet result = statement.executeQuery("select max(processInstanceId) from ProcessInstanceLog")) {
+                idOffset = result.next() ? result.getLong(1) : 0;
+            }
+        }
+        return idOffset;
+    }
+
+    /**
+     * Generation run in memory, state as in {@link org.kie.api.runtime.process.ProcessInstance}.
+     */
+    public static class Record {
+
+        private final long processInstanceId;
+        private final String processId;
+        private final String processName;
+        private final String deploymentId;
+        private final Date start;
+        private final Date end;
+        private final int state;
+        private final Map<String, Object> variables;
+
+        public Record(long processInstanceId,
+                      String processId,
+                      String processName,
+                      String deploymentId,
+                      Date start,
+                      Date end,
+                      int state,
+                      Map<String, Object> variables) {
+            this.processInstanceId = processInstanceId;
+            this.processId = processId;
+            this.processName = processName;
+            this.deploymentId = deploymentId;
+            this.start = start;
+            this.end = end;
+            this.state = state;
+            this.variables = variables;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.jbpm.bootstrap.model.Project;
+import org.jbpm.bootstrap.service.archive.ArchiveFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Handles generation requests asynchronously so servlet threads are released as soon as the request
+ * is read and stay available for cheap endpoints (reports, static resources) while generations run.
+ * Generations are started on virtual threads when the JVM supports them, otherwise on a dedicated pool
+ * of configured size. Once the process runs no thread waits for it - the result is set when the future
+ * of the archive completes (on the wait scheduler of {@link BuildComponent}). Batches are generated
+ * on the pool (or virtual threads) as a whole.
+ * <br/>
+ * Request that does not get its archive in configured time is answered with 503 and its generation
+ * is interrupted, same as when the client goes away - interrupted generation is cancelled, unless other
+ * coalesced requests still wait for it (see {@link GenerationFlights}).
+ */
+@Component
+public class GenerationRequestExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationRequestExecutor.class);
+
+    @Value("${bootstrap.async.virtual-threads:true}")
+    private boolean virtualThreads;
+
+    @Value("${bootstrap.async.threads:100}")
+    private int threads;
+
+    @Value("${bootstrap.async.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${bootstrap.async.timeout-ms:180000}")
+    private long timeout;
+
+    @Value("${bootstrap.async.retry-after-seconds:30}")
+    private long retryAfterSeconds;
+
+    @Autowired
+    private BuildComponent buildComponent;
+
+    @Autowired
+    private BatchGenerator batchGenerator;
+
+    private ExecutorService executor;
+    private boolean virtual;
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    @PostConstruct
+    public void init() {
+        if (virtualThreads) {
+            executor = newVirtualThreadExecutor();
+            virtual = executor != null;
+        }
+        if (executor == null) {
+            AtomicInteger counter = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads,
+                                                             threads,
+                                                             60L,
+                                                             TimeUnit.SECONDS,
+                                                             new ArrayBlockingQueue<>(queueCapacity),
+                                                             runnable -> {
+                                                                 Thread thread = new Thread(runnable,
+                                                                                            "generation-request-" + counter.incrementAndGet());
+                                                                 thread.setDaemon(true);
+                                                                 return thread;
+                                                             });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        logger.info("Generation requests handled asynchronously on {}",
+                    virtual ? "virtual threads" : "pool of " + threads + " threads");
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Generates given project in the background, the result is set once the archive is ready to be sent.
+     *
+     * @throws GenerationRejectedException when there are too many requests waiting already
+     */
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> buildApp(Project project,
+                                                                          boolean isWeb,
+                                                                          String client) {
+        return buildApp(project,
+                        isWeb,
+                        client,
+                        ArchiveFormat.DEFAULT);
+    }
+
+    /**
+     * Same as {@link #buildApp(Project, boolean, String)} with archive in given format.
+     *
+     * @throws GenerationRejectedException when there are too many requests waiting already
+     */
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> buildApp(Project project,
+                                                                          boolean isWeb,
+                                                                          String client,
+                                                                          ArchiveFormat format) {
+        return submit(() -> buildComponent.generateAppAsync(project,
+                                                            isWeb,
+                                                            client,
+                                                            format),
+                      isWeb,
+                      timeout);
+    }
+
+    /**
+     * Generates archive with given projects in the background (see {@link BatchGenerator}), with timeout
+     * of batches.
+     *
+     * @throws GenerationRejectedException when there are too many requests waiting already
+     */
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> buildBatch(List<Project> projects,
+                                                                            String client) {
+        return submit(() -> CompletableFuture.completedFuture(batchGenerator.generate(projects,
+                                                                                      client)),
+                      false,
+                      batchGenerator.getTimeout());
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    private DeferredResult<ResponseEntity<StreamingResponseBody>> submit(Callable<CompletableFuture<GeneratedArchive>> generation,
+                                                                         boolean isWeb,
+                                                                         long timeout) {
+        DeferredResult<ResponseEntity<StreamingResponseBody>> result = new DeferredResult<>(timeout);
+        AtomicReference<CompletableFuture<GeneratedArchive>> generated = new AtomicReference<>();
+        Future<?> task;
+        try {
+            task = executor.submit(() -> start(result,
+                                               generation,
+                                               generated,
+                                               isWeb));
+        } catch (RejectedExecutionException e) {
+            throw new GenerationRejectedException("Too many generation requests in progress",
+                                                  HttpStatus.SERVICE_UNAVAILABLE,
+                                                  retryAfterSeconds);
+        }
+        Runnable cancel = () -> {
+            task.cancel(true);
+            CompletableFuture<GeneratedArchive> future = generated.get();
+            if (future != null) {
+                future.cancel(true);
+            }
+        };
+        result.onTimeout(() -> {
+            cancel.run();
+            result.setErrorResult(new GenerationRejectedException("Generation did not finish in time",
+                                                                  HttpStatus.SERVICE_UNAVAILABLE,
+                                                                  retryAfterSeconds));
+        });
+        // most likely the client went away
+        result.onError(error -> cancel.run());
+        return result;
+    }
+
+    private void start(DeferredResult<ResponseEntity<StreamingResponseBody>> result,
+                       Callable<CompletableFuture<GeneratedArchive>> generation,
+                       AtomicReference<CompletableFuture<GeneratedArchive>> generated,
+                       boolean isWeb) {
+        active.incrementAndGet();
+        CompletableFuture<GeneratedArchive> future;
+        try {
+            future = generation.call();
+        } catch (Exception e) {
+            active.decrementAndGet();
+            result.setErrorResult(e);
+            return;
+        }
+        generated.set(future);
+        if (result.isSetOrExpired()) {
+            // given up while it was being started
+            future.cancel(true);
+        }
+        future.whenComplete((archive, error) -> {
+            active.decrementAndGet();
+            if (error != null) {
+                result.setErrorResult(BuildComponent.failure(error));
+                return;
+            }
+            respond(result,
+                    archive,
+                    isWeb);
+        });
+    }
+
+    private void respond(DeferredResult<ResponseEntity<StreamingResponseBody>> result,
+                         GeneratedArchive archive,
+                         boolean isWeb) {
+        try {
+            if (result.isSetOrExpired() || !result.setResult(buildComponent.buildAppResponse(archive,
+                                                                                             isWeb))) {
+                // nobody will send it
+                archive.discard();
+            }
+        } catch (Exception e) {
+            // archive is discarded by the response builder
+            result.setErrorResult(e);
+        }
+    }
+
+    /*
+     * Executors.newVirtualThreadPerTaskExecutor() of JDK 21+, null when not available
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (Exception e) {
+            logger.warn("Unable to use virtual threads due to {}",
+                        e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Folders generations (and everything they run - maven builds, archiving) work in. All of them are kept
+ * under one configurable root, that can be e.g. a tmpfs mount so generations do not compete for a busy
+ * disk. Number of folders in use and total size of the root are limited, generations are rejected
+ * when either is reached.
+ * <br/>
+ * A few empty folders are kept ready to be handed out, released folders are emptied and reused.
+ * Janitor removes folders no generation holds (left over by crashed or abandoned runs) once they
+ * have not been touched for configured time, reclaims folders held longer than any generation can take
+ * (their holder never released them) and refreshes the usage the size limit is checked against.
+ * Archives and folders are released via {@link GeneratedArchive#discard()} - as archives are not managed
+ * by Spring the workspace is available as a singleton too.
+ */
+@Component
+public class GenerationWorkspace {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationWorkspace.class);
+
+    private static final Pattern FOLDER = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+    private static volatile GenerationWorkspace instance;
+
+    @Value("${bootstrap.workspace.location:}")
+    private String location;
+
+    @Value("${bootstrap.workspace.max-size-mb:4096}")
+    private long maxSizeMb;
+
+    @Value("${bootstrap.workspace.max-folders:200}")
+    private int maxFolders;
+
+    @Value("${bootstrap.workspace.spare-folders:10}")
+    private int spareFolders;
+
+    @Value("${bootstrap.workspace.orphan-age-minutes:15}")
+    private long orphanAgeMinutes;
+
+    // longer than the batch timeout plus writing the response
+    @Value("${bootstrap.workspace.held-max-age-minutes:30}")
+    private long heldMaxAgeMinutes;
+
+    @Value("${bootstrap.workspace.retry-after-seconds:30}")
+    private long retryAfterSeconds;
+
+    private File root;
+    private String fileStoreType;
+
+    // folder name -> when it gets reclaimed unless released before
+    private final Map<String, Long> held = new HashMap<>();
+    private final Deque<File> spare = new ArrayDeque<>();
+
+    private volatile long usedBytes;
+    private volatile int folders;
+
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong orphansRemoved = new AtomicLong();
+    private final AtomicLong heldReclaimed = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+
+    public static GenerationWorkspace get() {
+        return instance;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (location == null || location.isEmpty()) {
+            root = new File(System.getProperty("java.io.tmpdir"), "jbpm-bootstrap-workspace");
+        } else {
+            root = new File(location);
+        }
+        root.mkdirs();
+        // nothing survives restart, whatever is there was left over by previous runs
+        for (File folder : listFolders()) {
+            FileSystemUtils.deleteRecursively(folder);
+        }
+        try {
+            fileStoreType = Files.getFileStore(root.toPath()).type();
+        } catch (IOException e) {
+            fileStoreType = "unknown";
+        }
+        refill();
+        instance = this;
+        logger.info("Generation workspace at {} ({}), max {} folders, max size {} MB",
+                    root,
+                    fileStoreType,
+                    maxFolders,
+                    maxSizeMb);
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Hands out an empty folder for a generation. Caller must {@link #release(File)} it once done.
+     *
+     * @throws GenerationRejectedException when the workspace is full
+     */
+    public File allocate() {
+        File folder;
+        synchronized (this) {
+            if (held.size() >= maxFolders) {
+                throw rejected("Generation workspace is full (" + held.size() + " folders in use)");
+            }
+            if (maxSizeMb > 0 && usedBytes >= maxSizeMb * 1024 * 1024) {
+                throw rejected("Generation workspace is full (" + usedBytes + " bytes used)");
+            }
+            folder = spare.pollFirst();
+            if (folder == null) {
+                folder = new File(root,
+                                  UUID.randomUUID().toString());
+            }
+            held.put(folder.getName(),
+                     System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(heldMaxAgeMinutes));
+        }
+        // spare folder might have been removed from outside
+        folder.mkdirs();
+        folder.setLastModified(System.currentTimeMillis());
+        return folder;
+    }
+
+    /**
+     * Removes content of given folder and keeps it for reuse, or removes it when there are enough spare
+     * folders. Folders outside of the workspace are just removed. Only folders of runs that finished
+     * normally are released, see {@link #abandon(File)}.
+     */
+    public void release(File folder) {
+        if (!root.equals(folder.getParentFile())) {
+            FileSystemUtils.deleteRecursively(folder);
+            return;
+        }
+        boolean cleaned = clean(folder);
+        boolean reused;
+        synchronized (this) {
+            reused = held.remove(folder.getName()) != null && cleaned && spare.size() < spareFolders;
+            if (reused) {
+                spare.addLast(folder);
+            }
+        }
+        if (!reused) {
+            FileSystemUtils.deleteRecursively(folder);
+        }
+    }
+
+    /**
+     * Gives up given folder of a run that did not finish normally (failed, cancelled or timed out). Process
+     * of such run might still write into the folder so it's never reused, just removed - whatever the process
+     * writes afterwards is removed by the janitor as an orphan.
+     */
+    public void abandon(File folder) {
+        synchronized (this) {
+            held.remove(folder.getName());
+        }
+        boolean deleted = FileSystemUtils.deleteRecursively(folder);
+        abandoned.incrementAndGet();
+        logger.debug("Workspace folder {} abandoned ({})",
+                     folder,
+                     deleted);
+    }
+
+    /**
+     * Keeps given held folder from being reclaimed for given time on top of the usual limit, for archives
+     * deliberately kept after their generation finished - e.g. results of generation jobs waiting to be
+     * downloaded.
+     */
+    public synchronized void extend(File folder,
+                                    long millis) {
+        held.computeIfPresent(folder.getName(),
+                              (name, reclaimAt) -> Math.max(reclaimAt,
+                                                            System.currentTimeMillis() + millis + TimeUnit.MINUTES.toMillis(heldMaxAgeMinutes)));
+    }
+
+    /**
+     * Removes content of given folder, the folder itself stays held by the caller.
+     *
+     * @return true if everything was removed
+     */
+    public boolean empty(File folder) {
+        return clean(folder);
+    }
+
+    /**
+     * Removes folders nobody holds that have not been modified for a while, as well as folders held for
+     * longer than configured (or extended) time, and refreshes workspace usage.
+     */
+    @Scheduled(fixedDelayString = "${bootstrap.workspace.janitor-interval-ms:60000}")
+    public void removeOrphans() {
+        long now = System.currentTimeMillis();
+        long orphanedBefore = now - TimeUnit.MINUTES.toMillis(orphanAgeMinutes);
+        Set<String> keep;
+        Set<String> reclaimed = new HashSet<>();
+        synchronized (this) {
+            // late release of a reclaimed folder just removes it again
+            for (Iterator<Map.Entry<String, Long>> entries = held.entrySet().iterator(); entries.hasNext(); ) {
+                Map.Entry<String, Long> entry = entries.next();
+                if (entry.getValue() < now) {
+                    entries.remove();
+                    reclaimed.add(entry.getKey());
+                }
+            }
+            keep = new HashSet<>(held.keySet());
+            for (File folder : spare) {
+                keep.add(folder.getName());
+            }
+        }
+        long used = 0;
+        int count = 0;
+        for (File entry : listFolders()) {
+            if (reclaimed.contains(entry.getName())) {
+                boolean deleted = FileSystemUtils.deleteRecursively(entry);
+                heldReclaimed.incrementAndGet();
+                logger.warn("Workspace folder {} held for longer than allowed reclaimed ({})",
+                            entry,
+                            deleted);
+                continue;
+            }
+            if (!keep.contains(entry.getName()) && entry.lastModified() < orphanedBefore) {
+                boolean deleted = FileSystemUtils.deleteRecursively(entry);
+                orphansRemoved.incrementAndGet();
+                logger.info("Orphaned workspace folder {} removed ({})",
+                            entry,
+                            deleted);
+                continue;
+            }
+            used += size(entry.toPath());
+            count++;
+        }
+        usedBytes = used;
+        folders = count;
+        refill();
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public int getFolders() {
+        return folders;
+    }
+
+    public synchronized int getHeldFolders() {
+        return held.size();
+    }
+
+    public long getUsableBytes() {
+        return root.getUsableSpace();
+    }
+
+    public long getOrphansRemoved() {
+        return orphansRemoved.get();
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("root", root.getAbsolutePath());
+        statistics.put("fileStore", fileStoreType);
+        statistics.put("held", held.size());
+        statistics.put("spare", spare.size());
+        statistics.put("folders", folders);
+        statistics.put("usedBytes", usedBytes);
+        statistics.put("usableBytes", root.getUsableSpace());
+        statistics.put("maxFolders", maxFolders);
+        statistics.put("maxSizeMb", maxSizeMb);
+        statistics.put("rejections", rejections.get());
+        statistics.put("orphansRemoved", orphansRemoved.get());
+        statistics.put("heldReclaimed", heldReclaimed.get());
+        statistics.put("abandoned", abandoned.get());
+        return statistics;
+    }
+
+    private void refill() {
+        while (true) {
+            synchronized (this) {
+                if (spare.size() >= spareFolders) {
+                    return;
+                }
+            }
+            File folder = new File(root,
+                                   UUID.randomUUID().toString());
+            if (!folder.mkdirs()) {
+                logger.warn("Unable to create workspace folder {}",
+                            folder);
+                return;
+            }
+            synchronized (this) {
+                spare.addLast(folder);
+            }
+        }
+    }
+
+    /*
+     * only folders named as the workspace names them, so it's safe to point it to a shared directory
+     */
+    private File[] listFolders() {
+        File[] entries = root.listFiles(file -> file.isDirectory() && FOLDER.matcher(file.getName()).matches());
+        return entries == null ? new File[0] : entries;
+    }
+
+    private GenerationRejectedException rejected(String message) {
+        rejections.incrementAndGet();
+        return new GenerationRejectedException(message,
+                                               HttpStatus.SERVICE_UNAVAILABLE,
+                                               retryAfterSeconds);
+    }
+
+    /*
+     * removes everything inside of the folder but the folder itself
+     */
+    private static boolean clean(File folder) {
+        File[] entries = folder.listFiles();
+        if (entries == null) {
+            return false;
+        }
+        boolean cleaned = true;
+        for (File entry : entries) {
+            cleaned &= FileSystemUtils.deleteRecursively(entry);
+        }
+        return cleaned;
+    }
+
+    private static long size(Path path) {
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.mapToLong(GenerationWorkspace::fileSize).sum();
+        } catch (IOException | RuntimeException e) {
+            // removed while walking it
+            return 0;
+        }
+    }
+
+    private static long fileSize(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path,
+                                                                  BasicFileAttributes.class);
+            return attributes.isRegularFile() ? attributes.size() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import javax.annotation.PreDestroy;
+
+import org.jbpm.kie.services.impl.KModuleDeploymentUnit;
+import org.jbpm.services.api.DeploymentService;
+import org.jbpm.services.api.model.DeployedUnit;
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.api.event.process.ProcessStartedEvent;
+import org.kie.api.executor.ExecutorService;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.RuntimeEngine;
+import org.kie.api.runtime.manager.RuntimeEnvironmentBuilder;
+import org.kie.api.runtime.manager.RuntimeManager;
+import org.kie.api.runtime.manager.RuntimeManagerFactory;
+import org.kie.api.runtime.process.ProcessInstance;
+import org.kie.api.runtime.process.WorkItemManager;
+import org.kie.api.runtime.process.WorkflowProcessInstance;
+import org.kie.internal.runtime.conf.AuditMode;
+import org.kie.internal.runtime.conf.DeploymentDescriptor;
+import org.kie.internal.runtime.conf.PersistenceMode;
+import org.kie.internal.runtime.manager.RuntimeManagerRegistry;
+import org.kie.internal.runtime.manager.context.EmptyContext;
+import org.kie.internal.runtime.manager.deploy.DeploymentDescriptorIO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Runs <code>GenerateProject</code> process of the bootstrap kjar in an in-memory session, without
+ * persistence of process instances and without audit logs - the process lives for seconds and is never
+ * resumed. Session is created from the deployed kjar container with its (merged) deployment descriptor,
+ * so work item handlers and event listeners are the same as in the persistent container, and steps
+ * marked as async are still run by jBPM executor.
+ * <br/>
+ * Unlike persistent sessions the in-memory one does not serialize calls by itself, while generations are
+ * started and aborted by request threads and their async steps completed by executor threads. So every call
+ * of the session (and of its work item manager) - including those of the executor that finds the session
+ * via the registered runtime manager - is made while holding the same lock.
+ * <br/>
+ * Only a compact record of every ended instance is written by {@link GenerationRecordWriter} so reports
+ * keep working. Enabled with <code>bootstrap.runtime.mode=in-memory</code>.
+ */
+@Component
+@Profile("!loadtest")
+@ConditionalOnProperty(name = "bootstrap.runtime.mode", havingValue = "in-memory")
+public class InMemoryProcessLauncher implements GenerationProcessLauncher {
+
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryProcessLauncher.class);
+
+    private static final String CONTAINER_ID = "jbpm-bootstrap-kjar";
+    private static final String PROCESS_ID = "GenerateProject";
+    private static final String IDENTIFIER = CONTAINER_ID + "-in-memory";
+
+    @Autowired
+    private DeploymentService deploymentService;
+
+    // available only when jbpm executor is enabled, async steps run synchronously without it
+    @Autowired(required = false)
+    private ExecutorService executorService;
+
+    @Autowired
+    private GenerationRecordWriter recordWriter;
+
+    private RuntimeManager manager;
+    private KieSession session;
+
+    // held by every call of the session
+    private final Object lock = new Object();
+
+    private final Map<Long, Date> started = new ConcurrentHashMap<>();
+
+    @Override
+    public long start(Map<String, Object> parameters) {
+        logger.info("About to start new in memory process with container {} and process id {}",
+                    CONTAINER_ID,
+                    PROCESS_ID);
+        return getSession().startProcess(PROCESS_ID,
+                                         parameters).getId();
+    }
+
+    @Override
+    public void abort(long processInstanceId) {
+        try {
+            getSession().abortProcessInstance(processInstanceId);
+            logger.info("In memory process instance {} aborted",
+                        processInstanceId);
+        } catch (IllegalArgumentException e) {
+            logger.debug("In memory process instance {} has already ended",
+                         processInstanceId);
+        }
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return false;
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (manager != null) {
+            manager.close();
+            manager = null;
+            session = null;
+        }
+    }
+
+    /*
+     * created on first use as the kjar container is deployed by kie server during start up
+     */
+    private synchronized KieSession getSession() {
+        if (session != null) {
+            return session;
+        }
+        DeployedUnit deployed = deploymentService.getDeployedUnit(CONTAINER_ID);
+        if (deployed == null) {
+            throw new IllegalStateException("Container " + CONTAINER_ID + " is not deployed");
+        }
+        KModuleDeploymentUnit unit = (KModuleDeploymentUnit) deployed.getDeploymentUnit();
+
+        // copy of the deployed descriptor, the container keeps using its own
+        DeploymentDescriptor descriptor = DeploymentDescriptorIO.fromXml(new ByteArrayInputStream(DeploymentDescriptorIO.toXml(unit.getDeploymentDescriptor())
+                                                                                                          .getBytes(StandardCharsets.UTF_8)));
+        descriptor.getBuilder()
+                .persistenceMode(PersistenceMode.NONE)
+                .auditMode(AuditMode.NONE);
+
+        RuntimeEnvironmentBuilder builder = RuntimeEnvironmentBuilder.Factory.get()
+                .newDefaultInMemoryBuilder(unit.getGroupId(),
+                                           unit.getArtifactId(),
+                                           unit.getVersion(),
+                                           unit.getKbaseName(),
+                                           unit.getKsessionName())
+                .addEnvironmentEntry("KieDeploymentDescriptor",
+                                     descriptor);
+        if (executorService != null) {
+            builder.addEnvironmentEntry("ExecutorService",
+                                        executorService);
+        }
+        manager = RuntimeManagerFactory.Factory.get().newSingletonRuntimeManager(builder.get(),
+                                                                                 IDENTIFIER);
+        // executor completes async steps on the session of the manager registered under the identifier
+        RuntimeManager serializedManager = (RuntimeManager) serialized(manager,
+                                                                       lock);
+        RuntimeManagerRegistry.get().remove(IDENTIFIER);
+        RuntimeManagerRegistry.get().register(serializedManager);
+        session = serializedManager.getRuntimeEngine(EmptyContext.get()).getKieSession();
+        session.addEventListener(new RecordingListener());
+        logger.info("In memory runtime {} created for {}:{}:{}",
+                    IDENTIFIER,
+                    unit.getGroupId(),
+                    unit.getArtifactId(),
+                    unit.getVersion());
+        return session;
+    }
+
+    /*
+     * proxy of given runtime manager, runtime engine, session or work item manager that makes every call of
+     * a session or a work item manager while holding given lock - sessions, work item managers and engines
+     * it returns are serialized the same way
+     */
+    static Object serialized(Object target,
+                             Object lock) {
+        ClassLoader classLoader = target.getClass().getClassLoader();
+        Class<?>[] interfaces = Stream.of(ClassUtils.getAllInterfacesForClass(target.getClass(),
+                                                                              classLoader))
+                .filter(type -> Modifier.isPublic(type.getModifiers()))
+                .toArray(Class<?>[]::new);
+        return Proxy.newProxyInstance(classLoader,
+                                      interfaces,
+                                      new Serialized(target,
+                                                     lock));
+    }
+
+    private static class Serialized implements InvocationHandler {
+
+        private final Object target;
+        private final Object lock;
+        private final boolean locked;
+
+        Serialized(Object target,
+                   Object lock) {
+            this.target = target;
+            this.lock = lock;
+            this.locked = target instanceof KieSession || target instanceof WorkItemManager;
+        }
+
+        @Override
+        public Object invoke(Object proxy,
+                             Method method,
+                             Object[] args) throws Throwable {
+            // e.g. engines given back to the manager to be disposed
+            Object[] arguments = args == null ? null : Stream.of(args).map(Serialized::unwrap).toArray();
+            Object result;
+            if (locked) {
+                synchronized (lock) {
+                    result = call(method,
+                                  arguments);
+                }
+            } else {
+                result = call(method,
+                              arguments);
+            }
+            if (method.getReturnType().isInterface()
+                    && (result instanceof KieSession || result instanceof WorkItemManager || result instanceof RuntimeEngine)) {
+                return serialized(result,
+                                  lock);
+            }
+            return result;
+        }
+
+        private Object call(Method method,
+                            Object[] arguments) throws Throwable {
+            try {
+                return method.invoke(target,
+                                     arguments);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private static Object unwrap(Object argument) {
+            if (argument != null && Proxy.isProxyClass(argument.getClass()) && Proxy.getInvocationHandler(argument) instanceof Serialized) {
+                return ((Serialized) Proxy.getInvocationHandler(argument)).target;
+            }
+            return argument;
+        }
+    }
+
+    /**
+     * Hands ended generations over to the record writer.
+     */
+    private class RecordingListener extends DefaultProcessEventListener {
+
+        @Override
+        public void beforeProcessStarted(ProcessStartedEvent event) {
+            started.put(event.getProcessInstance().getId(),
+                        new Date());
+        }
+
+        @Override
+        public void afterProcessCompleted(ProcessCompletedEvent event) {
+            ProcessInstance processInstance = event.getProcessInstance();
+            Date start = started.remove(processInstance.getId());
+            if (!PROCESS_ID.equals(processInstance.getProcessId()) || !(processInstance instanceof WorkflowProcessInstance)) {
+                return;
+            }
+            Map<String, Object> variables = new HashMap<>();
+            for (String variable : ReportAggregates.VARIABLES) {
+                variables.put(variable,
+                              ((WorkflowProcessInstance) processInstance).getVariable(variable));
+            }
+            recordWriter.add(new GenerationRecordWriter.Record(processInstance.getId(),
+                                                               processInstance.getProcessId(),
+                                                               processInstance.getProcessName(),
+                                                               CONTAINER_ID,
+                                                               start == null ? new Date() : start,
+                                                               new Date(),
+                                                               processInstance.getState(),
+                                                               variables));
+        }
+    }
+}
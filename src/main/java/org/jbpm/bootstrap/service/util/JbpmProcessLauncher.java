@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.util.Map;
+
+import org.jbpm.services.api.ProcessInstanceNotFoundException;
+import org.jbpm.services.api.ProcessService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Starts <code>GenerateProject</code> process of the bootstrap kjar container. Aborting the process
+ * instance aborts its active work items - steps waiting in jBPM executor are cancelled and zip work item
+ * handler stops archiving.
+ */
+@Component
+@Profile("!loadtest")
+@ConditionalOnProperty(name = "bootstrap.runtime.mode", havingValue = "persistent", matchIfMissing = true)
+public class JbpmProcessLauncher implements GenerationProcessLauncher {
+
+    private static final Logger logger = LoggerFactory.getLogger(JbpmProcessLauncher.class);
+
+    private static final String CONTAINER_ID = "jbpm-bootstrap-kjar";
+    private static final String PROCESS_ID = "GenerateProject";
+
+    @Autowired
+    private ProcessService processService;
+
+    @Override
+    public long start(Map<String, Object> parameters) {
+        logger.info("About to start new process with container {} and process id {}",
+                    CONTAINER_ID,
+                    PROCESS_ID);
+        return processService.startProcess(CONTAINER_ID,
+                                           PROCESS_ID,
+                                           parameters);
+    }
+
+    @Override
+    public void abort(long processInstanceId) {
+        try {
+            processService.abortProcessInstance(processInstanceId);
+            logger.info("Process instance {} aborted",
+                        processInstanceId);
+        } catch (ProcessInstanceNotFoundException e) {
+            logger.debug("Process instance {} has already ended",
+                         processInstanceId);
+        }
+    }
+}
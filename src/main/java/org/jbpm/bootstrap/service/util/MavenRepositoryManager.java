@@ -0,0 +1,285 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.jbpm.bootstrap.model.Project;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Dedicated local Maven repository used by generation runs. Once all archetypes and dependencies
+ * of a project version have been resolved into it by the warm up (one generation per capability),
+ * generations of that version run Maven in offline mode so they do not check remote repositories.
+ * Version falls back to online mode whenever an offline run fails to resolve dependencies and is
+ * warmed up again in the background after a while (with increasing delay while warm ups keep failing).
+ * <br/>
+ * Maven itself is run by the work item handlers of the kjar so the repository is passed to it
+ * as part of the maven settings process variable.
+ */
+@Component
+public class MavenRepositoryManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(MavenRepositoryManager.class);
+
+    @Value("${bootstrap.maven.repository.enabled:true}")
+    private boolean enabled;
+
+    @Value("${bootstrap.maven.repository.location:}")
+    private String location;
+
+    @Value("${bootstrap.maven.warmup.enabled:true}")
+    private boolean warmUpEnabled;
+
+    @Value("${bootstrap.maven.warmup.versions:}")
+    private String warmUpVersions;
+
+    @Value("${bootstrap.maven.warmup.capabilities:bpm,brm,planner}")
+    private String warmUpCapabilities;
+
+    @Value("${bootstrap.maven.warmup.retry-delay-ms:300000}")
+    private long retryDelay;
+
+    @Autowired
+    private GenerationWorkspace workspace;
+
+    private File repository;
+
+    private final Set<String> warmVersions = ConcurrentHashMap.newKeySet();
+    private final Set<String> scheduledWarmUps = ConcurrentHashMap.newKeySet();
+
+    private volatile SourceGenerator generator;
+
+    private final ScheduledExecutorService warmUps = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable,
+                                   "maven-warm-up-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final RunStatistics onlineRuns = new RunStatistics();
+    private final RunStatistics offlineRuns = new RunStatistics();
+    private final RunStatistics warmUpRuns = new RunStatistics();
+
+    @PostConstruct
+    public void init() {
+        if (location == null || location.isEmpty()) {
+            repository = new File(System.getProperty("user.home"),
+                                  ".m2" + File.separator + "jbpm-bootstrap-repository");
+        } else {
+            repository = new File(location);
+        }
+        logger.info("Dedicated maven repository {} (warm up {}) located at {}",
+                    enabled ? "enabled" : "disabled",
+                    warmUpEnabled ? "enabled" : "disabled",
+                    repository);
+    }
+
+    @PreDestroy
+    public void close() {
+        warmUps.shutdownNow();
+    }
+
+    public boolean isOffline(String version) {
+        return enabled && warmVersions.contains(version);
+    }
+
+    /**
+     * Maven arguments to be appended to maven settings of a generation run.
+     */
+    public String getArguments(boolean offline) {
+        if (!enabled) {
+            return "";
+        }
+        return "-Dmaven.repo.local=" + repository.getAbsolutePath() + (offline ? " -o" : "");
+    }
+
+    public void recordRun(boolean offline,
+                          long duration) {
+        (offline ? offlineRuns : onlineRuns).record(duration);
+    }
+
+    /**
+     * Switches given version back to online mode, e.g. when offline run failed due to missing artifact,
+     * until it is warmed up again.
+     */
+    public void markCold(String version) {
+        if (warmVersions.remove(version)) {
+            logger.warn("Version {} switched back to online mode, warm up scheduled in {} ms",
+                        version,
+                        retryDelay);
+            scheduleWarmUp(version,
+                           retryDelay);
+        }
+    }
+
+    /**
+     * Resolves everything needed by generations of configured versions (or the default one) into
+     * the repository by generating a project for each capability. Versions generated without errors
+     * are switched to offline mode.
+     */
+    public void warmUp(String defaultVersion,
+                       SourceGenerator generator) {
+        if (!enabled || !warmUpEnabled) {
+            return;
+        }
+        this.generator = generator;
+        List<String> versions = split(warmUpVersions);
+        if (versions.isEmpty()) {
+            versions = Collections.singletonList(defaultVersion);
+        }
+        for (String version : versions) {
+            warmUp(version);
+        }
+    }
+
+    /*
+     * generates project of each capability of given version, version is switched to offline mode when all succeed
+     */
+    private boolean warmUp(String version) {
+        long timestamp = System.currentTimeMillis();
+        try {
+            for (String capability : split(warmUpCapabilities)) {
+                Project project = new Project();
+                project.setName("warmup");
+                project.setPackageName("org.jbpm.bootstrap.warmup");
+                project.setVersion(version);
+                project.setOptions(Arrays.asList("kjar",
+                                                 "model",
+                                                 "service"));
+                project.setCapabilities(Collections.singletonList(capability));
+
+                File folder = workspace.allocate();
+                boolean generated = false;
+                try {
+                    generator.generate(project,
+                                       folder);
+                    generated = true;
+                } finally {
+                    if (generated) {
+                        workspace.release(folder);
+                    } else {
+                        // the process might not be done with the folder yet
+                        workspace.abandon(folder);
+                    }
+                }
+            }
+            long duration = System.currentTimeMillis() - timestamp;
+            warmUpRuns.record(duration);
+            warmVersions.add(version);
+            logger.info("Maven repository warmed up for version {} in {} ms, generations switched to offline mode",
+                        version,
+                        duration);
+            return true;
+        } catch (Exception e) {
+            logger.warn("Unable to warm up maven repository for version {} due to {}, generations stay in online mode",
+                        version,
+                        e.getMessage());
+            return false;
+        }
+    }
+
+    /*
+     * warms up given version in the background, again with doubled delay (up to eight times the configured one) until it succeeds
+     */
+    private void scheduleWarmUp(String version,
+                                long delay) {
+        if (generator == null || !scheduledWarmUps.add(version)) {
+            return;
+        }
+        try {
+            warmUps.schedule(() -> {
+                scheduledWarmUps.remove(version);
+                if (!warmVersions.contains(version) && !warmUp(version)) {
+                    scheduleWarmUp(version,
+                                   Math.min(delay * 2,
+                                            retryDelay * 8));
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            scheduledWarmUps.remove(version);
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("enabled", enabled);
+        statistics.put("repository", repository.getAbsolutePath());
+        statistics.put("offlineVersions", new ArrayList<>(warmVersions));
+        statistics.put("warmUp", warmUpRuns.toMap());
+        statistics.put("online", onlineRuns.toMap());
+        statistics.put("offline", offlineRuns.toMap());
+        return statistics;
+    }
+
+    private static List<String> split(String values) {
+        List<String> result = new ArrayList<>();
+        if (values != null) {
+            for (String value : values.split(",")) {
+                if (!value.trim().isEmpty()) {
+                    result.add(value.trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    private static class RunStatistics {
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLong last = new AtomicLong();
+
+        void record(long duration) {
+            count.incrementAndGet();
+            total.addAndGet(duration);
+            max.accumulateAndGet(duration,
+                                 Math::max);
+            last.set(duration);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            long runs = count.get();
+            map.put("runs", runs);
+            map.put("averageMs", runs == 0 ? 0 : total.get() / runs);
+            map.put("maxMs", max.get());
+            map.put("lastMs", last.get());
+            return map;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counters of <code>GenerateProject</code> process instances the reports are built from, so reports
+ * do not need to query the logs. Loaded once from the logs (see <code>ReportAggregatesLoader</code>) and
+ * then kept up to date by process event listener - same as completion registry it's a plain singleton
+ * as the listener is not managed by Spring.
+ * <br/>
+ * Counts by variable include all started instances, completed counts only successfully completed ones.
+ * Events that happen while loading are kept aside and only those of process instances newer than
+ * the ones found in the logs are applied once loaded, so nothing is counted twice.
+ */
+public class ReportAggregates {
+
+    private static final ReportAggregates INSTANCE = new ReportAggregates();
+
+    public static final List<String> VARIABLES = Collections.unmodifiableList(Arrays.asList("projectSetup",
+                                                                                            "projectVersion",
+                                                                                            "projectOptions",
+                                                                                            "generationType"));
+
+    private static final int MAX_DAYS = 400;
+
+    private long completed;
+    private final TreeMap<String, Long> completedByDay = new TreeMap<>();
+    private final Map<String, Map<String, Long>> countsByVariable = new HashMap<>();
+    private volatile long errors;
+
+    private boolean loaded;
+    private boolean loading;
+    private final List<PendingEvent> pending = new ArrayList<>();
+
+    public static ReportAggregates get() {
+        return INSTANCE;
+    }
+
+    public synchronized void processStarted(long processInstanceId,
+                                            Map<String, Object> variables) {
+        if (loading) {
+            pending.add(new PendingEvent(processInstanceId,
+                                         variables,
+                                         null));
+            return;
+        }
+        countVariables(variables);
+    }
+
+    public synchronized void processCompleted(long processInstanceId,
+                                              LocalDate day) {
+        if (loading) {
+            pending.add(new PendingEvent(processInstanceId,
+                                         null,
+                                         day));
+            return;
+        }
+        countCompleted(day.toString(),
+                       1);
+    }
+
+    public void setErrors(long errors) {
+        this.errors = errors;
+    }
+
+    /**
+     * Events received from now on are kept aside until {@link #loaded(Snapshot)} is called.
+     */
+    public synchronized void startLoading() {
+        loading = true;
+        pending.clear();
+    }
+
+    /**
+     * Replaces all counters with the ones loaded from the logs and applies events received while loading.
+     */
+    public synchronized void loaded(Snapshot snapshot) {
+        completed = 0;
+        completedByDay.clear();
+        countsByVariable.clear();
+        snapshot.completedByDay.forEach((day, count) -> countCompleted(day,
+                                                                       count));
+        // days older than the loaded ones are not counted by day but still in total
+        completed = snapshot.completed;
+        snapshot.countsByVariable.forEach((variable, counts) -> countsByVariable.put(variable,
+                                                                                     new HashMap<>(counts)));
+        errors = snapshot.errors;
+
+        for (PendingEvent event : pending) {
+            if (event.variables != null && event.processInstanceId > snapshot.lastStartedId) {
+                countVariables(event.variables);
+            }
+            if (event.day != null && event.processInstanceId > snapshot.lastCompletedId) {
+                countCompleted(event.day.toString(),
+                               1);
+            }
+        }
+        pending.clear();
+        loading = false;
+        loaded = true;
+    }
+
+    public synchronized void loadingFailed() {
+        pending.clear();
+        loading = false;
+    }
+
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    public synchronized long getCompleted() {
+        return completed;
+    }
+
+    public synchronized long getCompleted(LocalDate day) {
+        return completedByDay.getOrDefault(day.toString(),
+                                           0L);
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Completed counts of the last given number of days that had any, ordered from the oldest.
+     */
+    public synchronized Map<String, Long> getCompletedByDay(int days) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        List<String> lastDays = new ArrayList<>(completedByDay.descendingKeySet());
+        lastDays = lastDays.subList(0,
+                                    Math.min(days,
+                                             lastDays.size()));
+        Collections.reverse(lastDays);
+        for (String day : lastDays) {
+            result.put(day,
+                       completedByDay.get(day));
+        }
+        return result;
+    }
+
+    public synchronized Map<String, Long> getCounts(String variable) {
+        return new LinkedHashMap<>(countsByVariable.getOrDefault(variable,
+                                                                 Collections.emptyMap()));
+    }
+
+    private void countVariables(Map<String, Object> variables) {
+        for (String variable : VARIABLES) {
+            Object value = variables.get(variable);
+            if (value != null) {
+                // same as the logs are reported - without white spaces
+                countsByVariable.computeIfAbsent(variable,
+                                                 name -> new HashMap<>())
+                        .merge(value.toString().replace(" ", ""),
+                               1L,
+                               Long::sum);
+            }
+        }
+    }
+
+    private void countCompleted(String day,
+                                long count) {
+        completed += count;
+        completedByDay.merge(day,
+                             count,
+                             Long::sum);
+        while (completedByDay.size() > MAX_DAYS) {
+            completedByDay.pollFirstEntry();
+        }
+    }
+
+    /**
+     * Counters loaded from the logs together with ids of the newest process instances they include.
+     */
+    public static class Snapshot {
+
+        private final long completed;
+        private final Map<String, Long> completedByDay;
+        private final Map<String, Map<String, Long>> countsByVariable;
+        private final long errors;
+        private final long lastStartedId;
+        private final long lastCompletedId;
+
+        public Snapshot(long completed,
+                        Map<String, Long> completedByDay,
+                        Map<String, Map<String, Long>> countsByVariable,
+                        long errors,
+                        long lastStartedId,
+                        long lastCompletedId) {
+            this.completed = completed;
+            this.completedByDay = completedByDay;
+            this.countsByVariable = countsByVariable;
+            this.errors = errors;
+            this.lastStartedId = lastStartedId;
+            this.lastCompletedId = lastCompletedId;
+        }
+    }
+
+    private static class PendingEvent {
+
+        private final long processInstanceId;
+        private final Map<String, Object> variables;
+        private final LocalDate day;
+
+        PendingEvent(long processInstanceId,
+                     Map<String, Object> variables,
+                     LocalDate day) {
+            this.processInstanceId = processInstanceId;
+            this.variables = variables;
+            this.day = day;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jbpm.kie.services.impl.query.mapper.RawListQueryMapper;
+import org.jbpm.services.api.query.QueryService;
+import org.jbpm.services.api.query.model.QueryParam;
+import org.kie.api.runtime.query.QueryContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Loads report aggregates from process and variable logs once the application is ready
+ * (query definitions are registered by then), completed counts by day are read from the daily
+ * rollup when enabled. Internal generations are not counted - they are counted on their own
+ * (starting from the few instances with internal generation type) and subtracted, so the log
+ * queries do not check every instance for it. Number of unacknowledged errors is not driven
+ * by process events so it's refreshed periodically, loading is retried then in case it failed.
+ */
+@Component
+public class ReportAggregatesLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReportAggregatesLoader.class);
+
+    private static final int MAX_DAYS = 400;
+
+    @Autowired
+    private QueryService queryService;
+
+    private ReportAggregates aggregates = ReportAggregates.get();
+
+    private volatile boolean ready;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        ready = true;
+        load();
+    }
+
+    public synchronized void load() {
+        long timestamp = System.currentTimeMillis();
+        aggregates.startLoading();
+        try {
+            // newest ids first so instances logged while loading are not missed, events of those
+            // are kept aside and applied once loaded
+            long lastCompletedId = queryMax("jbpmBootstrapProcessInstances");
+            long lastStartedId = queryMax("jbpmBootstrapProcessInstancesByVar",
+                                          QueryParam.equalsTo("variableId",
+                                                              "projectSetup"));
+
+            long completed = queryCount("jbpmBootstrapProcessInstances",
+                                        "processInstanceId")
+                    - queryCount("jbpmBootstrapInternalProcessInstances",
+                                 "processInstanceId");
+
+            // days from the rollup, only instances completed after its watermark are grouped from the logs
+            Map<String, Long> completedByDay = new HashMap<>();
+            Date since = Date.from(Instant.now().minus(MAX_DAYS, ChronoUnit.DAYS));
+            ReportRollup rollup = ReportRollup.get();
+            if (rollup != null) {
+                Date watermark = rollup.update();
+                completedByDay.putAll(rollup.getCompletedByDay(MAX_DAYS));
+                if (watermark.after(since)) {
+                    since = watermark;
+                }
+            }
+            addCompletedByDay(completedByDay,
+                              "jbpmBootstrapProcessInstances",
+                              since,
+                              1);
+            addCompletedByDay(completedByDay,
+                              "jbpmBootstrapInternalProcessInstances",
+                              since,
+                              -1);
+            completedByDay.values().removeIf(count -> count <= 0);
+
+            Map<String, Map<String, Long>> countsByVariable = new HashMap<>();
+            for (String variable : ReportAggregates.VARIABLES) {
+                Map<String, Long> counts = new HashMap<>();
+                addCounts(counts,
+                          "jbpmBootstrapProcessInstancesByVar",
+                          variable,
+                          1);
+                addCounts(counts,
+                          "jbpmBootstrapInternalProcessInstancesByVar",
+                          variable,
+                          -1);
+                counts.values().removeIf(count -> count <= 0);
+                countsByVariable.put(variable,
+                                     counts);
+            }
+
+            aggregates.loaded(new ReportAggregates.Snapshot(completed,
+                                                            completedByDay,
+                                                            countsByVariable,
+                                                            queryErrors(),
+                                                            lastStartedId,
+                                                            lastCompletedId));
+            logger.info("Report aggregates loaded in {} ms ({} completed generations)",
+                        System.currentTimeMillis() - timestamp,
+                        completed);
+        } catch (Exception e) {
+            aggregates.loadingFailed();
+            logger.error("Unable to load report aggregates, reports are not available", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${bootstrap.reports.errors-refresh-ms:60000}")
+    public void refreshErrors() {
+        if (!ready) {
+            return;
+        }
+        if (!aggregates.isLoaded()) {
+            load();
+            return;
+        }
+        try {
+            aggregates.setErrors(queryErrors());
+        } catch (Exception e) {
+            logger.warn("Unable to refresh number of errors due to {}",
+                        e.getMessage());
+        }
+    }
+
+    protected long queryErrors() {
+        return queryCount("jbpmBootstrapExecutionErrorList",
+                          "ERROR_ID");
+    }
+
+    /*
+     * adds counts of instances of given query completed since given date by day, multiplied by given sign
+     */
+    private void addCompletedByDay(Map<String, Long> completedByDay,
+                                   String queryName,
+                                   Date since,
+                                   int sign) {
+        List<List<Object>> byDay = queryService.query(queryName,
+                                                      RawListQueryMapper.get(),
+                                                      new QueryContext(0, MAX_DAYS, "end_date", false),
+                                                      QueryParam.greaterOrEqualTo("end_date", since),
+                                                      QueryParam.groupBy("end_date", QueryParam.DAY, MAX_DAYS),
+                                                      QueryParam.count("processInstanceId"));
+        for (List<Object> row : byDay) {
+            if (row.get(0) != null) {
+                completedByDay.merge(toDay(row.get(0)),
+                                     sign * ((Number) row.get(1)).longValue(),
+                                     Long::sum);
+            }
+        }
+    }
+
+    /*
+     * adds counts of instances of given query by value of given variable, multiplied by given sign
+     */
+    private void addCounts(Map<String, Long> counts,
+                           String queryName,
+                           String variable,
+                           int sign) {
+        List<List<Object>> byValue = queryService.query(queryName,
+                                                        RawListQueryMapper.get(),
+                                                        new QueryContext(0, 1000),
+                                                        QueryParam.groupBy("value"),
+                                                        QueryParam.count("processInstanceId"),
+                                                        QueryParam.equalsTo("variableId", variable));
+        for (List<Object> row : byValue) {
+            if (row.get(0) != null) {
+                counts.merge((String) row.get(0),
+                             sign * ((Number) row.get(1)).longValue(),
+                             Long::sum);
+            }
+        }
+    }
+
+    private long queryCount(String queryName,
+                            String column) {
+        List<List<Object>> result = queryService.query(queryName,
+                                                       RawListQueryMapper.get(),
+                                                       new QueryContext(),
+                                                       QueryParam.count(column));
+        return ((Number) result.get(0).get(0)).longValue();
+    }
+
+    private long queryMax(String queryName,
+                          QueryParam... filters) {
+        QueryParam[] parameters = QueryParam.getBuilder()
+                .append(filters)
+                .append(QueryParam.max("processInstanceId"))
+                .get();
+        List<List<Object>> result = queryService.query(queryName,
+                                                       RawListQueryMapper.get(),
+                                                       new QueryContext(),
+                                                       parameters);
+        if (result.isEmpty() || result.get(0).get(0) == null) {
+            return 0;
+        }
+        return ((Number) result.get(0).get(0)).longValue();
+    }
+
+    private static String toDay(Object value) {
+        String day = value.toString();
+        // grouped dates are reported as yyyy-MM-dd, possibly followed by time
+        return day.length() > 10 ? day.substring(0, 10) : day;
+    }
+}
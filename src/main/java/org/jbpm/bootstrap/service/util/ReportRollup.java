@@ -0,0 +1,306 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+
+import org.jbpm.bootstrap.service.handlers.ReportRollupCommand;
+import org.kie.api.executor.CommandContext;
+import org.kie.api.executor.ExecutorService;
+import org.kie.api.executor.STATUS;
+import org.kie.api.runtime.query.QueryContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Daily rollup of completed generations - one row per day in <code>BootstrapDailyTotals</code> table,
+ * so date based reports do not
+ * depend on the size of the process log. Rollup is brought up to date by {@link ReportRollupCommand}
+ * scheduled on jBPM executor, only instances completed since the last watermark are processed.
+ * <br/>
+ * Watermark is the end date processed so far, it's kept a configured time behind now so instances
+ * that are just being completed (and not committed yet) are picked up next time.
+ */
+@Component
+public class ReportRollup {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReportRollup.class);
+
+    private static volatile ReportRollup instance;
+
+    private static final String BUSINESS_KEY = "jbpm-bootstrap-report-rollup";
+    private static final String WATERMARK = "dailyTotals";
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS BootstrapDailyTotals (day DATE NOT NULL PRIMARY KEY, generations BIGINT NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS BootstrapRollupWatermark (name VARCHAR(64) NOT NULL PRIMARY KEY, processed_until TIMESTAMP NOT NULL)",
+            // rollup by dimension of previous versions, its totals are rolled up again from the whole history
+            "DROP TABLE IF EXISTS BootstrapDailyRollup",
+            "DELETE FROM BootstrapRollupWatermark WHERE name = 'dailyRollup'"
+    };
+
+    private static final String COMPLETED_BY_DAY = "select CAST(log.end_date AS DATE), count(log.processInstanceId) from ProcessInstanceLog log "
+            + "where log.status = 2 and log.end_date >= ? and log.end_date < ? "
+            + "group by CAST(log.end_date AS DATE)";
+
+    // internal generations (maven warm up, skeleton learning) are not counted - the few of them are found by
+    // their generation type and subtracted instead of checking every completed instance for it
+    private static final String INTERNAL_COMPLETED_BY_DAY = "select CAST(log.end_date AS DATE), count(log.processInstanceId) from ProcessInstanceLog log "
+            + "join VariableInstanceLog i on i.processInstanceId = log.processInstanceId "
+            + "where i.variableId = 'generationType' and i.value = '" + GenerationMetrics.INTERNAL + "' "
+            + "and log.status = 2 and log.end_date >= ? and log.end_date < ? "
+            + "group by CAST(log.end_date AS DATE)";
+
+    @Value("${bootstrap.reports.rollup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${bootstrap.reports.rollup.interval-seconds:300}")
+    private long intervalSeconds;
+
+    @Value("${bootstrap.reports.rollup.lag-seconds:300}")
+    private long lagSeconds;
+
+    @Autowired
+    private DataSource dataSource;
+
+    // available only when jbpm executor is enabled
+    @Autowired(required = false)
+    private ExecutorService executorService;
+
+    private boolean prepared;
+
+    /**
+     * Rollup bean for executor command that is not managed by Spring, null when rollup is disabled.
+     */
+    public static ReportRollup get() {
+        return instance;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            instance = this;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getIntervalSeconds() {
+        return intervalSeconds;
+    }
+
+    /**
+     * Schedules rollup command unless it's already scheduled (e.g. by previous run of the application).
+     */
+    @Order(Ordered.HIGHEST_PRECEDENCE + 1)
+    @EventListener(ApplicationReadyEvent.class)
+    public void schedule() {
+        if (!enabled || executorService == null) {
+            return;
+        }
+        try {
+            if (executorService.getRequestsByBusinessKey(BUSINESS_KEY,
+                                                         Arrays.asList(STATUS.QUEUED, STATUS.RUNNING, STATUS.RETRYING),
+                                                         new QueryContext()).isEmpty()) {
+                CommandContext context = new CommandContext();
+                context.setData("businessKey",
+                                BUSINESS_KEY);
+                executorService.scheduleRequest(ReportRollupCommand.class.getName(),
+                                                context);
+                logger.info("Report rollup scheduled every {} seconds",
+                            intervalSeconds);
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to schedule report rollup due to {}",
+                        e.getMessage());
+        }
+    }
+
+    /**
+     * Adds instances completed since the last watermark to the rollup.
+     *
+     * @return new watermark, everything completed before it is in the rollup
+     */
+    public synchronized Timestamp update() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            prepare(connection);
+            Timestamp from = readWatermark(connection);
+            Timestamp until = new Timestamp(System.currentTimeMillis() - lagSeconds * 1000);
+            if (!until.after(from)) {
+                return from;
+            }
+            long timestamp = System.currentTimeMillis();
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                Map<Date, Long> increments = new LinkedHashMap<>();
+                addCompletedByDay(connection,
+                                  COMPLETED_BY_DAY,
+                                  from,
+                                  until,
+                                  1,
+                                  increments);
+                addCompletedByDay(connection,
+                                  INTERNAL_COMPLETED_BY_DAY,
+                                  from,
+                                  until,
+                                  -1,
+                                  increments);
+                for (Map.Entry<Date, Long> increment : increments.entrySet()) {
+                    if (increment.getValue() <= 0) {
+                        continue;
+                    }
+                    add(connection,
+                        increment.getKey(),
+                        increment.getValue());
+                }
+                writeWatermark(connection,
+                               until);
+                connection.commit();
+                logger.debug("Report rollup updated with {} rows up to {} in {} ms",
+                             increments.size(),
+                             until,
+                             System.currentTimeMillis() - timestamp);
+                return until;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    /**
+     * Completed generations of the given number of last days, by day.
+     */
+    public Map<String, Long> getCompletedByDay(int days) throws SQLException {
+        Map<String, Long> byDay = new HashMap<>();
+        try (Connection connection = dataSource.getConnection()) {
+            prepare(connection);
+            try (PreparedStatement query = connection.prepareStatement("select day, generations from BootstrapDailyTotals where day >= ?")) {
+                query.setDate(1, Date.valueOf(LocalDate.now().minusDays(days)));
+                try (ResultSet result = query.executeQuery()) {
+                    while (result.next()) {
+                        byDay.put(result.getDate(1).toLocalDate().toString(),
+                                  result.getLong(2));
+                    }
+                }
+            }
+        }
+        return byDay;
+    }
+
+    private void prepare(Connection connection) throws SQLException {
+        if (prepared) {
+            return;
+        }
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : SCHEMA) {
+                statement.executeUpdate(sql);
+            }
+        }
+        prepared = true;
+    }
+
+    private Timestamp readWatermark(Connection connection) throws SQLException {
+        try (PreparedStatement query = connection.prepareStatement("select processed_until from BootstrapRollupWatermark where name = ?")) {
+            query.setString(1, WATERMARK);
+            try (ResultSet result = query.executeQuery()) {
+                if (result.next()) {
+                    return result.getTimestamp(1);
+                }
+            }
+        }
+        // nothing processed yet, whole history is rolled up first time
+        return new Timestamp(0);
+    }
+
+    private void writeWatermark(Connection connection,
+                                Timestamp until) throws SQLException {
+        try (PreparedStatement update = connection.prepareStatement("update BootstrapRollupWatermark set processed_until = ? where name = ?")) {
+            update.setTimestamp(1, until);
+            update.setString(2, WATERMARK);
+            if (update.executeUpdate() > 0) {
+                return;
+            }
+        }
+        try (PreparedStatement insert = connection.prepareStatement("insert into BootstrapRollupWatermark (name, processed_until) values (?, ?)")) {
+            insert.setString(1, WATERMARK);
+            insert.setTimestamp(2, until);
+            insert.executeUpdate();
+        }
+    }
+
+    private static void addCompletedByDay(Connection connection,
+                                          String sql,
+                                          Timestamp from,
+                                          Timestamp until,
+                                          int sign,
+                                          Map<Date, Long> increments) throws SQLException {
+        try (PreparedStatement query = connection.prepareStatement(sql)) {
+            query.setTimestamp(1, from);
+            query.setTimestamp(2, until);
+            try (ResultSet result = query.executeQuery()) {
+                while (result.next()) {
+                    increments.merge(result.getDate(1),
+                                     sign * result.getLong(2),
+                                     Long::sum);
+                }
+            }
+        }
+    }
+
+    private void add(Connection connection,
+                     Date day,
+                     long generations) throws SQLException {
+        try (PreparedStatement update = connection.prepareStatement("update BootstrapDailyTotals set generations = generations + ? where day = ?")) {
+            update.setLong(1, generations);
+            update.setDate(2, day);
+            if (update.executeUpdate() > 0) {
+                return;
+            }
+        }
+        try (PreparedStatement insert = connection.prepareStatement("insert into BootstrapDailyTotals (day, generations) values (?, ?)")) {
+            insert.setDate(1, day);
+            insert.setLong(2, generations);
+            insert.executeUpdate();
+        }
+    }
+}
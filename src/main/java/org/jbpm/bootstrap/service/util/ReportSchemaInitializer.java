@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Prepares log tables for report queries once the schema is created - indexes the report queries
+ * filter and group by, and variable values logged before they were stored normalized (without
+ * white spaces) are normalized so they can be grouped as they are. Runs before report aggregates
+ * are loaded. Index statements are idempotent and run every time, data migrations run only once -
+ * applied ones are recorded in <code>BootstrapSchemaMigration</code> table.
+ */
+@Component
+public class ReportSchemaInitializer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReportSchemaInitializer.class);
+
+    private static final String[] STATEMENTS = {
+            "CREATE INDEX IF NOT EXISTS IDX_PInstLog_status_dates ON ProcessInstanceLog(status, start_date, end_date)",
+            // covers lookups of internal generations by their generation type
+            "CREATE INDEX IF NOT EXISTS IDX_VInstLog_varId_value_pInstId ON VariableInstanceLog(variableId, value, processInstanceId)",
+            // replaced by the one above
+            "DROP INDEX IF EXISTS IDX_VInstLog_varId_value",
+            "CREATE TABLE IF NOT EXISTS BootstrapSchemaMigration (name VARCHAR(64) NOT NULL PRIMARY KEY, applied TIMESTAMP NOT NULL)"
+    };
+
+    // name and statement, new migrations are appended with a new name
+    private static final String[][] MIGRATIONS = {
+            {"normalize-variable-values",
+                    "UPDATE VariableInstanceLog SET value = REPLACE(value, ' ', '') "
+                            + "WHERE variableId IN ('projectSetup', 'projectVersion', 'projectOptions', 'generationType') AND value LIKE '% %'"}
+    };
+
+    @Value("${bootstrap.reports.prepare-schema:true}")
+    private boolean enabled;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @EventListener(ApplicationReadyEvent.class)
+    public void prepareSchema() {
+        if (!enabled) {
+            return;
+        }
+        long timestamp = System.currentTimeMillis();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (String sql : STATEMENTS) {
+                int updated = statement.executeUpdate(sql);
+                logger.debug("Executed {} ({} rows)",
+                             sql,
+                             updated);
+            }
+            for (String[] migration : MIGRATIONS) {
+                migrate(connection,
+                        migration[0],
+                        migration[1]);
+            }
+            logger.info("Report indexes and normalized variable values prepared in {} ms",
+                        System.currentTimeMillis() - timestamp);
+        } catch (SQLException e) {
+            // reports still work, only slower
+            logger.warn("Unable to prepare log tables for reports due to {}",
+                        e.getMessage());
+        }
+    }
+
+    /*
+     * runs the migration unless it's recorded as applied, marker is written in the same transaction
+     * so another node starting at the same time fails on its primary key instead of migrating again
+     */
+    private void migrate(Connection connection,
+                         String name,
+                         String sql) throws SQLException {
+        try (PreparedStatement query = connection.prepareStatement("select applied from BootstrapSchemaMigration where name = ?")) {
+            query.setString(1, name);
+            try (ResultSet result = query.executeQuery()) {
+                if (result.next()) {
+                    return;
+                }
+            }
+        }
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            try (PreparedStatement insert = connection.prepareStatement("insert into BootstrapSchemaMigration (name, applied) values (?, ?)")) {
+                insert.setString(1, name);
+                insert.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+                insert.executeUpdate();
+            }
+            int updated;
+            try (Statement statement = connection.createStatement()) {
+                updated = statement.executeUpdate(sql);
+            }
+            connection.commit();
+            logger.info("Migration {} applied ({} rows)",
+                        name,
+                        updated);
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.jbpm.bootstrap.model.Project;
+import org.jbpm.bootstrap.service.archive.ArchiveEntry;
+import org.jbpm.bootstrap.service.archive.ParallelZipWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fast path for project generation that does not need to run <code>GenerateProject</code> process.
+ * Generated projects of the same structure (see {@link GenerationKey#getSkeletonId()}) differ only
+ * in project name and package so once a structure has been generated by the process, its skeleton is
+ * learned in the background and next projects are produced by replacing name and package in it.
+ * <br/>
+ * Skeleton is learned by generating the project with sentinel name and package, and verified by
+ * generating it once more with other sentinel values - it's only used when the verification project
+ * is exactly the same as the one rendered from the skeleton and no sentinel is left in any other
+ * form (e.g. capitalized), otherwise the structure is always generated by the process.
+ * <br/>
+ * Sentinels consist of lowercase letters only, so only transformations of such names are verified -
+ * projects with other names or packages (hyphens, dots, digits, uppercase letters, e.g. the default
+ * <code>business-application</code>) are always generated by the process.
+ */
+@Component
+public class SkeletonGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(SkeletonGenerator.class);
+
+    private static final Sentinel LEARN = new Sentinel("skeletonappalpha",
+                                                       "skeletonpkgalpha.skeletonsubalpha");
+    private static final Sentinel VERIFY = new Sentinel("skeletonappbravo",
+                                                        "skeletonpkgbravo.skeletonsubbravo");
+    private static final List<String> SENTINEL_FRAGMENTS = Arrays.asList("skeletonapp",
+                                                                         "skeletonpkg",
+                                                                         "skeletonsub");
+    // character classes of the sentinels, names derived from other characters are not verified
+    private static final Pattern NAME = Pattern.compile("[a-z]+");
+    private static final Pattern PACKAGE = Pattern.compile("[a-z]+(\\.[a-z]+)*");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Value("${bootstrap.skeletons.enabled:true}")
+    private boolean enabled;
+
+    @Value("${bootstrap.skeletons.max-entries:50}")
+    private int maxEntries;
+
+    @Autowired
+    private GenerationWorkspace workspace;
+
+    private final Map<String, Skeleton> skeletons = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> learning = ConcurrentHashMap.newKeySet();
+    private final Set<String> rejected = ConcurrentHashMap.newKeySet();
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        // learning runs the process twice so one at a time is enough not to compete with requests
+        executor = new ThreadPoolExecutor(1,
+                                          1,
+                                          0L,
+                                          TimeUnit.MILLISECONDS,
+                                          new ArrayBlockingQueue<>(100),
+                                          runnable -> {
+                                              Thread thread = new Thread(runnable,
+                                                                         "skeleton-learning");
+                                              thread.setDaemon(true);
+                                              return thread;
+                                          });
+        logger.info("Skeleton generator {} (max entries {})",
+                    enabled ? "enabled" : "disabled",
+                    maxEntries);
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Writes archive of given project into target file if skeleton of its structure is known.
+     *
+     * @return true if the archive was written, false if the project has to be generated by the process
+     */
+    public boolean generate(GenerationKey key,
+                            Project project,
+                            File target) throws IOException {
+        if (!isSupported(project)) {
+            return false;
+        }
+        Skeleton skeleton;
+        synchronized (this) {
+            skeleton = enabled ? skeletons.get(key.getSkeletonId()) : null;
+        }
+        if (skeleton == null) {
+            return false;
+        }
+        target.getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(target),
+                                                         BUFFER_SIZE)) {
+            ParallelZipWriter.withDefaults().write(skeleton.render(project.getName(),
+                                                                   project.getPackageName()),
+                                                   out);
+        }
+        return true;
+    }
+
+    /**
+     * Schedules learning of the skeleton for structure of given project unless it's known already.
+     */
+    public void learn(GenerationKey key,
+                      Project project,
+                      SourceGenerator generator) {
+        String skeletonId = key.getSkeletonId();
+        synchronized (this) {
+            if (!enabled || skeletons.containsKey(skeletonId) || rejected.contains(skeletonId)) {
+                return;
+            }
+        }
+        if (!learning.add(skeletonId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    learn(skeletonId,
+                          project,
+                          generator);
+                } finally {
+                    learning.remove(skeletonId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            learning.remove(skeletonId);
+            logger.debug("Learning queue is full, skeleton {} will be learned next time",
+                         skeletonId);
+        }
+    }
+
+    /**
+     * Forgets all learned and rejected skeletons so they are learned again.
+     */
+    public synchronized int clear() {
+        int count = skeletons.size();
+        skeletons.clear();
+        rejected.clear();
+        logger.info("Skeletons cleared, {} entries removed", count);
+        return count;
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("enabled", enabled);
+        statistics.put("skeletons", skeletons.size());
+        statistics.put("maxEntries", maxEntries);
+        statistics.put("learning", learning.size());
+        statistics.put("rejected", rejected.size());
+        return statistics;
+    }
+
+    /**
+     * Whether name and package of given project are of the same characters as the sentinels, only such
+     * projects can be rendered from skeletons.
+     */
+    static boolean isSupported(Project project) {
+        return project.getName() != null && NAME.matcher(project.getName()).matches()
+                && project.getPackageName() != null && PACKAGE.matcher(project.getPackageName()).matches();
+    }
+
+    protected void learn(String skeletonId,
+                         Project project,
+                         SourceGenerator generator) {
+        long timestamp = System.currentTimeMillis();
+        try {
+            Skeleton skeleton = new Skeleton(LEARN,
+                                             generateSources(project,
+                                                             LEARN,
+                                                             generator));
+            String reason = skeleton.findAmbiguity();
+            if (reason == null) {
+                reason = skeleton.verify(generateSources(project,
+                                                         VERIFY,
+                                                         generator));
+            }
+            if (reason != null) {
+                rejected.add(skeletonId);
+                logger.info("Skeleton {} rejected, projects of this structure are always generated by the process ({})",
+                            skeletonId,
+                            reason);
+                return;
+            }
+            synchronized (this) {
+                skeletons.put(skeletonId,
+                              skeleton);
+                if (skeletons.size() > maxEntries) {
+                    skeletons.remove(skeletons.keySet().iterator().next());
+                }
+            }
+            logger.info("Skeleton {} with {} files learned in {} ms",
+                        skeletonId,
+                        skeleton.files.size(),
+                        System.currentTimeMillis() - timestamp);
+        } catch (Exception e) {
+            // not rejected, might be a temporary failure so it's learned again next time
+            logger.warn("Unable to learn skeleton {} due to {}",
+                        skeletonId,
+                        e.getMessage());
+        }
+    }
+
+    private List<TemplateFile> generateSources(Project project,
+                                               Sentinel sentinel,
+                                               SourceGenerator generator) throws Exception {
+        Project sentinelProject = new Project();
+        sentinelProject.setName(sentinel.name);
+        sentinelProject.setPackageName(sentinel.packageName);
+        sentinelProject.setVersion(project.getVersion());
+        sentinelProject.setOptions(project.getOptions());
+        sentinelProject.setCapabilities(project.getCapabilities());
+
+        File folder = workspace.allocate();
+        boolean generated = false;
+        try {
+            generator.generate(sentinelProject,
+                               folder);
+            generated = true;
+            List<TemplateFile> files = new ArrayList<>();
+            for (ArchiveEntry entry : ArchiveEntry.listFiles(folder.toPath())) {
+                files.add(new TemplateFile(entry.getName(),
+                                           read(entry)));
+            }
+            return files;
+        } finally {
+            if (generated) {
+                workspace.release(folder);
+            } else {
+                // the process might not be done with the folder yet
+                workspace.abandon(folder);
+            }
+        }
+    }
+
+    private static byte[] read(ArchiveEntry entry) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = entry.open()) {
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                content.write(buffer,
+                              0,
+                              len);
+            }
+        }
+        return content.toByteArray();
+    }
+
+    /**
+     * Replaces all tokens in single pass so replacement values are never replaced again.
+     * Text is expected in ISO-8859-1 so any content (binary files too) is kept byte for byte.
+     */
+    static String replaceTokens(String text,
+                                String[] tokens,
+                                String[] values) {
+        StringBuilder result = null;
+        int position = 0;
+        while (true) {
+            int next = -1;
+            int token = -1;
+            for (int i = 0; i < tokens.length; i++) {
+                int index = text.indexOf(tokens[i],
+                                         position);
+                if (index >= 0 && (next < 0 || index < next)) {
+                    next = index;
+                    token = i;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            if (result == null) {
+                result = new StringBuilder(text.length() + 64);
+            }
+            result.append(text, position, next).append(values[token]);
+            position = next + tokens[token].length();
+        }
+        if (result == null) {
+            return text;
+        }
+        return result.append(text, position, text.length()).toString();
+    }
+
+    private static String latin1(String value) {
+        return new String(value.getBytes(StandardCharsets.UTF_8),
+                          StandardCharsets.ISO_8859_1);
+    }
+
+    private static class Sentinel {
+
+        private final String name;
+        private final String packageName;
+
+        Sentinel(String name,
+                 String packageName) {
+            this.name = name;
+            this.packageName = packageName;
+        }
+
+        String[] tokens() {
+            // package is used both as java package and as folder path
+            return new String[]{packageName, packageName.replace('.', '/'), name};
+        }
+    }
+
+    private static class TemplateFile {
+
+        private final String path;
+        private final byte[] content;
+
+        TemplateFile(String path,
+                     byte[] content) {
+            this.path = path;
+            this.content = content;
+        }
+    }
+
+    private static class Skeleton {
+
+        private final String[] tokens;
+        private final List<TemplateFile> files;
+
+        Skeleton(Sentinel sentinel,
+                 List<TemplateFile> files) {
+            this.tokens = sentinel.tokens();
+            this.files = Collections.unmodifiableList(files);
+        }
+
+        List<ArchiveEntry> render(String name,
+                                  String packageName) {
+            String[] values = new String[]{packageName, packageName.replace('.', '/'), name};
+            String[] contentValues = new String[]{latin1(values[0]), latin1(values[1]), latin1(values[2])};
+            List<ArchiveEntry> entries = new ArrayList<>(files.size());
+            for (TemplateFile file : files) {
+                String content = replaceTokens(new String(file.content,
+                                                          StandardCharsets.ISO_8859_1),
+                                               tokens,
+                                               contentValues);
+                entries.add(ArchiveEntry.ofBytes(replaceTokens(file.path,
+                                                               tokens,
+                                                               values),
+                                                 content.getBytes(StandardCharsets.ISO_8859_1)));
+            }
+            entries.sort((first, second) -> first.getName().compareTo(second.getName()));
+            return entries;
+        }
+
+        /**
+         * Returns description of the first sentinel found in a form that cannot be replaced, or null.
+         */
+        String findAmbiguity() {
+            String[] empty = new String[tokens.length];
+            Arrays.fill(empty, "");
+            for (TemplateFile file : files) {
+                String path = replaceTokens(file.path,
+                                            tokens,
+                                            empty).toLowerCase(Locale.ROOT);
+                String content = replaceTokens(new String(file.content,
+                                                          StandardCharsets.ISO_8859_1),
+                                               tokens,
+                                               empty).toLowerCase(Locale.ROOT);
+                for (String fragment : SENTINEL_FRAGMENTS) {
+                    if (path.contains(fragment) || content.contains(fragment)) {
+                        return "derived project name or package found in " + file.path;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Compares project rendered for verification sentinel with the one generated by the process,
+         * returns description of the first difference or null when they are the same.
+         */
+        String verify(List<TemplateFile> generated) throws IOException {
+            List<ArchiveEntry> rendered = render(VERIFY.name,
+                                                 VERIFY.packageName);
+            if (rendered.size() != generated.size()) {
+                return "expected " + generated.size() + " files but skeleton has " + rendered.size();
+            }
+            for (int i = 0; i < rendered.size(); i++) {
+                ArchiveEntry entry = rendered.get(i);
+                TemplateFile file = generated.get(i);
+                if (!entry.getName().equals(file.path)) {
+                    return "expected " + file.path + " but skeleton has " + entry.getName();
+                }
+                if (!Arrays.equals(read(entry),
+                                   file.content)) {
+                    return "content of " + file.path + " differs";
+                }
+            }
+            return null;
+        }
+    }
+}
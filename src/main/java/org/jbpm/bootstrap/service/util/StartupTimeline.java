@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessor;
+import org.springframework.boot.context.event.ApplicationContextInitializedEvent;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.boot.context.event.ApplicationPreparedEvent;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.boot.context.event.ApplicationStartingEvent;
+import org.springframework.boot.web.context.WebServerInitializedEvent;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+/**
+ * Records where boot time goes - when startup phases were reached (relative to start of the JVM) and how
+ * long it took to create and initialize individual beans (including beans they depend on). Registered
+ * by {@link org.jbpm.bootstrap.service.BootstrapJbpmApplication} before the context exists, so
+ * it's a plain singleton and not a Spring bean. Summary is logged once the application is ready, full
+ * timeline is available via admin endpoint.
+ * <br/>
+ * Only beans created after bean post processors are registered are timed, that covers all but
+ * the infrastructure of the context itself.
+ */
+public class StartupTimeline implements ApplicationListener<ApplicationEvent>,
+                                        InstantiationAwareBeanPostProcessor {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupTimeline.class);
+
+    private static final StartupTimeline INSTANCE = new StartupTimeline();
+
+    private static final int SLOWEST_BEANS = 20;
+    private static final int LOGGED_BEANS = 5;
+
+    private final long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private final ConcurrentHashMap<String, Long> creating = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> beans = new ConcurrentHashMap<>();
+
+    private volatile boolean ready;
+
+    public static StartupTimeline get() {
+        return INSTANCE;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ApplicationStartingEvent) {
+            phase("starting");
+        } else if (event instanceof ApplicationEnvironmentPreparedEvent) {
+            phase("environmentPrepared");
+        } else if (event instanceof ApplicationContextInitializedEvent) {
+            phase("contextInitialized");
+        } else if (event instanceof ApplicationPreparedEvent) {
+            phase("contextPrepared");
+        } else if (event instanceof WebServerInitializedEvent) {
+            phase("webServerStarted");
+        } else if (event instanceof ContextRefreshedEvent) {
+            phase("contextRefreshed");
+        } else if (event instanceof ApplicationStartedEvent) {
+            phase("started");
+        } else if (event instanceof ApplicationReadyEvent && !ready) {
+            phase("ready");
+            ready = true;
+            // beans created on first use (lazy initialization) are not part of the startup
+            creating.clear();
+            log();
+        }
+    }
+
+    @Override
+    public Object postProcessBeforeInstantiation(Class<?> beanClass,
+                                                 String beanName) throws BeansException {
+        if (!ready) {
+            creating.putIfAbsent(beanName,
+                                 System.nanoTime());
+        }
+        return null;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean,
+                                                 String beanName) throws BeansException {
+        Long started = creating.remove(beanName);
+        if (started != null) {
+            beans.put(beanName,
+                      TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        }
+        return bean;
+    }
+
+    /**
+     * Phases in order they were reached with milliseconds since start of the JVM, and the slowest beans
+     * with milliseconds it took to create them.
+     */
+    public synchronized Map<String, Object> getTimeline() {
+        Map<String, Object> timeline = new LinkedHashMap<>();
+        timeline.put("jvmStart", jvmStart);
+        timeline.put("phases", new LinkedHashMap<>(phases));
+        Map<String, Long> slowest = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> bean : slowestBeans(SLOWEST_BEANS)) {
+            slowest.put(bean.getKey(),
+                        bean.getValue());
+        }
+        timeline.put("slowestBeans", slowest);
+        timeline.put("timedBeans", beans.size());
+        return timeline;
+    }
+
+    private synchronized void phase(String name) {
+        phases.putIfAbsent(name,
+                           System.currentTimeMillis() - jvmStart);
+    }
+
+    private List<Map.Entry<String, Long>> slowestBeans(int count) {
+        List<Map.Entry<String, Long>> sorted = new ArrayList<>(beans.entrySet());
+        sorted.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()));
+        return sorted.subList(0,
+                              Math.min(count,
+                                       sorted.size()));
+    }
+
+    private synchronized void log() {
+        StringBuilder summary = new StringBuilder();
+        long previous = 0;
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            summary.append(String.format("%n  %-20s at %6d ms (+%d ms)",
+                                         phase.getKey(),
+                                         phase.getValue(),
+                                         phase.getValue() - previous));
+            previous = phase.getValue();
+        }
+        summary.append(String.format("%n  slowest of %d beans:",
+                                     beans.size()));
+        for (Map.Entry<String, Long> bean : slowestBeans(LOGGED_BEANS)) {
+            summary.append(String.format("%n    %-40s %6d ms",
+                                         bean.getKey(),
+                                         bean.getValue()));
+        }
+        logger.info("Application ready in {} ms since start of the JVM:{}",
+                    previous,
+                    summary);
+    }
+}
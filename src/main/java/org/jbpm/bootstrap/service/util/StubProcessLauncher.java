@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.jbpm.bootstrap.model.Project;
+import org.jbpm.bootstrap.service.handlers.ZipArchiveWorkItemHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Stands in for <code>GenerateProject</code> process in <code>loadtest</code> profile so the service can
+ * be load tested without maven and network access. Starting takes configured time in the caller thread,
+ * then after configured build time a synthetic project tree is written to the project location and
+ * archived by {@link ZipArchiveWorkItemHandler} as the process would do, on a pool of the size of
+ * jBPM executor.
+ */
+@Component
+@Profile("loadtest")
+public class StubProcessLauncher implements GenerationProcessLauncher {
+
+    private static final Logger logger = LoggerFactory.getLogger(StubProcessLauncher.class);
+
+    // far from ids of real process instances that may be in the logs
+    private static final long FIRST_ID = 1_000_000_000L;
+
+    @Value("${bootstrap.stub.start-delay-ms:20}")
+    private long startDelay;
+
+    @Value("${bootstrap.stub.build-delay-ms:1000}")
+    private long buildDelay;
+
+    @Value("${bootstrap.stub.files:200}")
+    private int files;
+
+    @Value("${bootstrap.stub.file-size:2048}")
+    private int fileSize;
+
+    @Value("${bootstrap.stub.threads:10}")
+    private int threads;
+
+    private final AtomicLong ids = new AtomicLong(FIRST_ID);
+
+    private final Map<Long, ScheduledFuture<?>> generations = new ConcurrentHashMap<>();
+
+    private final ZipArchiveWorkItemHandler handler = new ZipArchiveWorkItemHandler();
+
+    private ScheduledThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ScheduledThreadPoolExecutor(threads,
+                                                   runnable -> {
+                                                       Thread thread = new Thread(runnable,
+                                                                                  "stub-generation-" + counter.incrementAndGet());
+                                                       thread.setDaemon(true);
+                                                       return thread;
+                                                   });
+        logger.warn("Generation process is stubbed (build {} ms, {} files of {} bytes), projects are not real",
+                    buildDelay,
+                    files,
+                    fileSize);
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public long start(Map<String, Object> parameters) {
+        sleep(startDelay);
+        long processInstanceId = ids.incrementAndGet();
+        Project project = (Project) parameters.get("project");
+        GenerationMetrics.get().processStarted(processInstanceId,
+                                               GenerationMetrics.tags(parameters.get("generationType"),
+                                                                      parameters.get("projectVersion"),
+                                                                      parameters.get("projectSetup")));
+        generations.put(processInstanceId,
+                        executor.schedule(() -> generate(processInstanceId,
+                                                         project),
+                                          buildDelay,
+                                          TimeUnit.MILLISECONDS));
+        return processInstanceId;
+    }
+
+    @Override
+    public void abort(long processInstanceId) {
+        GenerationCompletionRegistry.get().cancel(processInstanceId);
+        ScheduledFuture<?> generation = generations.remove(processInstanceId);
+        if (generation != null && generation.cancel(false)) {
+            // not started yet so it will not end on its own
+            GenerationMetrics.get().processEnded(processInstanceId);
+        }
+    }
+
+    protected void generate(long processInstanceId,
+                            Project project) {
+        try {
+            writeProject(Paths.get(project.getLocation(),
+                                   project.getName()));
+            handler.archive(processInstanceId,
+                            project.getLocation(),
+                            project.getName());
+        } catch (Exception e) {
+            GenerationCompletionRegistry.get().failed(processInstanceId,
+                                                      e);
+        } finally {
+            generations.remove(processInstanceId);
+            GenerationMetrics.get().processEnded(processInstanceId);
+        }
+    }
+
+    /*
+     * sources spread over a few modules and packages, similar but not identical
+     */
+    private void writeProject(Path root) throws IOException {
+        byte[] line = "    // generated by stub process to simulate project sources\n".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < files; i++) {
+            Path folder = root.resolve(root.getFileName() + "-module" + (i % 3))
+                    .resolve("src/main/java/com/company/package" + (i / 20));
+            Files.createDirectories(folder);
+            byte[] content = new byte[fileSize + i % 512];
+            for (int position = 0; position < content.length; position += line.length) {
+                System.arraycopy(line,
+                                 0,
+                                 content,
+                                 position,
+                                 Math.min(line.length,
+                                          content.length - position));
+            }
+            Arrays.fill(content,
+                        0,
+                        Math.min(8, content.length),
+                        (byte) ('a' + i % 26));
+            Files.write(folder.resolve("Source" + i + ".java"),
+                        content);
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
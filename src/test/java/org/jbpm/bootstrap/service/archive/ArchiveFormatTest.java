@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.archive;
+
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ArchiveFormatTest {
+
+    private static final ArchiveFormat TAR_GZ = ArchiveFormat.of(ArchiveFormat.Type.TAR_GZ,
+                                                                 Deflater.DEFAULT_COMPRESSION);
+
+    @Test
+    public void missingHeaderLeavesTheChoiceToTheServer() {
+        assertSame(TAR_GZ, ArchiveFormat.negotiate(null, TAR_GZ));
+        assertSame(TAR_GZ, ArchiveFormat.negotiate(" ", TAR_GZ));
+    }
+
+    @Test
+    public void wildcardsLeaveTheChoiceToTheServer() {
+        assertSame(TAR_GZ, ArchiveFormat.negotiate("*/*", TAR_GZ));
+        assertSame(TAR_GZ, ArchiveFormat.negotiate("application/*", TAR_GZ));
+        assertSame(TAR_GZ, ArchiveFormat.negotiate("application/octet-stream", TAR_GZ));
+        assertSame(ArchiveFormat.DEFAULT, ArchiveFormat.negotiate("*/*", ArchiveFormat.DEFAULT));
+    }
+
+    @Test
+    public void supportedMediaTypesAreRecognized() {
+        assertEquals(ArchiveFormat.DEFAULT, ArchiveFormat.negotiate("application/zip", TAR_GZ));
+        assertEquals(ArchiveFormat.DEFAULT, ArchiveFormat.negotiate("application/x-zip-compressed", TAR_GZ));
+        for (String mediaType : new String[]{"application/gzip", "application/x-gzip", "application/x-gtar", "application/x-compressed-tar"}) {
+            assertEquals(TAR_GZ, ArchiveFormat.negotiate(mediaType, ArchiveFormat.DEFAULT), mediaType);
+        }
+        assertEquals(TAR_GZ, ArchiveFormat.negotiate("Application/GZIP", ArchiveFormat.DEFAULT));
+    }
+
+    @Test
+    public void highestQualityWins() {
+        assertEquals(TAR_GZ, ArchiveFormat.negotiate("application/zip;q=0.5, application/gzip;q=0.9", ArchiveFormat.DEFAULT));
+        assertEquals(ArchiveFormat.DEFAULT, ArchiveFormat.negotiate("application/gzip;q=0.2, application/zip", TAR_GZ));
+        // wildcard with higher quality leaves the choice to the server
+        assertEquals(TAR_GZ, ArchiveFormat.negotiate("application/zip;q=0.5, */*", TAR_GZ));
+        // first of the same quality
+        assertEquals(TAR_GZ, ArchiveFormat.negotiate("application/gzip, application/zip", ArchiveFormat.DEFAULT));
+    }
+
+    @Test
+    public void excludedAndUnsupportedTypesFallBack() {
+        assertSame(TAR_GZ, ArchiveFormat.negotiate("text/html", TAR_GZ));
+        assertSame(TAR_GZ, ArchiveFormat.negotiate("application/zip;q=0", TAR_GZ));
+        assertEquals(ArchiveFormat.DEFAULT, ArchiveFormat.negotiate("text/html, application/x-rar-compressed;q=0.9, application/zip;q=0.1", TAR_GZ));
+    }
+
+    @Test
+    public void malformedRangesAreIgnored() {
+        assertEquals(TAR_GZ, ArchiveFormat.negotiate("application/zip;q=high, application/gzip;q=0.1", ArchiveFormat.DEFAULT));
+        // tar.gz cannot be stored without compression
+        assertEquals(ArchiveFormat.DEFAULT, ArchiveFormat.negotiate("application/gzip;level=0, application/zip;q=0.1", TAR_GZ));
+    }
+
+    @Test
+    public void compressionLevelIsNegotiated() {
+        ArchiveFormat format = ArchiveFormat.negotiate("application/zip;level=1", TAR_GZ);
+
+        assertEquals(ArchiveFormat.Type.ZIP, format.getType());
+        assertEquals(1, format.getLevel());
+        assertEquals("zip-1", format.getId());
+    }
+
+    @Test
+    public void formatsAreParsedById() {
+        assertSame(ArchiveFormat.DEFAULT, ArchiveFormat.parse("zip"));
+        assertEquals(TAR_GZ, ArchiveFormat.parse("tar.gz"));
+        assertEquals(TAR_GZ, ArchiveFormat.parse(" TGZ "));
+        assertEquals(ArchiveFormat.of(ArchiveFormat.Type.ZIP, Deflater.NO_COMPRESSION), ArchiveFormat.parse("zip-0"));
+        assertEquals(".tar.gz", ArchiveFormat.parse("tgz-9").getExtension());
+        assertThrows(IllegalArgumentException.class, () -> ArchiveFormat.parse("rar"));
+        assertThrows(IllegalArgumentException.class, () -> ArchiveFormat.parse("zip-fast"));
+        assertThrows(IllegalArgumentException.class, () -> ArchiveFormat.parse("tar.gz-0"));
+        assertThrows(IllegalArgumentException.class, () -> ArchiveFormat.parse("zip-10"));
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ParallelZipWriterTest {
+
+    @TempDir
+    Path folder;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void entriesAreReadBackInOrder() throws Exception {
+        List<ArchiveEntry> entries = entries();
+        for (int level : new int[]{Deflater.DEFAULT_COMPRESSION, Deflater.NO_COMPRESSION, Deflater.BEST_COMPRESSION}) {
+            Path archive = write(new ParallelZipWriter(executor,
+                                                       level,
+                                                       2),
+                                 entries,
+                                 "archive" + level + ".zip");
+
+            try (ZipFile zip = new ZipFile(archive.toFile())) {
+                List<String> names = new ArrayList<>();
+                Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+                while (zipEntries.hasMoreElements()) {
+                    ZipEntry zipEntry = zipEntries.nextElement();
+                    names.add(zipEntry.getName());
+                    assertEquals(level == Deflater.NO_COMPRESSION ? ZipEntry.STORED : ZipEntry.DEFLATED,
+                                 zipEntry.getMethod());
+                }
+                assertEquals(Arrays.asList("pom.xml", "src/main/resources/empty.properties", "src/main/java/com/company/Údaje.java", "lib/random.bin"),
+                             names);
+                for (ArchiveEntry entry : entries) {
+                    ZipEntry zipEntry = zip.getEntry(entry.getName());
+                    byte[] content = read(entry.open());
+                    assertArrayEquals(content,
+                                      read(zip.getInputStream(zipEntry)),
+                                      entry.getName());
+                    assertEquals(content.length, zipEntry.getSize());
+                    CRC32 crc = new CRC32();
+                    crc.update(content);
+                    assertEquals(crc.getValue(), zipEntry.getCrc());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sameEntriesProduceSameArchive() throws Exception {
+        List<ArchiveEntry> entries = entries();
+
+        byte[] first = Files.readAllBytes(write(new ParallelZipWriter(executor,
+                                                                      Deflater.DEFAULT_COMPRESSION,
+                                                                      1),
+                                                entries,
+                                                "first.zip"));
+        // compressed in different order, written in the same one
+        byte[] second = Files.readAllBytes(write(new ParallelZipWriter(executor,
+                                                                       Deflater.DEFAULT_COMPRESSION,
+                                                                       16),
+                                                 entries,
+                                                 "second.zip"));
+
+        assertArrayEquals(first, second);
+    }
+
+    @Test
+    public void emptyArchiveIsValid() throws Exception {
+        Path archive = write(new ParallelZipWriter(executor,
+                                                   Deflater.DEFAULT_COMPRESSION,
+                                                   4),
+                             Collections.emptyList(),
+                             "empty.zip");
+
+        assertEquals(22, Files.size(archive));
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertEquals(0, zip.size());
+        }
+    }
+
+    @Test
+    public void tooManyEntriesAreRejectedBeforeWriting() {
+        List<ArchiveEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 0xFFFF; i++) {
+            entries.add(ArchiveEntry.ofBytes("file" + i,
+                                             new byte[0]));
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        assertThrows(IOException.class,
+                     () -> new ParallelZipWriter(executor,
+                                                 Deflater.DEFAULT_COMPRESSION,
+                                                 4).write(entries,
+                                                          output));
+        assertEquals(0, output.size());
+    }
+
+    @Test
+    public void tooLongNameIsRejectedBeforeWriting() {
+        char[] name = new char[0x10000];
+        Arrays.fill(name,
+                    'a');
+        List<ArchiveEntry> entries = Arrays.asList(ArchiveEntry.ofBytes("pom.xml",
+                                                                        new byte[0]),
+                                                   ArchiveEntry.ofBytes(new String(name),
+                                                                        new byte[0]));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        assertThrows(IOException.class,
+                     () -> new ParallelZipWriter(executor,
+                                                 Deflater.DEFAULT_COMPRESSION,
+                                                 4).write(entries,
+                                                          output));
+        assertEquals(0, output.size());
+    }
+
+    @Test
+    public void writtenSizeIsReturned() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        long size = new ParallelZipWriter(executor,
+                                          Deflater.DEFAULT_COMPRESSION,
+                                          4).write(entries(),
+                                                   output);
+
+        assertEquals(output.size(), size);
+        assertTrue(size > 0);
+    }
+
+    private Path write(ParallelZipWriter writer,
+                       List<ArchiveEntry> entries,
+                       String name) throws IOException {
+        Path archive = folder.resolve(name);
+        try (OutputStream output = Files.newOutputStream(archive)) {
+            writer.write(entries,
+                         output);
+        }
+        return archive;
+    }
+
+    private static List<ArchiveEntry> entries() {
+        byte[] random = new byte[300 * 1024];
+        new Random(42).nextBytes(random);
+        StringBuilder pom = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            pom.append("<dependency>").append(i).append("</dependency>\n");
+        }
+        return Arrays.asList(ArchiveEntry.ofBytes("pom.xml",
+                                                  pom.toString().getBytes(StandardCharsets.UTF_8)),
+                             ArchiveEntry.ofBytes("src/main/resources/empty.properties",
+                                                  new byte[0]),
+                             ArchiveEntry.ofBytes("src/main/java/com/company/Údaje.java",
+                                                  "class Údaje {}".getBytes(StandardCharsets.UTF_8)),
+                             ArchiveEntry.ofBytes("lib/random.bin",
+                                                  random));
+    }
+
+    private static byte[] read(InputStream input) throws IOException {
+        try (InputStream in = input) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                content.write(buffer,
+                              0,
+                              len);
+            }
+            return content.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TarGzWriterTest {
+
+    private static final int BLOCK = 512;
+
+    @TempDir
+    Path folder;
+
+    @Test
+    public void entriesAreReadBack() throws Exception {
+        byte[] pom = "<project/>".getBytes(StandardCharsets.UTF_8);
+        byte[] block = new byte[BLOCK];
+        Arrays.fill(block,
+                    (byte) 'x');
+        List<ArchiveEntry> entries = Arrays.asList(ArchiveEntry.ofBytes("pom.xml",
+                                                                        pom),
+                                                   ArchiveEntry.ofBytes("src/main/resources/empty.properties",
+                                                                        new byte[0]),
+                                                   ArchiveEntry.ofBytes("src/main/resources/block.txt",
+                                                                        block));
+
+        List<TarEntry> read = read(write(entries,
+                                         Deflater.DEFAULT_COMPRESSION));
+
+        assertEquals(3, read.size());
+        assertEquals("pom.xml", read.get(0).name);
+        assertArrayEquals(pom, read.get(0).content);
+        assertEquals("src/main/resources/empty.properties", read.get(1).name);
+        assertEquals(0, read.get(1).content.length);
+        assertEquals("src/main/resources/block.txt", read.get(2).name);
+        assertArrayEquals(block, read.get(2).content);
+        for (TarEntry entry : read) {
+            assertEquals('0', entry.type);
+            assertEquals(0644, entry.mode);
+        }
+    }
+
+    @Test
+    public void longNamesAreStoredInPaxHeaders() throws Exception {
+        String exact = name(100);
+        String longName = name(180) + "/Údaje.java";
+        List<ArchiveEntry> entries = Arrays.asList(ArchiveEntry.ofBytes(exact,
+                                                                        new byte[]{1}),
+                                                   ArchiveEntry.ofBytes(longName,
+                                                                        new byte[]{2}));
+
+        List<TarEntry> read = read(write(entries,
+                                         Deflater.BEST_SPEED));
+
+        assertEquals(2, read.size());
+        assertEquals(exact, read.get(0).name);
+        assertFalse(read.get(0).pax, "stored in ustar header");
+        assertEquals(longName, read.get(1).name);
+        assertTrue(read.get(1).pax, "stored with pax header");
+        assertArrayEquals(new byte[]{2}, read.get(1).content);
+    }
+
+    @Test
+    public void executableFilesKeepTheirMode() throws Exception {
+        Path script = folder.resolve("mvnw");
+        Files.write(script,
+                    "#!/bin/sh".getBytes(StandardCharsets.UTF_8));
+        script.toFile().setExecutable(true);
+        Path readme = folder.resolve("README.md");
+        Files.write(readme,
+                    "readme".getBytes(StandardCharsets.UTF_8));
+        readme.toFile().setExecutable(false);
+
+        List<TarEntry> read = read(write(ArchiveEntry.listFiles(folder),
+                                         Deflater.DEFAULT_COMPRESSION));
+
+        assertEquals(2, read.size());
+        assertEquals("README.md", read.get(0).name);
+        assertEquals(0644, read.get(0).mode);
+        assertEquals("mvnw", read.get(1).name);
+        assertEquals(0755, read.get(1).mode);
+    }
+
+    @Test
+    public void sameEntriesProduceSameArchive() throws Exception {
+        List<ArchiveEntry> entries = Arrays.asList(ArchiveEntry.ofBytes("pom.xml",
+                                                                        "<project/>".getBytes(StandardCharsets.UTF_8)),
+                                                   ArchiveEntry.ofBytes(name(150),
+                                                                        new byte[0]));
+
+        assertArrayEquals(write(entries,
+                                Deflater.DEFAULT_COMPRESSION),
+                          write(entries,
+                                Deflater.DEFAULT_COMPRESSION));
+    }
+
+    private static byte[] write(List<ArchiveEntry> entries,
+                                int level) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long size = new TarGzWriter(level).write(entries,
+                                                 output);
+        assertEquals(output.size(), size);
+        return output.toByteArray();
+    }
+
+    private static String name(int length) {
+        StringBuilder name = new StringBuilder("src/main/java/");
+        while (name.length() < length) {
+            name.append('a');
+        }
+        return name.toString();
+    }
+
+    /*
+     * minimal ustar reader - verifies header checksums and the end of archive marker
+     */
+    private static List<TarEntry> read(byte[] archive) throws IOException {
+        List<TarEntry> entries = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(archive)))) {
+            String paxPath = null;
+            while (true) {
+                byte[] header = new byte[BLOCK];
+                in.readFully(header);
+                if (isZero(header)) {
+                    byte[] second = new byte[BLOCK];
+                    in.readFully(second);
+                    assertTrue(isZero(second), "end of archive is two empty blocks");
+                    assertEquals(-1, in.read());
+                    return entries;
+                }
+                assertEquals("ustar\u000000", new String(header, 257, 8, StandardCharsets.US_ASCII));
+                assertEquals(octal(header, 148, 8), checksum(header));
+                TarEntry entry = new TarEntry();
+                entry.name = new String(header, 0, length(header, 0, 100), StandardCharsets.UTF_8);
+                entry.mode = (int) octal(header, 100, 8);
+                entry.type = (char) header[156];
+                entry.content = new byte[(int) octal(header, 124, 12)];
+                in.readFully(entry.content);
+                skipPadding(in,
+                            entry.content.length);
+                if (entry.type == 'x') {
+                    paxPath = paxPath(entry.content);
+                    continue;
+                }
+                if (paxPath != null) {
+                    entry.name = paxPath;
+                    entry.pax = true;
+                    paxPath = null;
+                }
+                entries.add(entry);
+            }
+        } catch (EOFException e) {
+            throw new AssertionError("archive is truncated", e);
+        }
+    }
+
+    private static String paxPath(byte[] records) {
+        String text = new String(records, StandardCharsets.UTF_8);
+        int space = text.indexOf(' ');
+        assertEquals(records.length, Integer.parseInt(text.substring(0, space)));
+        assertTrue(text.startsWith("path=", space + 1));
+        assertTrue(text.endsWith("\n"));
+        return text.substring(space + 6, text.length() - 1);
+    }
+
+    private static void skipPadding(InputStream in,
+                                    int size) throws IOException {
+        int remainder = size % BLOCK;
+        if (remainder > 0) {
+            byte[] padding = new byte[BLOCK - remainder];
+            new DataInputStream(in).readFully(padding);
+            assertTrue(isZero(padding));
+        }
+    }
+
+    private static long checksum(byte[] header) {
+        long checksum = 0;
+        for (int i = 0; i < header.length; i++) {
+            checksum += i >= 148 && i < 156 ? ' ' : header[i] & 0xFF;
+        }
+        return checksum;
+    }
+
+    private static long octal(byte[] header,
+                              int offset,
+                              int length) {
+        String value = new String(header, offset, length, StandardCharsets.US_ASCII).trim();
+        int end = value.indexOf(0);
+        return Long.parseLong(end < 0 ? value : value.substring(0, end).trim(), 8);
+    }
+
+    private static int length(byte[] header,
+                              int offset,
+                              int max) {
+        int length = 0;
+        while (length < max && header[offset + length] != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class TarEntry {
+
+        private String name;
+        private int mode;
+        private char type;
+        private byte[] content;
+        private boolean pax;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jbpm.bootstrap.model.Project;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GenerationFlightsTest {
+
+    private static final int REQUESTS = 20;
+
+    @TempDir
+    Path folder;
+
+    private final GenerationFlights flights = new GenerationFlights();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(REQUESTS);
+
+    private final AtomicInteger generations = new AtomicInteger();
+
+    private final CompletableFuture<GeneratedArchive> generated = new CompletableFuture<>();
+
+    private final GenerationKey key = GenerationKey.of(project(),
+                                                       "bpm-offline",
+                                                       "2.3.4.RELEASE",
+                                                       "7.59.0.Final");
+
+    @BeforeEach
+    public void setUp() {
+        ReflectionTestUtils.setField(flights, "enabled", true);
+        ReflectionTestUtils.setField(flights, "followerTimeout", 120000L);
+    }
+
+    @AfterEach
+    public void close() {
+        flights.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void archiveIsSharedUntilAllDiscardIt() throws Exception {
+        CompletableFuture<GeneratedArchive> leader = flights.join(key,
+                                                                  "first.zip",
+                                                                  this::generation);
+        CompletableFuture<GeneratedArchive> follower = flights.join(key,
+                                                                    "second.zip",
+                                                                    this::generation);
+        GeneratedArchive archive = archive();
+        generated.complete(archive);
+
+        GeneratedArchive first = leader.get(5, TimeUnit.SECONDS);
+        GeneratedArchive second = follower.get(5, TimeUnit.SECONDS);
+        assertEquals(1, generations.get());
+        assertEquals(archive.getFile(), first.getFile());
+        assertEquals(archive.getFile(), second.getFile());
+        assertEquals("first.zip", first.getFileName());
+        assertEquals("second.zip", second.getFileName());
+
+        first.discard();
+        assertTrue(archive.getFolder().exists(), "folder deleted while still held");
+        second.discard();
+        assertFalse(archive.getFolder().exists(), "folder kept after all discarded it");
+    }
+
+    @Test
+    public void followerTimesOutWithoutAffectingLeader() throws Exception {
+        ReflectionTestUtils.setField(flights, "followerTimeout", 100L);
+        CompletableFuture<GeneratedArchive> leader = flights.join(key,
+                                                                  "first.zip",
+                                                                  this::generation);
+        CompletableFuture<GeneratedArchive> follower = flights.join(key,
+                                                                    "second.zip",
+                                                                    this::generation);
+
+        ExecutionException timedOut = assertThrows(ExecutionException.class,
+                                                   () -> follower.get(5, TimeUnit.SECONDS));
+        assertEquals("Timeout while waiting for generated project", timedOut.getCause().getMessage());
+        assertFalse(leader.isDone());
+
+        GeneratedArchive archive = archive();
+        generated.complete(archive);
+
+        GeneratedArchive first = leader.get(5, TimeUnit.SECONDS);
+        assertEquals("first.zip", first.getFileName());
+        // not retained for the follower that left
+        first.discard();
+        assertFalse(archive.getFolder().exists(), "folder kept for the follower that timed out");
+    }
+
+    @Test
+    public void leaderLeavingDoesNotCancelGenerationOfFollowers() throws Exception {
+        CompletableFuture<GeneratedArchive> leader = flights.join(key,
+                                                                  "first.zip",
+                                                                  this::generation);
+        CompletableFuture<GeneratedArchive> follower = flights.join(key,
+                                                                    "second.zip",
+                                                                    this::generation);
+        leader.cancel(true);
+
+        GeneratedArchive archive = archive();
+        generated.complete(archive);
+
+        GeneratedArchive second = follower.get(5, TimeUnit.SECONDS);
+        assertFalse(generated.isCancelled());
+        assertEquals("second.zip", second.getFileName());
+        second.discard();
+        assertFalse(archive.getFolder().exists(), "folder kept for the leader that left");
+    }
+
+    @Test
+    public void generationIsCancelledWhenAllRequestsLeave() throws Exception {
+        CompletableFuture<GeneratedArchive> leader = flights.join(key,
+                                                                  "first.zip",
+                                                                  this::generation);
+        CompletableFuture<GeneratedArchive> follower = flights.join(key,
+                                                                    "second.zip",
+                                                                    this::generation);
+        leader.cancel(true);
+        assertFalse(generated.isCancelled());
+        follower.cancel(true);
+
+        awaitCancelled(generated);
+
+        // next request does not join the abandoned flight
+        CompletableFuture<GeneratedArchive> next = flights.join(key,
+                                                                "third.zip",
+                                                                () -> {
+                                                                    generations.incrementAndGet();
+                                                                    return CompletableFuture.completedFuture(archive());
+                                                                });
+        GeneratedArchive third = next.get(5, TimeUnit.SECONDS);
+        assertEquals("third.zip", third.getFileName());
+        assertEquals(2, generations.get());
+        third.discard();
+    }
+
+    @Test
+    public void failureIsReportedToAllRequests() throws Exception {
+        CompletableFuture<GeneratedArchive> leader = flights.join(key,
+                                                                  "first.zip",
+                                                                  this::generation);
+        CompletableFuture<GeneratedArchive> follower = flights.join(key,
+                                                                    "second.zip",
+                                                                    this::generation);
+        IllegalStateException failure = new IllegalStateException("Process failed");
+        generated.completeExceptionally(failure);
+
+        assertSame(failure, assertThrows(ExecutionException.class,
+                                         () -> leader.get(5, TimeUnit.SECONDS)).getCause());
+        assertSame(failure, assertThrows(ExecutionException.class,
+                                         () -> follower.get(5, TimeUnit.SECONDS)).getCause());
+        assertEquals(1, generations.get());
+    }
+
+    @Test
+    public void concurrentRequestsShareOneGeneration() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<CompletableFuture<GeneratedArchive>>> joined = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            String fileName = "project-" + i + ".zip";
+            joined.add(executor.submit(() -> {
+                start.await();
+                return flights.join(key,
+                                    fileName,
+                                    this::generation);
+            }));
+        }
+        start.countDown();
+        List<CompletableFuture<GeneratedArchive>> requests = new ArrayList<>();
+        for (Future<CompletableFuture<GeneratedArchive>> request : joined) {
+            requests.add(request.get(5, TimeUnit.SECONDS));
+        }
+        GeneratedArchive archive = archive();
+        generated.complete(archive);
+
+        List<GeneratedArchive> shares = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            GeneratedArchive share = requests.get(i).get(5, TimeUnit.SECONDS);
+            assertEquals("project-" + i + ".zip", share.getFileName());
+            shares.add(share);
+        }
+        assertEquals(1, generations.get());
+
+        for (int i = 0; i < REQUESTS - 1; i++) {
+            shares.get(i).discard();
+            assertTrue(archive.getFolder().exists(), "folder deleted after " + (i + 1) + " discards");
+        }
+        shares.get(REQUESTS - 1).discard();
+        assertFalse(archive.getFolder().exists(), "folder kept after all discarded it");
+    }
+
+    @Test
+    public void disabledFlightsGenerateEveryRequest() throws Exception {
+        ReflectionTestUtils.setField(flights, "enabled", false);
+
+        assertSame(generated, flights.join(key,
+                                           "first.zip",
+                                           this::generation));
+        assertSame(generated, flights.join(key,
+                                           "second.zip",
+                                           this::generation));
+        assertEquals(2, generations.get());
+    }
+
+    private CompletableFuture<GeneratedArchive> generation() {
+        generations.incrementAndGet();
+        return generated;
+    }
+
+    private GeneratedArchive archive() throws Exception {
+        File generationFolder = Files.createTempDirectory(folder,
+                                                          "generation").toFile();
+        File file = new File(generationFolder,
+                             "project.zip");
+        Files.write(file.toPath(),
+                    new byte[]{1, 2, 3});
+        return new GeneratedArchive(file,
+                                    "project.zip",
+                                    generationFolder,
+                                    key);
+    }
+
+    private static Project project() {
+        Project project = new Project();
+        project.setName("business-application");
+        project.setPackageName("com.company");
+        project.setVersion("1.0-SNAPSHOT");
+        return project;
+    }
+
+    private static void awaitCancelled(CompletableFuture<?> future) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!future.isCancelled()) {
+            assertTrue(System.currentTimeMillis() < deadline, "generation not cancelled");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jbpm.bootstrap.service.util.GenerationLimiter.Permit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GenerationLimiterTest {
+
+    private static final String CLIENT = "10.0.0.1";
+    private static final String SETUP = "bpm-offline";
+
+    private final GenerationLimiter limiter = new GenerationLimiter();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @BeforeEach
+    public void setUp() {
+        ReflectionTestUtils.setField(limiter, "enabled", true);
+        ReflectionTestUtils.setField(limiter, "initialLimit", 8);
+        ReflectionTestUtils.setField(limiter, "minLimit", 2);
+        ReflectionTestUtils.setField(limiter, "maxLimit", 10);
+        ReflectionTestUtils.setField(limiter, "latencyTolerance", 2.0);
+        ReflectionTestUtils.setField(limiter, "queueCapacity", 50);
+        ReflectionTestUtils.setField(limiter, "queueTimeout", 30000L);
+        ReflectionTestUtils.setField(limiter, "clientRate", 60.0);
+        ReflectionTestUtils.setField(limiter, "clientBurst", 3.0);
+        ReflectionTestUtils.setField(limiter, "batchRate", 60.0);
+        ReflectionTestUtils.setField(limiter, "batchBurst", 50.0);
+        ReflectionTestUtils.setField(limiter, "forwardedHeader", "");
+        limiter.init();
+    }
+
+    @AfterEach
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void burstIsAllowedThenRejected() {
+        for (int i = 0; i < 3; i++) {
+            limiter.checkRate(CLIENT);
+        }
+
+        GenerationRejectedException rejected = assertThrows(GenerationRejectedException.class,
+                                                            () -> limiter.checkRate(CLIENT));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.getStatus());
+        // one request per second
+        assertEquals(1, rejected.getRetryAfterSeconds());
+
+        // other clients have their own buckets
+        limiter.checkRate("10.0.0.2");
+        // unknown clients are not limited
+        limiter.checkRate(null);
+    }
+
+    @Test
+    public void bucketRefills() throws Exception {
+        ReflectionTestUtils.setField(limiter, "clientRate", 6000.0);
+        for (int i = 0; i < 3; i++) {
+            limiter.checkRate(CLIENT);
+        }
+        assertThrows(GenerationRejectedException.class,
+                     () -> limiter.checkRate(CLIENT));
+
+        // 100 tokens per second, refilled up to the burst only
+        Thread.sleep(100);
+
+        for (int i = 0; i < 3; i++) {
+            limiter.checkRate(CLIENT);
+        }
+        assertThrows(GenerationRejectedException.class,
+                     () -> limiter.checkRate(CLIENT));
+    }
+
+    @Test
+    public void batchTakesAllProjectsOrNone() {
+        limiter.checkBatchRate(CLIENT, 30);
+
+        GenerationRejectedException rejected = assertThrows(GenerationRejectedException.class,
+                                                            () -> limiter.checkBatchRate(CLIENT, 30));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.getStatus());
+        // ten projects missing at one per second
+        assertEquals(10, rejected.getRetryAfterSeconds());
+
+        // rejected batch took nothing
+        limiter.checkBatchRate(CLIENT, 20);
+        assertThrows(GenerationRejectedException.class,
+                     () -> limiter.checkBatchRate(CLIENT, 1));
+    }
+
+    @Test
+    public void disabledLimiterDoesNotLimit() throws Exception {
+        ReflectionTestUtils.setField(limiter, "enabled", false);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.checkRate(CLIENT);
+            limiter.acquire(false, SETUP);
+        }
+        limiter.checkBatchRate(CLIENT, 1000);
+        assertEquals(0, limiter.getStatistics().get("inUse"));
+    }
+
+    @Test
+    public void firstLatencyOnlySetsBaseline() throws Exception {
+        generation(1000);
+
+        assertEquals(8.0, limit(), 0.0001);
+        assertEquals(Collections.singletonMap(SETUP, 1000L), limiter.getStatistics().get("baselineLatencyMs"));
+    }
+
+    @Test
+    public void slowGenerationDecreasesLimit() throws Exception {
+        generation(1000);
+        generation(3000);
+
+        assertEquals(7.2, limit(), 0.0001);
+
+        // within tolerance of the baseline
+        generation(1500);
+        assertEquals(7.2 + 1 / 7.2, limit(), 0.0001);
+    }
+
+    @Test
+    public void limitDoesNotDropBelowMinimum() throws Exception {
+        generation(1000);
+        for (int i = 0; i < 20; i++) {
+            generation(10000);
+        }
+
+        assertEquals(2.0, limit(), 0.0001);
+    }
+
+    @Test
+    public void fastGenerationsIncreaseLimitUpToMaximum() throws Exception {
+        generation(1000);
+        for (int i = 0; i < 8; i++) {
+            generation(1000);
+        }
+        // one per limit's worth of generations
+        assertEquals(9.0, limit(), 0.1);
+
+        for (int i = 0; i < 50; i++) {
+            generation(1000);
+        }
+        assertEquals(10.0, limit(), 0.0001);
+    }
+
+    @Test
+    public void baselinesAreKeptPerSetup() throws Exception {
+        generation(1000);
+        limiter.acquire(false, "dmn-online");
+        limiter.release(3000, "dmn-online");
+
+        // first generation of the other setup is not compared to this one
+        assertEquals(8.0, limit(), 0.0001);
+    }
+
+    @Test
+    public void waiterIsAdmittedOnRelease() throws Exception {
+        ReflectionTestUtils.setField(limiter, "initialLimit", 2);
+        limiter.init();
+        Permit first = limiter.acquire(false, SETUP);
+        limiter.acquire(true, SETUP);
+
+        Future<Permit> queued = executor.submit(() -> limiter.acquire(false, SETUP));
+        awaitQueued(1);
+        assertFalse(queued.isDone());
+
+        first.close();
+
+        queued.get(5, TimeUnit.SECONDS);
+        assertEquals(2, limiter.getStatistics().get("inUse"));
+        assertEquals(0, limiter.getStatistics().get("queuedRest"));
+    }
+
+    @Test
+    public void fullQueueIsRejected() throws Exception {
+        ReflectionTestUtils.setField(limiter, "initialLimit", 2);
+        ReflectionTestUtils.setField(limiter, "queueCapacity", 1);
+        limiter.init();
+        limiter.acquire(false, SETUP);
+        limiter.acquire(false, SETUP);
+        executor.submit(() -> limiter.acquire(true, SETUP));
+        awaitQueued(1);
+
+        GenerationRejectedException rejected = assertThrows(GenerationRejectedException.class,
+                                                            () -> limiter.acquire(false, SETUP));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, rejected.getStatus());
+        assertTrue(rejected.getRetryAfterSeconds() >= 1);
+    }
+
+    @Test
+    public void waitingTooLongIsRejected() throws Exception {
+        ReflectionTestUtils.setField(limiter, "initialLimit", 2);
+        ReflectionTestUtils.setField(limiter, "queueTimeout", 100L);
+        limiter.init();
+        limiter.acquire(false, SETUP);
+        limiter.acquire(false, SETUP);
+
+        GenerationRejectedException rejected = assertThrows(GenerationRejectedException.class,
+                                                            () -> limiter.acquire(false, SETUP));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, rejected.getStatus());
+        assertEquals(0, limiter.getStatistics().get("queuedRest"));
+        assertEquals(2, limiter.getStatistics().get("inUse"));
+    }
+
+    /*
+     * generation that took given time, released directly so the latency does not depend on the clock
+     */
+    private void generation(long latency) throws InterruptedException {
+        limiter.acquire(false,
+                        SETUP);
+        limiter.release(latency,
+                        SETUP);
+    }
+
+    private double limit() {
+        return (double) limiter.getStatistics().get("limit");
+    }
+
+    private void awaitQueued(int queued) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((int) limiter.getStatistics().get("queuedWeb") + (int) limiter.getStatistics().get("queuedRest") < queued) {
+            assertTrue(System.currentTimeMillis() < deadline, "request not queued");
+            Thread.sleep(10);
+        }
+    }
+}
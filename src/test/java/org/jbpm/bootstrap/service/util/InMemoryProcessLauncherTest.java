@@ -0,0 +1,217 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.bootstrap.service.util;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.RuntimeEngine;
+import org.kie.api.runtime.manager.RuntimeManager;
+import org.kie.api.runtime.process.WorkItemManager;
+import org.kie.internal.runtime.manager.context.EmptyContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class InMemoryProcessLauncherTest {
+
+    private static final int THREADS = 8;
+    private static final int CALLS = 50;
+
+    private final AtomicInteger inside = new AtomicInteger();
+    private final AtomicInteger maxInside = new AtomicInteger();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+    @AfterEach
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void sessionCallsAreSerialized() throws Exception {
+        KieSession session = (KieSession) InMemoryProcessLauncher.serialized(session(),
+                                                                            new Object());
+
+        runConcurrently(i -> {
+            if (i % 3 == 0) {
+                session.startProcess("GenerateProject",
+                                     Collections.emptyMap());
+            } else if (i % 3 == 1) {
+                session.abortProcessInstance(i);
+            } else {
+                session.getWorkItemManager().completeWorkItem(i,
+                                                              null);
+            }
+        });
+
+        assertEquals(THREADS * CALLS, calls.get());
+        assertEquals(1, maxInside.get(), "calls made at the same time");
+    }
+
+    @Test
+    public void sessionOfRegisteredManagerSharesTheLock() throws Exception {
+        Object lock = new Object();
+        KieSession raw = session();
+        RuntimeEngine rawEngine = engine(raw);
+        List<Object> disposed = Collections.synchronizedList(new ArrayList<>());
+        RuntimeManager manager = (RuntimeManager) InMemoryProcessLauncher.serialized(manager(rawEngine,
+                                                                                             disposed),
+                                                                                     lock);
+        KieSession session = (KieSession) InMemoryProcessLauncher.serialized(raw,
+                                                                            lock);
+
+        // request threads use the session, executor threads complete work items via the manager
+        runConcurrently(i -> {
+            if (i % 2 == 0) {
+                session.startProcess("GenerateProject",
+                                     Collections.emptyMap());
+                return;
+            }
+            RuntimeEngine engine = manager.getRuntimeEngine(EmptyContext.get());
+            engine.getKieSession().getWorkItemManager().completeWorkItem(i,
+                                                                         null);
+            manager.disposeRuntimeEngine(engine);
+        });
+
+        assertEquals(THREADS * CALLS, calls.get());
+        assertEquals(1, maxInside.get(), "calls made at the same time");
+        // manager gets back its own engines, not the proxies
+        assertEquals(THREADS * CALLS / 2, disposed.size());
+        for (Object engine : disposed) {
+            assertSame(rawEngine, engine);
+        }
+    }
+
+    @Test
+    public void lockIsReentrant() {
+        Object lock = new Object();
+        KieSession[] session = new KieSession[1];
+        // work item handlers complete work items synchronously while the process is being started
+        KieSession raw = (KieSession) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                             new Class<?>[]{KieSession.class},
+                                                             (proxy, method, args) -> {
+                                                                 if (method.getName().equals("startProcess")) {
+                                                                     session[0].getWorkItemManager().completeWorkItem(1,
+                                                                                                                      null);
+                                                                     return null;
+                                                                 }
+                                                                 if (method.getName().equals("getWorkItemManager")) {
+                                                                     return workItemManager();
+                                                                 }
+                                                                 return null;
+                                                             });
+        session[0] = (KieSession) InMemoryProcessLauncher.serialized(raw,
+                                                                     lock);
+
+        session[0].startProcess("GenerateProject",
+                                Collections.emptyMap());
+
+        assertEquals(1, calls.get());
+    }
+
+    private interface Call {
+
+        void run(int i) throws Exception;
+    }
+
+    private void runConcurrently(Call call) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            int offset = thread * CALLS;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < CALLS; i++) {
+                    call.run(offset + i);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30,
+                       TimeUnit.SECONDS);
+        }
+    }
+
+    /*
+     * records how many threads are inside of it at the same time
+     */
+    private void enter() throws InterruptedException {
+        int current = inside.incrementAndGet();
+        maxInside.accumulateAndGet(current,
+                                   Math::max);
+        Thread.sleep(1);
+        calls.incrementAndGet();
+        inside.decrementAndGet();
+    }
+
+    private KieSession session() {
+        WorkItemManager workItemManager = workItemManager();
+        return (KieSession) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                   new Class<?>[]{KieSession.class},
+                                                   (proxy, method, args) -> {
+                                                       if (method.getName().equals("getWorkItemManager")) {
+                                                           return workItemManager;
+                                                       }
+                                                       enter();
+                                                       return null;
+                                                   });
+    }
+
+    private WorkItemManager workItemManager() {
+        return (WorkItemManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                        new Class<?>[]{WorkItemManager.class},
+                                                        (proxy, method, args) -> {
+                                                            enter();
+                                                            return null;
+                                                        });
+    }
+
+    private RuntimeEngine engine(KieSession session) {
+        return (RuntimeEngine) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                      new Class<?>[]{RuntimeEngine.class},
+                                                      (proxy, method, args) -> session);
+    }
+
+    private RuntimeManager manager(RuntimeEngine engine,
+                                   List<Object> disposed) {
+        return (RuntimeManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                       new Class<?>[]{RuntimeManager.class},
+                                                       (proxy, method, args) -> {
+                                                           if (method.getName().equals("getRuntimeEngine")) {
+                                                               return engine;
+                                                           }
+                                                           if (method.getName().equals("disposeRuntimeEngine")) {
+                                                               disposed.add(args[0]);
+                                                           }
+                                                           return null;
+                                                       });
+    }
+}